@@ -0,0 +1,119 @@
+package bench;
+
+import asanti.AsantiPaths;
+import asanti.EnumTable;
+import com.brightsparklabs.asanti.schema.AsnBuiltinType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.ByteOut;
+import util.TagStack;
+import util.Util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/// The pieces every walk leans on once per element or per leaf, on their own: the tag stack, value
+/// text, the field label and the enum name lookup.  Values come from cdr.asn so they look like
+/// what the walks see.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildingBlocksBenchmark {
+
+    /// /110/7/0/1 - a cell id inside a location change
+    static final int[] PATH = {110, 7, 0, 1};
+    /// CauseForTerm values as they turn up, 99 has no name
+    static final int[] CAUSES = {0, 0, 0, 0, 1, 3, 4, 52, 99};
+
+    private final TagStack work = new TagStack();
+    private final TagStack deep = new TagStack();
+    private final ByteOut out = new ByteOut(64);
+    private byte[] text;
+    private byte[] control;
+    private AsantiPaths.FieldInfo field;
+    private EnumTable causes;
+    private byte[][] causeBytes;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        for (int t : PATH)
+            deep.push(t);
+        text = "ncr-5f3a91c2-1234".getBytes(StandardCharsets.UTF_8);
+        control = new byte[]{'a', 'b', 0x07, 'c', '4', '2'};
+
+        AsantiPaths.FieldInfo record = new AsantiPaths.FieldInfo(null, AsnBuiltinType.Set, "callRecord", null);
+        AsantiPaths.FieldInfo changes = new AsantiPaths.FieldInfo(record, AsnBuiltinType.SequenceOf, "changeOfLocation", null);
+        AsantiPaths.FieldInfo location = new AsantiPaths.FieldInfo(changes, AsnBuiltinType.Sequence, "location", null);
+        field = new AsantiPaths.FieldInfo(location, AsnBuiltinType.OctetString, "cellId", null);
+
+        causes = new EnumTable.Builder()
+                .put(0, "normalRelease").put(1, "partialRecord").put(2, "partialRecordCallReestablishment")
+                .put(3, "unsuccessfulCallAttempt").put(4, "abnormalRelease").put(5, "cAMELInitCallRelease")
+                .put(52, "unauthorizedRequestingNetwork").put(53, "unauthorizedLCSClient")
+                .put(54, "positionMethodFailure").put(58, "unknownOrUnreachableLCSClient")
+                .build();
+        causeBytes = new byte[CAUSES.length][];
+        for (int i = 0; i < CAUSES.length; i++)
+            causeBytes[i] = new byte[]{(byte) CAUSES[i]};
+    }
+
+    private int nextCause() {
+        next = next + 1 == CAUSES.length ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public int tagStackPushPop() {
+        for (int t : PATH)
+            work.push(t);
+        int sum = 0;
+        for (int i = 0; i < PATH.length; i++)
+            sum += work.pop();
+        return sum;
+    }
+
+    @Benchmark
+    public String tagStackToString() {
+        return deep.toString();
+    }
+
+    @Benchmark
+    public String carefulBytesToStringText() {
+        return Util.carefulBytesToString(text);
+    }
+
+    @Benchmark
+    public String carefulBytesToStringControl() {
+        return Util.carefulBytesToString(control);
+    }
+
+    @Benchmark
+    public String fieldInfoToString() {
+        return field.toString();
+    }
+
+    @Benchmark
+    public String enumName() {
+        return causes.name(CAUSES[nextCause()]);
+    }
+
+    /// what the raw walk does with an enum leaf - content bytes to name, or the number
+    @Benchmark
+    public ByteOut enumRender() {
+        byte[] b = causeBytes[nextCause()];
+        out.reset();
+        return causes.render(out, b, 0, b.length);
+    }
+}
@@ -0,0 +1,254 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+
+/// Fixed synthetic call records encoded against cdr.asn, built in memory from a fixed seed so
+/// every run of every benchmark sees the same bytes.
+///
+/// Two shapes: "basic" has only the mandatory fields, "full" has every optional one as well with
+/// a few location changes and supplementary services per record - about 10 and 28 leaves.
+public final class Corpus {
+
+    /// top type in cdr.asn
+    public static final String TOP = "CallEventRecord";
+    /// records per corpus - the benchmarks cycle through them
+    public static final int RECORDS = 4096;
+
+    static final int CONTEXT = 0x80;
+    static final int CONSTRUCTED = 0x20;
+    static final int SEQUENCE = 0x30;
+
+    private static Path schemaFile;
+
+    private final ByteBuffer[] records;
+    private final long bytes;
+    private int next = 0;
+
+    private Corpus(ByteBuffer[] records) {
+        this.records = records;
+        long n = 0;
+        for (ByteBuffer r : records)
+            n += r.remaining();
+        this.bytes = n;
+    }
+
+    /// the corpus for shape, "basic" or "full"
+    public static Corpus of(String shape) {
+        boolean full;
+        switch (shape) {
+            case "basic":
+                full = false;
+                break;
+            case "full":
+                full = true;
+                break;
+            default:
+                throw new RuntimeException("unknown corpus shape: " + shape);
+        }
+        SplittableRandom rnd = new SplittableRandom(full ? 0x5eed_f011L : 0x5eed_ba51cL);
+        ByteBuffer[] records = new ByteBuffer[RECORDS];
+        for (int i = 0; i < RECORDS; i++)
+            records[i] = ByteBuffer.wrap(record(rnd, i, full));
+        return new Corpus(records);
+    }
+
+    /// cdr.asn copied out to a file, AsnSchemaReader only reads files
+    public static synchronized Path schemaFile() {
+        if (schemaFile == null) {
+            try (InputStream in = Corpus.class.getResourceAsStream("cdr.asn")) {
+                Path p = Files.createTempFile("bench-cdr", ".asn");
+                p.toFile().deleteOnExit();
+                Files.copy(in, p, StandardCopyOption.REPLACE_EXISTING);
+                schemaFile = p;
+            } catch (IOException e) {
+                throw new UncheckedIOException("unable to copy out cdr.asn", e);
+            }
+        }
+        return schemaFile;
+    }
+
+    /// the next record, wrapping round at the end - the same buffers every lap, never written to
+    public ByteBuffer next() {
+        ByteBuffer r = records[next];
+        next = next + 1 == records.length ? 0 : next + 1;
+        return r;
+    }
+
+    public int size() {
+        return records.length;
+    }
+
+    /// total encoded bytes
+    public long bytes() {
+        return bytes;
+    }
+
+    /// one record as a file would hold it - [110] wrapped SET
+    private static byte[] record(SplittableRandom rnd, int seq, boolean full) {
+        Tlv set = new Tlv();
+        set.prim(0, integer(rnd.nextInt(6) == 0 ? 1 : 0));
+        set.prim(1, bcd(rnd, 15));
+        set.prim(2, prefixed(0x91, bcd(rnd, 11)));
+        if (full) {
+            set.prim(3, prefixed(0x91, bcd(rnd, 11)));
+            set.prim(4, prefixed(0x81, bcd(rnd, 10)));
+        }
+        set.prim(5, prefixed(0x91, bcd(rnd, 12)));
+        if (full) {
+            set.cons(6, location(rnd));
+            Tlv changes = new Tlv();
+            for (int i = 1 + rnd.nextInt(4); i > 0; i--) {
+                Tlv change = new Tlv();
+                change.cons(0, location(rnd));
+                change.prim(1, timestamp(rnd));
+                changes.universal(SEQUENCE, change);
+            }
+            set.cons(7, changes);
+        }
+        set.prim(8, integer(rnd.nextInt(0x20)));
+        if (full)
+            set.prim(9, timestamp(rnd));
+        set.prim(10, timestamp(rnd));
+        set.prim(11, integer(rnd.nextInt(7200)));
+        int[] causes = {0, 0, 0, 0, 1, 3, 4, 52, 99};
+        set.prim(12, integer(causes[rnd.nextInt(causes.length)]));
+        if (full)
+            set.prim(13, integer(rnd.nextInt(1 << 20)));
+        byte[] ref = new byte[8];
+        rnd.nextBytes(ref);
+        set.prim(14, ref);
+        if (full) {
+            set.prim(15, integer(seq));
+            set.prim(16, ("ncr-" + Integer.toHexString(rnd.nextInt()) + "-" + seq).getBytes(StandardCharsets.UTF_8));
+        }
+        set.prim(17, prefixed(0x91, bcd(rnd, 12)));
+        if (full) {
+            Tlv services = new Tlv();
+            for (int i = rnd.nextInt(4); i > 0; i--) {
+                Tlv ss = new Tlv();
+                ss.prim(0, new byte[]{(byte) (0x10 + rnd.nextInt(0x40))});
+                ss.prim(1, integer(rnd.nextInt(8)));
+                services.universal(SEQUENCE, ss);
+            }
+            set.cons(18, services);
+        }
+        return new Tlv().cons(110, set).toByteArray();
+    }
+
+    private static Tlv location(SplittableRandom rnd) {
+        Tlv loc = new Tlv();
+        loc.prim(0, new byte[]{(byte) rnd.nextInt(256), (byte) rnd.nextInt(256)});
+        loc.prim(1, new byte[]{(byte) rnd.nextInt(256), (byte) rnd.nextInt(256)});
+        return loc;
+    }
+
+    /// TBCD digits, filler nibble on an odd count
+    private static byte[] bcd(SplittableRandom rnd, int digits) {
+        byte[] b = new byte[(digits + 1) / 2];
+        for (int i = 0; i < digits; i++) {
+            int d = rnd.nextInt(10);
+            b[i / 2] |= (i & 1) == 0 ? d : d << 4;
+        }
+        if ((digits & 1) != 0)
+            b[b.length - 1] |= (byte) 0xf0;
+        return b;
+    }
+
+    private static byte[] prefixed(int first, byte[] rest) {
+        byte[] b = new byte[rest.length + 1];
+        b[0] = (byte) first;
+        System.arraycopy(rest, 0, b, 1, rest.length);
+        return b;
+    }
+
+    /// YYMMDDhhmmss, sign and hhmm offset in BCD - the 3GPP TimeStamp layout
+    private static byte[] timestamp(SplittableRandom rnd) {
+        int[] v = {22, 1 + rnd.nextInt(12), 1 + rnd.nextInt(28), rnd.nextInt(24), rnd.nextInt(60), rnd.nextInt(60)};
+        byte[] b = new byte[9];
+        for (int i = 0; i < v.length; i++)
+            b[i] = (byte) ((v[i] / 10) << 4 | v[i] % 10);
+        b[6] = '+';
+        b[7] = 0x01;
+        b[8] = 0x00;
+        return b;
+    }
+
+    /// shortest two's complement content bytes of v
+    private static byte[] integer(long v) {
+        int n = 1;
+        while (n < 8 && (v >> (8 * n - 1)) != 0 && (v >> (8 * n - 1)) != -1)
+            n++;
+        byte[] b = new byte[n];
+        for (int i = 0; i < n; i++)
+            b[i] = (byte) (v >> (8 * (n - 1 - i)));
+        return b;
+    }
+
+    /// the content of a constructed element being built up, children appended in order
+    private static final class Tlv {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        /// [tag] IMPLICIT primitive
+        Tlv prim(int tag, byte[] value) {
+            header(CONTEXT, tag, value.length);
+            out.writeBytes(value);
+            return this;
+        }
+
+        /// [tag] IMPLICIT constructed
+        Tlv cons(int tag, Tlv content) {
+            byte[] b = content.toByteArray();
+            header(CONTEXT | CONSTRUCTED, tag, b.length);
+            out.writeBytes(b);
+            return this;
+        }
+
+        /// untagged universal constructed element - a SEQUENCE OF entry
+        Tlv universal(int identifier, Tlv content) {
+            byte[] b = content.toByteArray();
+            out.write(identifier);
+            length(b.length);
+            out.writeBytes(b);
+            return this;
+        }
+
+        private void header(int cls, int tag, int len) {
+            if (tag < 0x1f) {
+                out.write(cls | tag);
+            } else {
+                out.write(cls | 0x1f);
+                int shift = 28;
+                while (shift > 0 && (tag >>> shift) == 0)
+                    shift -= 7;
+                for (; shift > 0; shift -= 7)
+                    out.write(0x80 | (tag >>> shift) & 0x7f);
+                out.write(tag & 0x7f);
+            }
+            length(len);
+        }
+
+        private void length(int len) {
+            if (len < 0x80) {
+                out.write(len);
+            } else {
+                int n = len < 1 << 8 ? 1 : len < 1 << 16 ? 2 : len < 1 << 24 ? 3 : 4;
+                out.write(0x80 | n);
+                for (int i = n - 1; i >= 0; i--)
+                    out.write(len >>> (8 * i));
+            }
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
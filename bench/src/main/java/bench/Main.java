@@ -0,0 +1,23 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/// JMH's own command line with the GC profiler always on, so every run reports
+/// gc.alloc.rate.norm - bytes allocated per record for WalkBenchmark - next to the throughput.
+///
+///   mvn -q install && mvn -q -f bench/pom.xml package
+///   java -jar bench/target/benchmarks.jar                      everything
+///   java -jar bench/target/benchmarks.jar WalkBenchmark -p shape=full
+public class Main {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,82 @@
+package bench;
+
+import picocli.CommandLine;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/// The decode tools live in the default package, which nothing in a named package can import, so
+/// the benchmarks reach their walks through method handles looked up once at setup and set their
+/// static state reflectively the way main() would.
+///
+/// The handles sit in benchmark fields rather than static finals, so each call costs a few ns of
+/// indirect dispatch that a direct call would not - noise next to a record walk.
+final class Tools {
+
+    private Tools() {
+    }
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("decode tool not on the classpath: " + name, e);
+        }
+    }
+
+    /// method name of cls whatever its access - an instance method takes its receiver first
+    static MethodHandle method(String cls, String name, Class<?>... params) {
+        try {
+            Method m = type(cls).getDeclaredMethod(name, params);
+            m.setAccessible(true);
+            return MethodHandles.lookup().unreflect(m);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("no " + cls + "." + name, e);
+        }
+    }
+
+    /// new cls(args) through the constructor taking params, whatever its access
+    static Object construct(String cls, Class<?>[] params, Object... args) {
+        try {
+            Constructor<?> c = type(cls).getDeclaredConstructor(params);
+            c.setAccessible(true);
+            return c.newInstance(args);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("unable to construct " + cls, e);
+        }
+    }
+
+    static void setStatic(String cls, String field, Object value) {
+        try {
+            Field f = type(cls).getDeclaredField(field);
+            f.setAccessible(true);
+            f.set(null, value);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("no " + cls + "." + field, e);
+        }
+    }
+
+    /// parse args into a fresh tool.Cli and make it the tool's cli, as main() does
+    static void cli(String tool, String... args) {
+        Object cli = construct(tool + "$Cli", new Class<?>[0]);
+        new CommandLine(cli).parseArgs(args);
+        setStatic(tool, "cli", cli);
+    }
+
+    /// handle with every parameter and the return of a type the benchmarks cannot name turned
+    /// into Object, ready for invokeExact
+    static MethodHandle erase(MethodHandle h, Class<?>... hidden) {
+        MethodType t = h.type();
+        for (int i = 0; i < t.parameterCount(); i++)
+            for (Class<?> c : hidden)
+                if (t.parameterType(i) == c)
+                    t = t.changeParameterType(i, Object.class);
+        if (!t.returnType().isPrimitive())
+            t = t.changeReturnType(Object.class);
+        return h.asType(t);
+    }
+}
@@ -0,0 +1,137 @@
+package bench;
+
+import asanti.AsantiPaths;
+import asanti.CompiledSchema;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.TagStack;
+import util.Util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/// One record of a corpus decoded per operation by each of the walks, so ops/s is records/s and
+/// gc.alloc.rate.norm from -prof gc is bytes allocated per record.
+///
+///   asn1ToJson2             ClassGraph populated class -> handler map, JSON tree
+///   asn1ToJson2_1           instanceof chain, JSON tree
+///   asn1ToJson3             schema driven SchemaNode walk, JSON tree
+///   berParseWithSchema      CompiledSchema path writer over BouncyCastle objects
+///   berParseWithSchemaRaw   the same writer over BerTokenizer events, no BouncyCastle at all
+///
+/// All but the raw walk start from the record bytes and pay for the BouncyCastle parse -
+/// bouncyCastleParse is that parse alone, to take away.  Output goes to a discarding stream.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class WalkBenchmark {
+
+    @Param({"basic", "full"})
+    public String shape;
+
+    private Corpus corpus;
+    private final TagStack tagStack = new TagStack();
+    private int recordNo = 0;
+
+    /// (ASN1Primitive)Object
+    private MethodHandle asn1ToJson2;
+    /// (boolean, int, TagStack, ASN1Primitive)Object
+    private MethodHandle asn1ToJson2_1;
+    /// (boolean, int, TagStack, ASN1Primitive, SchemaNode)Object
+    private MethodHandle asn1ToJson3;
+    private Object schemaNode;
+    /// (boolean, int, TagStack, int, ASN1Primitive)void
+    private MethodHandle berParseWithSchema;
+    /// RawWalker.beginRecord(int) and walk(boolean, ByteBuffer)
+    private MethodHandle beginRecord;
+    private MethodHandle rawWalk;
+    private Object rawWalker;
+
+    @Setup
+    public void setup() throws Throwable {
+        corpus = Corpus.of(shape);
+        Path schema = Corpus.schemaFile();
+        String top = Corpus.TOP;
+        PrintStream discard = new PrintStream(new BufferedOutputStream(OutputStream.nullOutputStream(), 1 << 16));
+
+        asn1ToJson2 = Tools.erase(Tools.method("Asn1ToJson2", "walkRecurse", ASN1Primitive.class));
+
+        Tools.cli("Asn1ToJson2_1", "-f", "corpus");
+        asn1ToJson2_1 = Tools.erase(Tools.method("Asn1ToJson2_1", "walk",
+                boolean.class, int.class, TagStack.class, ASN1Primitive.class));
+
+        Tools.cli("Asn1ToJson3", "-f", "corpus", "-s", schema.toString(), "-t", top);
+        Class<?> nodeType = Tools.type("SchemaNode");
+        schemaNode = Tools.method("AsantiSchemaExperiment", "createNodes", Path.class, String.class, Path.class)
+                .invoke(schema, top, (Path) null);
+        asn1ToJson3 = Tools.erase(Tools.method("Asn1ToJson3", "walk",
+                boolean.class, int.class, TagStack.class, ASN1Primitive.class, nodeType), nodeType);
+
+        Tools.cli("BerParseWithSchema", "-f", "corpus", "-s", schema.toString(), "-t", top);
+        Tools.setStatic("BerParseWithSchema", "schema", AsantiPaths.compileParsingSchema(schema, top));
+        Tools.setStatic("BerParseWithSchema", "ps", discard);
+        berParseWithSchema = Tools.method("BerParseWithSchema", "walk",
+                boolean.class, int.class, TagStack.class, int.class, ASN1Primitive.class);
+
+        String raw = "BerParseWithSchema$RawWalker";
+        Class<?> rawType = Tools.type(raw);
+        rawWalker = Tools.construct(raw, new Class<?>[]{PrintStream.class, PrintStream.class}, discard, discard);
+        beginRecord = Tools.erase(Tools.method(raw, "beginRecord", int.class), rawType);
+        rawWalk = Tools.erase(Tools.method(raw, "walk", boolean.class, ByteBuffer.class), rawType);
+    }
+
+    @Benchmark
+    public ASN1Primitive bouncyCastleParse() throws IOException {
+        return Util.readObject(corpus.next());
+    }
+
+    @Benchmark
+    public Object asn1ToJson2() throws Throwable {
+        return (Object) asn1ToJson2.invokeExact(Util.readObject(corpus.next()));
+    }
+
+    @Benchmark
+    public Object asn1ToJson2_1() throws Throwable {
+        Object json = (Object) asn1ToJson2_1.invokeExact(false, 0, tagStack, Util.readObject(corpus.next()));
+        tagStack.clear();
+        return json;
+    }
+
+    @Benchmark
+    public Object asn1ToJson3() throws Throwable {
+        Object json = (Object) asn1ToJson3.invokeExact(false, 0, tagStack, Util.readObject(corpus.next()), schemaNode);
+        tagStack.clear();
+        return json;
+    }
+
+    @Benchmark
+    public void berParseWithSchema() throws Throwable {
+        berParseWithSchema.invokeExact(false, 0, tagStack, CompiledSchema.ROOT, Util.readObject(corpus.next()));
+        tagStack.clear();
+    }
+
+    @Benchmark
+    public void berParseWithSchemaRaw() throws Throwable {
+        beginRecord.invokeExact(rawWalker, ++recordNo);
+        rawWalk.invokeExact(rawWalker, false, corpus.next());
+    }
+}
@@ -4,10 +4,12 @@ import com.brightsparklabs.asanti.model.schema.AsnSchemaModule;
 import com.brightsparklabs.asanti.model.schema.type.*;
 import com.brightsparklabs.asanti.model.schema.typedefinition.AsnSchemaTypeDefinition;
 import com.brightsparklabs.asanti.reader.AsnSchemaReader;
+import com.brightsparklabs.asanti.schema.AsnBuiltinType;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharSource;
 import com.google.common.io.Files;
+import util.SchemaCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -41,8 +43,20 @@ public class AsantiSchemaExperiment {
         }
     }
 
+    /// createNodes out of the compiled schema cache in cacheDir when it is there - a null cacheDir
+    /// always parses the schema
+    public static SchemaNode createNodes(Path asnSchemaPath, String topTypeName, Path cacheDir) {
+        return SchemaCache.load(cacheDir, asnSchemaPath, topTypeName, SchemaNode.CODEC, () -> {
+            try {
+                return createNodes(asnSchemaPath, topTypeName, false);
+            } catch (IOException e) {
+                throw new RuntimeException("unable to process schema: " + e.getMessage(), e);
+            }
+        });
+    }
+
     public static SchemaNode createNodes(Path asnSchemaPath, String topTypeName, boolean logit) throws IOException {
-        final CharSource schemaFile = Files.asCharSource(new File("data/tas.asn"), Charsets.UTF_8);
+        final CharSource schemaFile = Files.asCharSource(asnSchemaPath.toFile(), Charsets.UTF_8);
         final AsnSchema schema = AsnSchemaReader.read(schemaFile);
 
         Optional<AsnSchemaType> type = schema.getType(topTypeName);
@@ -50,6 +64,7 @@ public class AsantiSchemaExperiment {
         var inner = type.get();
         SchemaNode node = new SchemaNode(null, false, -1, null);
         walk(node, topTypeName, inner, null, 0, logit);
+        node.freeze();
         return node;
     }
 
@@ -62,9 +77,9 @@ public class AsantiSchemaExperiment {
      public static void walkNodes(SchemaNode node, int depth) {
         System.out.printf("%s%s tag: %d type: %s\n", ind(depth), node.fieldName, node.tagged, node.primAsnBuiltinType);
         System.out.printf("%sTagged Children: %d\n", ind(depth), node.children.size());
-        for(var e: node.children.entrySet()) {
-            System.out.printf("%s%d\n", ind(depth), e.getKey());
-            walkNodes(e.getValue(), depth+1);
+        for(var e: node.children.keyValuesView()) {
+            System.out.printf("%s%d\n", ind(depth), e.getOne());
+            walkNodes(e.getTwo(), depth+1);
         }
         if ( node.choices.size() > 0) {
             System.out.printf("%sChoices only\n", ind(depth));
@@ -156,6 +171,7 @@ public class AsantiSchemaExperiment {
         node.fieldName = name;
         node.bottom = bottom;
         node.primAsnBuiltinType = type.getBuiltinType();
+        node.elementType = elementType(holder != null ? holder.getIndirectType() : type);
         if ( logit )
             System.out.println(ind(depth) + name + ": " + type.getClass().getSimpleName() + " is "
                     + tagNo + optional + type.getBuiltinType() + en);
@@ -187,6 +203,13 @@ public class AsantiSchemaExperiment {
 //        node.auditTheseChildren();
     }
 
+    /// builtin type of the entries of a SEQUENCE OF or SET OF, null when type is not a collection
+    private static AsnBuiltinType elementType(AsnSchemaType type) {
+        if (type instanceof AsnSchemaTypeCollection)
+            return ((AsnSchemaTypeCollection) type).getElementType().getBuiltinType();
+        return null;
+    }
+
     private static String getEnumAsString(AsnSchemaTypeWithNamedTags tags) {
         String list = tags.getTagsToNamedValues()
                 .values()
@@ -197,11 +220,10 @@ public class AsantiSchemaExperiment {
     }
 
     private static AsnSchemaTypeWithNamedTags getEnumMap(SchemaNode node, AsnSchemaTypePlaceholder holder) {
-        node.enumDef = new HashMap<>();
         AsnSchemaTypeWithNamedTags tags = (AsnSchemaTypeWithNamedTags) holder.getIndirectType();
         for(var e: tags.getTagsToNamedValues().values()) {
             var x = e;
-            node.enumDef.put(Integer.parseInt(e.getTag()), e.getTagName());
+            node.addEnum(Integer.parseInt(e.getTag()), e.getTagName());
         }
         return tags;
     }
@@ -51,6 +51,7 @@ public class AsantiSchemaExperiment2 {
         SchemaNode node = new SchemaNode(null, false, -1, null);
         walk(node, topTypeName, inner, null, 0, logit);
 
+        node.freeze();
         return node;
     }
 
@@ -63,9 +64,9 @@ public class AsantiSchemaExperiment2 {
      public static void walkNodes(SchemaNode node, int depth) {
         System.out.printf("%s%s tag: %d type: %s\n", ind(depth), node.fieldName, node.tagged, node.primAsnBuiltinType);
         System.out.printf("%sTagged Children: %d\n", ind(depth), node.children.size());
-        for(var e: node.children.entrySet()) {
-            System.out.printf("%s%d\n", ind(depth), e.getKey());
-            walkNodes(e.getValue(), depth+1);
+        for(var e: node.children.keyValuesView()) {
+            System.out.printf("%s%d\n", ind(depth), e.getOne());
+            walkNodes(e.getTwo(), depth+1);
         }
         if ( node.choices.size() > 0) {
             System.out.printf("%sChoices only\n", ind(depth));
@@ -205,11 +206,10 @@ public class AsantiSchemaExperiment2 {
     }
 
     private static AsnSchemaTypeWithNamedTags getEnumMap(SchemaNode node, AsnSchemaTypePlaceholder holder) {
-        node.enumDef = new HashMap<>();
         AsnSchemaTypeWithNamedTags tags = (AsnSchemaTypeWithNamedTags) holder.getIndirectType();
         for(var e: tags.getTagsToNamedValues().values()) {
             var x = e;
-            node.enumDef.put(Integer.parseInt(e.getTag()), e.getTagName());
+            node.addEnum(Integer.parseInt(e.getTag()), e.getTagName());
         }
         return tags;
     }
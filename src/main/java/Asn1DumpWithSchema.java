@@ -117,7 +117,7 @@ public class Asn1DumpWithSchema {
             if ( node == null )
                 buf.append(" [lost track] ");
             else {
-                subnode = node.children.get(o.getTagNo());
+                subnode = node.child(o.getTagNo());
                 if (subnode == null)
                     buf.append(" [tag not in schema] ");
                 else if (subnode.bottom)
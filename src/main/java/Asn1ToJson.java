@@ -5,8 +5,11 @@ import org.bouncycastle.asn1.*;
 import org.bouncycastle.util.Strings;
 import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.event.Level;
+import util.Metrics;
 import util.PhaseTrack;
+import util.ReadAheadChannel;
 import util.Util;
+import util.ValueText;
 
 import java.math.BigInteger;
 import java.nio.file.Paths;
@@ -21,7 +24,8 @@ public class Asn1ToJson {
 
     private static boolean writeStringBuf = true;
 
-    private static HashMap<Class, Long> countClass=new HashMap<>();
+    /// BouncyCastle classes met, as "objects" class=<simple name> metrics
+    private static HashMap<Class<?>, Metrics.Counter> countClass = new HashMap<>();
 
     /**
      * dump a DER object as a formatted string with indentation
@@ -34,7 +38,7 @@ public class Asn1ToJson {
             ASN1Primitive obj,
             StringBuilder buf) {
         String nl = Strings.lineSeparator();
-        countClass.compute(obj.getClass(), (k,v) -> (v==null) ? 1 : v+1);
+        countClass.computeIfAbsent(obj.getClass(), k -> Metrics.counter("objects", "class", k.getSimpleName())).inc();
         if (obj instanceof ASN1Null) {
             return NullNode.instance;
 //            buf.append(indent);
@@ -306,12 +310,7 @@ public class Asn1ToJson {
     }
 
     private static String toStr(byte[] bytes) {
-        try {
-            return Util.carefulBytesToString(bytes);
-        } catch (Exception e) {
-            return "HEX: " + Strings.fromByteArray(Hex.encode(bytes));
-
-        }
+        return ValueText.toStr(bytes, false);
     }
 
     private static String dumpBinaryDataAsString(String indent, byte[] bytes) {
@@ -357,6 +356,7 @@ public class Asn1ToJson {
 
 
     public static void main(String[] args) {
+        args = ReadAheadChannel.fromArgs(args);
         for (int k = 0; k < 3; k++)
             try {
                 PhaseTrack.start();
@@ -387,7 +387,7 @@ public class Asn1ToJson {
                 PhaseTrack.logTimes("all times", Level.INFO, TimeUnit.MILLISECONDS);
 
                 for(var e: countClass.entrySet()) {
-                    System.out.println(e.getKey().getSimpleName() + " " + e.getValue());
+                    System.out.println(e.getKey().getSimpleName() + " " + Metrics.value(e.getValue()));
                 }
             } catch (Exception e) {
                 e.printStackTrace();
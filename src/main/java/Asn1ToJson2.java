@@ -8,11 +8,11 @@ import io.github.classgraph.ClassGraph;
 import io.github.classgraph.ClassInfo;
 import io.github.classgraph.ScanResult;
 import org.bouncycastle.asn1.*;
-import org.bouncycastle.util.Strings;
-import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.event.Level;
 import util.PhaseTrack;
+import util.ReadAheadChannel;
 import util.Util;
+import util.ValueText;
 
 import java.nio.file.Paths;
 import java.util.HashMap;
@@ -24,12 +24,7 @@ public class Asn1ToJson2 {
     static ObjectMapper om = new ObjectMapper();
 
     private static String toStr(byte[] bytes) {
-        try {
-            return Util.carefulBytesToString(bytes);
-        } catch (Exception e) {
-            return "HEX: " + Strings.fromByteArray(Hex.encode(bytes));
-
-        }
+        return ValueText.toStr(bytes, false);
     }
 
     public static int peekForTag(ASN1Primitive obj) {
@@ -133,6 +128,7 @@ public class Asn1ToJson2 {
 
     public static void main(String[] args) {
         try {
+            args = ReadAheadChannel.fromArgs(args);
             for (int k = 0; k < 3; k++)
 
                 try (ASN1InputStream ais = new ASN1InputStream(Util.create(Paths.get(args[0])))) {
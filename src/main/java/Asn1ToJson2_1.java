@@ -4,15 +4,27 @@ import com.fasterxml.jackson.databind.node.*;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.asn1.*;
 import org.bouncycastle.util.Strings;
-import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.event.Level;
 import picocli.CommandLine;
+import util.BerInteger;
+import util.BerTokenizer;
+import util.NdjsonWriter;
+import util.ParallelGzipInputStream;
 import util.PhaseTrack;
+import util.ReadAheadChannel;
+import util.RecordIndex;
+import util.RecordSource;
 import util.TagStack;
 import util.Util;
+import util.ValueText;
 
-import java.math.BigInteger;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
@@ -35,6 +47,42 @@ public class Asn1ToJson2_1 {
                 description = "during processing write tags paths and final type")
         boolean debug;
 
+        @CommandLine.Option(names = {"-r", "--raw"}, defaultValue = "false",
+                description = "walk the raw BER bytes with the pull tokenizer instead of building BouncyCastle objects")
+        boolean raw;
+
+        @CommandLine.Option(names = {"-m", "--mmap"}, defaultValue = "false",
+                description = "memory map uncompressed input files, implies --raw")
+        boolean mmap;
+
+        @CommandLine.Option(names = {"--gzip_threads"}, defaultValue = "0",
+                description = "threads inflating multi-member .gz input, 0 is one per core, 1 a plain single threaded GZIPInputStream")
+        int gzipThreads;
+
+        @CommandLine.Option(names = {"--read_ahead"}, defaultValue = "0",
+                description = "buffers in the ring a separate thread reads and decompresses input into ahead of decoding, 0 or 1 reads on the decoding thread")
+        int readAhead;
+
+        @CommandLine.Option(names = {"--read_ahead_mb"}, defaultValue = "4",
+                description = "size in MB of each --read_ahead buffer")
+        int readAheadMb;
+
+        @CommandLine.Option(names = {"--ndjson"},
+                description = "bulk export: one {\"record\":n,\"offset\":o,\"value\":{...}} line per record to this file instead of stdout, zstd compressed when it ends in .zst")
+        Path ndjson;
+
+        @CommandLine.Option(names = {"--ndjson_buffer_mb"}, defaultValue = "8",
+                description = "size of the direct buffer in front of the ndjson file")
+        int ndjsonBufferMb;
+
+        @CommandLine.Option(names = {"--ndjson_flush_records"}, defaultValue = "0",
+                description = "flush the ndjson file every this many records, 0 only flushes when the buffer fills")
+        int ndjsonFlushRecords;
+
+        @CommandLine.Option(names = {"--zstd_level"}, defaultValue = "3",
+                description = "compression level for a .zst ndjson file")
+        int zstdLevel;
+
         @CommandLine.Option(names = {"-h",
                 "--help"}, usageHelp = true, description = "display this help message\nsample cmdline: java -cp hdfs_du2-1.0-SNAPSHOT.jar:lib/* org.HdfsDu2 /prod test --krb5_user adm_sflanag1@HDPQUANTUMPROD.COM --krb5_key_tab /etc/security/keytabs/adm_sflanag1.user.keytab")
         boolean usageHelpRequested;
@@ -45,16 +93,11 @@ public class Asn1ToJson2_1 {
 
     static long nodeCount = 0;
 
-    private static String toStr(byte[] bytes) {
-        try {
-            String s = Util.carefulBytesToString(bytes);
-            if (cli.hexAlso)
-                s += ", HEX: " + Strings.fromByteArray(Hex.encode(bytes));
-            return s;
-        } catch (Exception e) {
-            return "HEX: " + Strings.fromByteArray(Hex.encode(bytes));
+    /// --ndjson output or null for the pretty stdout listing
+    static NdjsonWriter ndjson = null;
 
-        }
+    private static String toStr(byte[] bytes) {
+        return ValueText.toStr(bytes, cli.hexAlso);
     }
 
     public static int peekForTag(ASN1Primitive obj) {
@@ -100,8 +143,7 @@ public class Asn1ToJson2_1 {
             String s = ((ASN1UTF8String) obj).getString();
             node = new TextNode(s);
         } else if (obj instanceof ASN1Integer) {
-            BigInteger bi = ((ASN1Integer) obj).getValue();
-            node = new BigIntegerNode(bi);
+            node = BerInteger.node((ASN1Integer) obj);
         }  else {
             throw new RuntimeException("unable handled type: " + obj.getClass().getSimpleName());
         }
@@ -164,6 +206,89 @@ public class Asn1ToJson2_1 {
         return node;
     }
 
+    /// walk() over the raw record bytes - call right after tok.next() returned START or PRIMITIVE.
+    /// Builds the same tree BouncyCastle objects would give: a tagged constructed element with a
+    /// single child is an explicit tag and collapses onto that child.
+    public static JsonNode walkRaw(boolean debugWriteThisOne, int depth, TagStack tagStack, BerTokenizer tok, int ev) {
+        nodeCount++;
+        JsonNode node;
+        final boolean tagged = tok.isTagged();
+        if (tagged)
+            tagStack.push(tok.tagNo());
+
+        if (debugWriteThisOne)
+            System.out.println(tagStack + " : " + depth + " : " + (tagged ? "[" + tok.tagNo() + "]" : "u" + tok.tagNo()));
+
+        if (ev == BerTokenizer.PRIMITIVE) {
+            if (tagged) {
+                node = new TextNode(toStr(tok.value()));
+            } else {
+                switch (tok.tagNo()) {
+                    case 4:
+                        node = new TextNode(toStr(tok.value()));
+                        break;
+                    case 2: {
+                        byte[] bytes = tok.value();
+                        node = BerInteger.node(bytes, 0, bytes.length);
+                        break;
+                    }
+                    case 12:
+                        node = new TextNode(new String(tok.value(), StandardCharsets.UTF_8));
+                        break;
+                    case 25:
+                        node = new TextNode(Strings.fromByteArray(tok.value()));
+                        break;
+                    default:
+                        throw new RuntimeException("unable handled universal type: " + tok.tagNo());
+                }
+            }
+        } else if (!tagged && tok.tagNo() == 17) {
+            ObjectNode onset = om.createObjectNode();
+            while ((ev = tok.next()) != BerTokenizer.END) {
+                if (!tok.isTagged())
+                    throw new RuntimeException("set child not tagged?");
+                String tagStr = "" + tok.tagNo();
+                onset.set(tagStr, walkRaw(debugWriteThisOne, depth + 1, tagStack, tok, ev));
+            }
+            node = onset;
+        } else if (!tagged && tok.tagNo() != 16) {
+            throw new RuntimeException("unable handled universal constructed type: " + tok.tagNo());
+        } else {
+            ArrayList<String> keys = new ArrayList<>();
+            ArrayList<JsonNode> kids = new ArrayList<>();
+            while ((ev = tok.next()) != BerTokenizer.END) {
+                keys.add(tok.isTagged() ? "" + tok.tagNo() : null);
+                kids.add(walkRaw(debugWriteThisOne, depth + 1, tagStack, tok, ev));
+            }
+            if (tagged && kids.size() == 1)
+                node = kids.get(0);
+            else
+                node = sequenceOf(keys, kids);
+        }
+        if (tagged) {
+            tagStack.pop();
+        }
+        return node;
+    }
+
+    private static JsonNode sequenceOf(ArrayList<String> keys, ArrayList<JsonNode> kids) {
+        ObjectNode set = om.createObjectNode();
+        ArrayNode an = om.createArrayNode();
+        for (int i = 0; i < kids.size(); i++) {
+            if (keys.get(i) == null)
+                an.add(kids.get(i));
+            else
+                set.set(keys.get(i), kids.get(i));
+        }
+        if (set.size() > 0) {
+            if (an.size() > 0)
+                throw new RuntimeException("i don't think sequence should mix tagged and untagged a the same level");
+            return set;
+        } else if (an.size() > 0)
+            return an;
+        else
+            throw new RuntimeException("nothing in this sequence that is array or tagged");
+    }
 
     private static boolean isValue(JsonNodeType nodeType) {
         switch (nodeType) {
@@ -183,6 +308,44 @@ public class Asn1ToJson2_1 {
         }
     }
 
+    /// Only the -i records, fetched by offset from the index instead of walking the whole file.
+    private static void walkIndexed(Path path, RecordIndex index) throws IOException {
+        System.out.println(path);
+        PhaseTrack.start();
+        int recs = 0;
+        long len = 0;
+        var tagStack = new TagStack();
+        var tok = new BerTokenizer();
+        try (RecordIndex.Reader reader = new RecordIndex.Reader(path, index)) {
+            for (int recordNo : new TreeSet<>(cli.writeOnly)) {
+                if (recordNo < 1 || recordNo > index.count()) {
+                    log.warn("record {} not in {} which has {} records", recordNo, path, index.count());
+                    continue;
+                }
+                ByteBuffer rec = reader.read(recordNo);
+                recs++;
+                JsonNode jo;
+                if (cli.raw) {
+                    tok.reset(rec);
+                    jo = walkRaw(cli.debug, 0, tagStack, tok, tok.next());
+                } else {
+                    jo = walk(cli.debug, 0, tagStack, Util.readObject(rec));
+                }
+                tagStack.clear();
+                if (ndjson != null) {
+                    ndjson.write(recordNo, index.offset(recordNo), jo);
+                    continue;
+                }
+                String prettyJson = om.writerWithDefaultPrettyPrinter().writeValueAsString(jo);
+                System.out.println("Record no: " + recordNo + "\n" + prettyJson);
+                len += prettyJson.length();
+            }
+        }
+        System.out.printf("recs: %d of %d indexed  len: %d\n", recs, index.count(), len);
+        nodeCount = 0L;
+        PhaseTrack.recordTimePoint("done");
+        PhaseTrack.logTimes(" indexed lookup", Level.INFO, TimeUnit.MILLISECONDS);
+    }
 
     public static void main(String[] args) {
         cli = new Cli();
@@ -193,39 +356,77 @@ public class Asn1ToJson2_1 {
                 cl.usage(System.err);
                 return;
             }
+            if (cli.gzipThreads > 0)
+                ParallelGzipInputStream.setThreads(cli.gzipThreads);
+            if (cli.readAhead > 0)
+                ReadAheadChannel.setRing(cli.readAhead, cli.readAheadMb << 20);
+            if (cli.mmap)
+                cli.raw = true;
         } catch (Exception e) {
             System.err.println("cli related exception: " + e);
             return;
         }
 
         try {
+            if (cli.ndjson != null)
+                ndjson = new NdjsonWriter(om, cli.ndjson, cli.ndjsonBufferMb << 20, cli.ndjsonFlushRecords, cli.zstdLevel);
             for (var path : cli.files) {
+                if (cli.writeOnly != null) {
+                    try (RecordIndex index = RecordIndex.open(path)) {
+                        if (index != null) {
+                            walkIndexed(path, index);
+                            continue;
+                        }
+                    }
+                }
                 int recordNo = 0;
-                try (ASN1InputStream ais = new ASN1InputStream(Util.create(path))) {
+                // with -i the records not asked for are skipped by header only, ndjson needs the offsets
+                boolean split = cli.raw || cli.writeOnly != null || ndjson != null;
+                try (ASN1InputStream ais = split ? null : new ASN1InputStream(Util.create(path));
+                     RecordSource rr = split ? Util.records(path, cli.mmap) : null) {
                     PhaseTrack.start();
                     long len = 0;
                     var tagStack = new TagStack();
-                    while (ais.available() > 0) {
-                        ASN1Primitive obj = ais.readObject();
+                    var tok = new BerTokenizer();
+                    while (split || ais.available() > 0) {
+                        if (cli.writeOnly != null && !cli.writeOnly.contains(recordNo + 1)) {
+                            if (rr.skip() < 0)
+                                break;
+                            recordNo++;
+                            continue;
+                        }
+                        ASN1Primitive obj = null;
+                        ByteBuffer rec = null;
+                        if (split) {
+                            rec = rr.next();
+                            if (rec == null)
+                                break;
+                            if (!cli.raw)
+                                obj = Util.readObject(rec);
+                        } else
+                            obj = ais.readObject();
                         recordNo++;
 
-                        boolean writeThisOne = false;
-                        if (cli.writeOnly != null) {
-                            if (cli.writeOnly.contains(recordNo))
-                                writeThisOne = true;
+                        JsonNode jo;
+                        if (cli.raw) {
+                            tok.reset(rec);
+                            jo = walkRaw(cli.debug, 0, tagStack, tok, tok.next());
                         } else
-                            writeThisOne = true;
-
-                        JsonNode jo = walk(cli.debug & writeThisOne, 0, tagStack, obj);
+                            jo = walk(cli.debug, 0, tagStack, obj);
                         tagStack.clear();
 
-                        if (writeThisOne) {
-                            String prettyJson = om.writerWithDefaultPrettyPrinter().writeValueAsString(jo);
-                            System.out.println("Record no: " + recordNo + "\n" + prettyJson);
-                            len += prettyJson.length();
+                        if (ndjson != null) {
+                            long before = ndjson.bytes();
+                            ndjson.write(recordNo, rr.offset(), jo);
+                            len += ndjson.bytes() - before;
+                            continue;
                         }
-
+                        String prettyJson = om.writerWithDefaultPrettyPrinter().writeValueAsString(jo);
+                        System.out.println("Record no: " + recordNo + "\n" + prettyJson);
+                        len += prettyJson.length();
                     }
+                    if (ndjson != null)
+                        ndjson.flush();
                     System.out.printf("recs: %d  len: %d\n", recordNo, len);
                     long deltaT = PhaseTrack.startToNowNanos();
                     long recRate = (recordNo * 1_000_000_000L) / deltaT;
@@ -236,6 +437,10 @@ public class Asn1ToJson2_1 {
                     PhaseTrack.logTimes(msg, Level.INFO, TimeUnit.MILLISECONDS);
                 }
             }
+            if (ndjson != null) {
+                ndjson.close();
+                System.out.printf("ndjson: %d records  %d bytes to %s\n", ndjson.records(), ndjson.bytes(), ndjson.path());
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -1,20 +1,41 @@
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.*;
+import com.google.common.io.CountingOutputStream;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.asn1.*;
 import org.bouncycastle.util.Strings;
-import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.event.Level;
 import picocli.CommandLine;
+import util.BerInteger;
+import util.BerTokenizer;
+import util.ByteOut;
+import util.NdjsonWriter;
+import util.ParallelGzipInputStream;
 import util.PhaseTrack;
+import util.ReadAheadChannel;
+import util.RecordIndex;
+import util.RecordSource;
 import util.TagStack;
 import util.Util;
+import util.ValueText;
 
-import java.math.BigInteger;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
 
 @Slf4j
 public class Asn1ToJson3 {
@@ -42,6 +63,54 @@ public class Asn1ToJson3 {
                 description = "during processing write tags paths and final type")
         boolean debug;
 
+        @CommandLine.Option(names = {"-r", "--raw"}, defaultValue = "false",
+                description = "walk the raw BER bytes with the pull tokenizer instead of building BouncyCastle objects - implies --stream unless writing --ndjson")
+        boolean raw;
+
+        @CommandLine.Option(names = {"--gzip_threads"}, defaultValue = "0",
+                description = "threads inflating multi-member .gz input, 0 is one per core, 1 a plain single threaded GZIPInputStream")
+        int gzipThreads;
+
+        @CommandLine.Option(names = {"--read_ahead"}, defaultValue = "0",
+                description = "buffers in the ring a separate thread reads and decompresses input into ahead of decoding, 0 or 1 reads on the decoding thread")
+        int readAhead;
+
+        @CommandLine.Option(names = {"--read_ahead_mb"}, defaultValue = "4",
+                description = "size in MB of each --read_ahead buffer")
+        int readAheadMb;
+
+        @CommandLine.Option(names = {"-S", "--stream"}, defaultValue = "false",
+                description = "write JSON tokens straight to stdout while walking instead of building a tree per record, -d output goes to stderr")
+        boolean stream;
+
+        @CommandLine.Option(names = {"-c", "--compact"}, defaultValue = "false",
+                description = "one line of JSON per record instead of pretty printing")
+        boolean compact;
+
+        @CommandLine.Option(names = {"--ndjson"},
+                description = "bulk export: one {\"record\":n,\"offset\":o,\"value\":{...}} line per record to this file instead of stdout, zstd compressed when it ends in .zst")
+        Path ndjson;
+
+        @CommandLine.Option(names = {"--ndjson_buffer_mb"}, defaultValue = "8",
+                description = "size of the direct buffer in front of the ndjson file")
+        int ndjsonBufferMb;
+
+        @CommandLine.Option(names = {"--ndjson_flush_records"}, defaultValue = "0",
+                description = "flush the ndjson file every this many records, 0 only flushes when the buffer fills")
+        int ndjsonFlushRecords;
+
+        @CommandLine.Option(names = {"--zstd_level"}, defaultValue = "3",
+                description = "compression level for a .zst ndjson file")
+        int zstdLevel;
+
+        @CommandLine.Option(names = {"--schema_cache"}, defaultValue = "${sys:user.home}/.cache/asn1play",
+                description = "directory for compiled schemas so later runs skip parsing the schema, default: ${DEFAULT-VALUE}")
+        Path schemaCache;
+
+        @CommandLine.Option(names = {"--no_schema_cache"}, defaultValue = "false",
+                description = "always parse the schema, do not read or write the cache")
+        boolean noSchemaCache;
+
         @CommandLine.Option(names = {"-h",
                 "--help"}, usageHelp = true, description = "display this help message\nsample cmdline: java -cp hdfs_du2-1.0-SNAPSHOT.jar:lib/* org.HdfsDu2 /prod test --krb5_user adm_sflanag1@HDPQUANTUMPROD.COM --krb5_key_tab /etc/security/keytabs/adm_sflanag1.user.keytab")
         boolean usageHelpRequested;
@@ -52,16 +121,18 @@ public class Asn1ToJson3 {
 
     static long nodeCount = 0;
 
-    private static String toStr(byte[] bytes) {
-        try {
-            String s = Util.carefulBytesToString(bytes);
-            if (cli.hexAlso)
-                s += ", HEX: " + Strings.fromByteArray(Hex.encode(bytes));
-            return s;
-        } catch (Exception e) {
-            return "HEX: " + Strings.fromByteArray(Hex.encode(bytes));
+    /// --stream output, null when building trees
+    static JsonGenerator gen = null;
+    static CountingOutputStream counted = null;
+    /// octet string values on their way into gen
+    static final ByteOut valueBuf = new ByteOut(1024);
+    /// --ndjson output, gen writes into it when set
+    static NdjsonWriter ndjson = null;
+    /// where -d lines go - stderr when streaming so they do not land in the middle of the JSON
+    static PrintStream debugOut = System.out;
 
-        }
+    private static String toStr(byte[] bytes) {
+        return ValueText.toStr(bytes, cli.hexAlso);
     }
 
     public static int peekForTag(ASN1Primitive obj) {
@@ -83,7 +154,7 @@ public class Asn1ToJson3 {
         }
 
         if (debugWriteThisOne)
-            System.out.println(tagStack + " : " + depth + " : " + obj.getClass().getSimpleName());
+            debugOut.println(tagStack + " : " + depth + " : " + obj.getClass().getSimpleName());
 
 
         if (obj instanceof ASN1TaggedObject) {
@@ -109,8 +180,7 @@ public class Asn1ToJson3 {
             String s = ((ASN1UTF8String) obj).getString();
             node = new TextNode(s);
         } else if (obj instanceof ASN1Integer) {
-            BigInteger bi = ((ASN1Integer) obj).getValue();
-            node = new BigIntegerNode(bi);
+            node = BerInteger.node((ASN1Integer) obj);
         }  else {
             throw new RuntimeException("unable handled type: " + obj.getClass().getSimpleName());
         }
@@ -126,8 +196,8 @@ public class Asn1ToJson3 {
             throw new RuntimeException("No schema here");
         switch(schemaNode.primAsnBuiltinType) {
             case Enumerated: {
-                var i = new BigInteger(os.getOctets());
-                String name = schemaNode.enumDef.get(i.intValue());
+                byte[] bytes = os.getOctets();
+                String name = schemaNode.enumName((int) BerInteger.toLong(bytes, 0, bytes.length));
                 node = new TextNode(name);
             } break;
 
@@ -148,8 +218,8 @@ public class Asn1ToJson3 {
             }
             break;
             case Integer: {
-                var i = new BigInteger(os.getOctets());
-                node = new BigIntegerNode(i);
+                byte[] bytes = os.getOctets();
+                node = BerInteger.node(bytes, 0, bytes.length);
             }
             break;
             case Choice: {
@@ -164,6 +234,7 @@ public class Asn1ToJson3 {
                 cNode.set(chosenNode.fieldName, fromOctetStringToJsonNode(debugWriteThisOne, depth+1, tagStack, os, chosenNode));
                 node = cNode;
             }
+            break;
             case SequenceOf: {
                 node = new TextNode("NO SEQ OF") ;
             }
@@ -193,7 +264,7 @@ public class Asn1ToJson3 {
             SchemaNode childSchema = null;
             String tagStr=null;
             if ( schemaNode!=null) {
-                childSchema = schemaNode.children.get(t);
+                childSchema = schemaNode.child(t);
                 if ( childSchema != null )
                     tagStr = childSchema.fieldName + ":" + t;
                 else
@@ -224,18 +295,13 @@ public class Asn1ToJson3 {
             int t = peekForTag(tagPeek);
             SchemaNode childSchema = null;
             String tagStr=null;
-            childSchema = schemaNode.children.get(t);
+            childSchema = schemaNode.child(t);
             if ( childSchema != null )
                 tagStr = childSchema.fieldName;
             else
                 childSchema = schemaNode;
-            if ( tagStr == null ) {
-                if (t == -1) {
-                    var aEntry = walk(debugWriteThisOne, depth + 1, tagStack, seq.getObjectAt(i).toASN1Primitive(), childSchema);
-                    an.add(aEntry);
-                } else
-                    tagStr = "" + t;
-            }
+            if ( tagStr == null && t != -1 )
+                tagStr = "" + t;
             if ( tagStr != null && tagStr.equals("list-of-subscription-ID"))
                 System.out.println("hey list");
             if (t == -1) {
@@ -259,6 +325,350 @@ public class Asn1ToJson3 {
     }
 
 
+    /// a value written to gen - child i of the element being written, or the record itself - with
+    /// the schema node it goes by
+    private interface Value {
+        void emit(int i, SchemaNode schemaNode) throws IOException;
+    }
+
+    /// walk() without the tree - the same JSON goes straight to gen.  Sequences and sets are looked
+    /// over before anything is written so a tag that repeats still gives one field, at the spot it
+    /// first appeared with the value it had last, just as ObjectNode.set() does.
+    public static void emit(boolean debugWriteThisOne, int depth, TagStack tagStack, ASN1Primitive obj, SchemaNode schemaNode) throws IOException {
+        nodeCount++;
+        final int tag = peekForTag(obj);
+        if (tag >= 0)
+            tagStack.push(tag);
+
+        if (debugWriteThisOne)
+            debugOut.println(tagStack + " : " + depth + " : " + obj.getClass().getSimpleName());
+
+        if (obj instanceof ASN1TaggedObject) {
+            emit(debugWriteThisOne, depth + 1, tagStack, ((ASN1TaggedObject) obj).getBaseObject().toASN1Primitive(), schemaNode);
+        } else if (obj instanceof ASN1Sequence) {
+            ASN1Sequence seq = (ASN1Sequence) obj;
+            ASN1Primitive[] kids = children(seq.size(), seq::getObjectAt);
+            emitSequence(tags(kids), schemaNode,
+                    (i, s) -> emit(debugWriteThisOne, depth + 1, tagStack, kids[i], s));
+        } else if (obj instanceof ASN1Set) {
+            ASN1Set set = (ASN1Set) obj;
+            ASN1Primitive[] kids = children(set.size(), set::getObjectAt);
+            emitSet(tags(kids), schemaNode,
+                    (i, s) -> emit(debugWriteThisOne, depth + 1, tagStack, kids[i], s));
+        } else if (obj instanceof org.bouncycastle.util.Iterable) {
+            throw new RuntimeException("Unable handled interable: " + obj.getClass().getName());
+        } else if (obj instanceof ASN1OctetString) {
+            emitOctetString(debugWriteThisOne, depth, tagStack, ((ASN1OctetString) obj).getOctets(), schemaNode);
+        } else if (obj instanceof ASN1GraphicString) {
+            gen.writeString(((ASN1GraphicString) obj).getString());
+        } else if (obj instanceof ASN1UTF8String) {
+            gen.writeString(((ASN1UTF8String) obj).getString());
+        } else if (obj instanceof ASN1Integer) {
+            BerInteger.write(gen, (ASN1Integer) obj);
+        } else {
+            throw new RuntimeException("unable handled type: " + obj.getClass().getSimpleName());
+        }
+        if (tag >= 0)
+            tagStack.pop();
+    }
+
+    private static ASN1Primitive[] children(int count, IntFunction<ASN1Encodable> at) {
+        ASN1Primitive[] kids = new ASN1Primitive[count];
+        for (int i = 0; i < count; ++i)
+            kids[i] = at.apply(i).toASN1Primitive();
+        return kids;
+    }
+
+    private static int[] tags(ASN1Primitive[] kids) {
+        int[] tags = new int[kids.length];
+        for (int i = 0; i < kids.length; ++i)
+            tags[i] = peekForTag(kids[i]);
+        return tags;
+    }
+
+    /// emit() over the raw record bytes - call right after tok.next() returned START or PRIMITIVE.
+    /// Writes the same JSON the BouncyCastle objects give: a tagged constructed element with a
+    /// single child is an explicit tag and collapses onto that child, with more it is a sequence.
+    /// The children are looked over first like emit() does, then each is tokenized again to write it.
+    public static void emitRaw(boolean debugWriteThisOne, int depth, TagStack tagStack, BerTokenizer tok, int ev, SchemaNode schemaNode) throws IOException {
+        nodeCount++;
+        final boolean tagged = tok.isTagged();
+        if (tagged)
+            tagStack.push(tok.tagNo());
+
+        if (debugWriteThisOne)
+            debugOut.println(tagStack + " : " + depth + " : " + (tagged ? "[" + tok.tagNo() + "]" : "u" + tok.tagNo()));
+
+        if (ev == BerTokenizer.PRIMITIVE) {
+            if (tagged) {
+                emitOctetString(debugWriteThisOne, depth, tagStack, tok.value(), schemaNode);
+            } else {
+                switch (tok.tagNo()) {
+                    case 4:
+                        emitOctetString(debugWriteThisOne, depth, tagStack, tok.value(), schemaNode);
+                        break;
+                    case 2: {
+                        byte[] bytes = tok.value();
+                        BerInteger.write(gen, bytes, 0, bytes.length);
+                        break;
+                    }
+                    case 12:
+                        gen.writeString(new String(tok.value(), StandardCharsets.UTF_8));
+                        break;
+                    case 25:
+                        gen.writeString(Strings.fromByteArray(tok.value()));
+                        break;
+                    default:
+                        throw new RuntimeException("unable handled universal type: " + tok.tagNo());
+                }
+            }
+        } else if (!tagged && tok.tagNo() != 16 && tok.tagNo() != 17) {
+            throw new RuntimeException("unable handled universal constructed type: " + tok.tagNo());
+        } else {
+            boolean set = !tagged && tok.tagNo() == 17;
+            RawKids kids = rawKids(depth);
+            kids.scan(tok);
+            Value kid = (i, s) -> emitRaw(debugWriteThisOne, depth + 1, tagStack, kids.tok, kids.open(tok, i), s);
+            if (tagged && kids.count == 1)
+                kid.emit(0, schemaNode);
+            else if (set)
+                emitSet(Arrays.copyOf(kids.tags, kids.count), schemaNode, kid);
+            else
+                emitSequence(Arrays.copyOf(kids.tags, kids.count), schemaNode, kid);
+        }
+        if (tagged)
+            tagStack.pop();
+    }
+
+    /// The children of one constructed element found by a first pass over it, and the tokenizer
+    /// that goes over each of them again.  emitRaw() keeps one per depth, so the elements open at
+    /// once never share one.
+    private static final class RawKids {
+        final BerTokenizer tok = new BerTokenizer();
+        int count;
+        int[] tags = new int[16];
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+
+        /// the children of the element parent just returned START for, leaving parent past its END
+        void scan(BerTokenizer parent) {
+            count = 0;
+            int ev;
+            while ((ev = parent.next()) != BerTokenizer.END) {
+                if (count == tags.length) {
+                    tags = Arrays.copyOf(tags, count * 2);
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                tags[count] = parent.isTagged() ? parent.tagNo() : -1;
+                starts[count] = parent.headerOffset();
+                if (ev == BerTokenizer.START)
+                    parent.skip();
+                ends[count] = parent.position();
+                count++;
+            }
+        }
+
+        /// tok moved onto child i, returns its START or PRIMITIVE
+        int open(BerTokenizer parent, int i) {
+            tok.reset(parent.buffer(), starts[i], ends[i]);
+            return tok.next();
+        }
+    }
+
+    private static final ArrayList<RawKids> rawKids = new ArrayList<>();
+
+    private static RawKids rawKids(int depth) {
+        while (rawKids.size() <= depth)
+            rawKids.add(new RawKids());
+        return rawKids.get(depth);
+    }
+
+    private static void emitOctetString(boolean debugWriteThisOne, int depth, TagStack tagStack, byte[] bytes, SchemaNode schemaNode) throws IOException {
+        if ( schemaNode == null )
+            throw new RuntimeException("No schema here");
+        switch(schemaNode.primAsnBuiltinType) {
+            case Enumerated: {
+                byte[] name = schemaNode.enumNameBytes((int) BerInteger.toLong(bytes, 0, bytes.length));
+                if (name == null)
+                    gen.writeNull();
+                else
+                    gen.writeUTF8String(name, 0, name.length);
+                break;
+            }
+            case Ia5String:
+            case OctetString:
+            case GraphicString:
+            case Utf8String: {
+                // rendered as UTF-8 bytes and handed over as such - no String per leaf
+                valueBuf.reset();
+                ValueText.render(valueBuf, bytes, 0, bytes.length, cli.hexAlso);
+                gen.writeUTF8String(valueBuf.array(), 0, valueBuf.size());
+                break;
+            }
+            case Null:
+                gen.writeNull();
+                break;
+            case Boolean:
+                gen.writeBoolean(bytes[0]>0);
+                break;
+            case Integer: {
+                BerInteger.write(gen, bytes, 0, bytes.length);
+                break;
+            }
+            case Choice: {
+                SchemaNode chosenNode = schemaNode.choices.get(tagStack.peek());
+                gen.writeStartObject();
+                gen.writeFieldName(chosenNode.fieldName);
+                emitOctetString(debugWriteThisOne, depth+1, tagStack, bytes, chosenNode);
+                gen.writeEndObject();
+            }
+            break;
+            case SequenceOf:
+                gen.writeString("NO SEQ OF");
+                break;
+            case Set:
+                gen.writeString("NO SET ");
+                break;
+            case SetOf:
+                gen.writeString("NO SET OF");
+                break;
+            default:
+                throw new RuntimeException("type: " + schemaNode.primAsnBuiltinType.toString() + " not yet handled here");
+        }
+    }
+
+    /// a set whose children carry tags, -1 for an untagged one
+    private static void emitSet(int[] tags, SchemaNode schemaNode, Value kid) throws IOException {
+        int count = tags.length;
+        SchemaNode[] kidSchemas = new SchemaNode[count];
+        String[] keys = new String[count];
+        for (int i = 0; i < count; ++i) {
+            int t = tags[i];
+            if ( schemaNode != null ) {
+                SchemaNode childSchema = schemaNode.child(t);
+                if ( childSchema != null ) {
+                    keys[i] = childSchema.fieldName + ":" + t;
+                    kidSchemas[i] = childSchema;
+                } else
+                    kidSchemas[i] = schemaNode;
+            }
+            if ( keys[i] == null ) {
+                if (t == -1)
+                    throw new RuntimeException("set child not tagged?");
+                keys[i] = "" + t;
+            }
+        }
+        emitFields(keys, kidSchemas, kid);
+    }
+
+    /// a sequence whose children carry tags, -1 for an untagged one
+    private static void emitSequence(int[] tags, SchemaNode schemaNode, Value kid) throws IOException {
+        int count = tags.length;
+        SchemaNode[] kidSchemas = new SchemaNode[count];
+        String[] keys = new String[count];
+        int tagged = 0;
+        for (int i = 0; i < count; ++i) {
+            int t = tags[i];
+            SchemaNode childSchema = schemaNode.child(t);
+            if ( childSchema != null )
+                keys[i] = childSchema.fieldName;
+            else {
+                childSchema = schemaNode;
+                if (t != -1)
+                    keys[i] = "" + t;
+            }
+            kidSchemas[i] = childSchema;
+            if (t != -1)
+                tagged++;
+        }
+        if (tagged > 0 && tagged < count)
+            throw new RuntimeException("i don't think sequence should mix tagged and untagged a the same level");
+        if (count == 0)
+            throw new RuntimeException("nothing in this sequence that is array or tagged");
+        if (tagged > 0) {
+            emitFields(keys, kidSchemas, kid);
+        } else {
+            gen.writeStartArray();
+            for (int i = 0; i < count; ++i)
+                kid.emit(i, kidSchemas[i]);
+            gen.writeEndArray();
+        }
+    }
+
+    private static void emitFields(String[] keys, SchemaNode[] kidSchemas, Value kid) throws IOException {
+        int count = keys.length;
+        // short field lists are just scanned, a map only pays off for long ones
+        HashMap<String, Integer> last = null;
+        if (count > 16) {
+            last = new HashMap<>();
+            for (int i = 0; i < count; ++i)
+                last.put(keys[i], i);
+        }
+        gen.writeStartObject();
+        for (int i = 0; i < count; ++i) {
+            int use = i;
+            if (last != null) {
+                Integer at = last.remove(keys[i]);
+                if (at == null)
+                    continue; // a repeat of a key already written
+                use = at;
+            } else {
+                boolean repeat = false;
+                for (int j = 0; j < i && !repeat; ++j)
+                    repeat = keys[j].equals(keys[i]);
+                if (repeat)
+                    continue;
+                for (int j = i + 1; j < count; ++j)
+                    if (keys[j].equals(keys[i]))
+                        use = j;
+            }
+            gen.writeFieldName(keys[i]);
+            kid.emit(use, kidSchemas[use]);
+        }
+        gen.writeEndObject();
+    }
+
+    /// one record as JSON on gen, returns the number of bytes it took
+    private static long stream(Value record, SchemaNode schemaNode, int recordNo, long offset) throws IOException {
+        if (ndjson != null) {
+            long before = ndjson.bytes();
+            ndjson.begin(recordNo, offset);
+            record.emit(0, schemaNode);
+            ndjson.end();
+            return ndjson.bytes() - before;
+        }
+        long before = counted.getCount() + gen.getOutputBuffered();
+        record.emit(0, schemaNode);
+        long len = counted.getCount() + gen.getOutputBuffered() - before;
+        gen.writeRaw(System.lineSeparator());
+        return len;
+    }
+
+    /// a record for stream() - obj from BouncyCastle, or when that is null rec tokenized with --raw
+    private static Value record(boolean debugWriteThisOne, TagStack tagStack, ASN1Primitive obj, BerTokenizer tok, ByteBuffer rec) {
+        if (obj != null)
+            return (i, s) -> emit(debugWriteThisOne, 0, tagStack, obj, s);
+        return (i, s) -> {
+            tok.reset(rec);
+            emitRaw(debugWriteThisOne, 0, tagStack, tok, tok.next(), s);
+        };
+    }
+
+    /// record JSON from the tree walk the way it is printed, pretty unless --compact
+    private static String toJson(JsonNode jo) throws IOException {
+        return cli.compact ? om.writeValueAsString(jo) : om.writerWithDefaultPrettyPrinter().writeValueAsString(jo);
+    }
+
+    private static void recordHeader(int recordNo) throws IOException {
+        if (ndjson != null)
+            return;
+        if (gen != null)
+            gen.writeRaw("Record no: " + recordNo + System.lineSeparator());
+        else
+            System.out.println("Record no: " + recordNo);
+    }
+
     private static boolean isValue(JsonNodeType nodeType) {
         switch (nodeType) {
             case ARRAY:
@@ -277,6 +687,45 @@ public class Asn1ToJson3 {
         }
     }
 
+    /// Only the -i records, fetched by offset from the index instead of walking the whole file.
+    /// Record no 1 is the first record, as in the full scan and Asn1ToJson2_1.
+    private static void walkIndexed(Path path, RecordIndex index, SchemaNode schemaNode) throws IOException {
+        System.out.println(path);
+        PhaseTrack.start();
+        int recs = 0;
+        long len = 0;
+        var tagStack = new TagStack();
+        var tok = new BerTokenizer();
+        try (RecordIndex.Reader reader = new RecordIndex.Reader(path, index)) {
+            for (int recordNo : new TreeSet<>(cli.writeOnly)) {
+                if (recordNo < 1 || recordNo > index.count()) {
+                    log.warn("record {} not in {} which has {} records", recordNo, path, index.count());
+                    continue;
+                }
+                recordHeader(recordNo);
+                ByteBuffer rec = reader.read(recordNo);
+                recs++;
+                if (gen != null) {
+                    ASN1Primitive obj = cli.raw ? null : Util.readObject(rec);
+                    len += stream(record(cli.debug, tagStack, obj, tok, rec), schemaNode, recordNo, index.offset(recordNo));
+                    tagStack.clear();
+                    continue;
+                }
+                JsonNode jo;
+                jo = walk(cli.debug, 0, tagStack, Util.readObject(rec), schemaNode);
+                tagStack.clear();
+                String prettyJson = toJson(jo);
+                System.out.println(prettyJson);
+                len += prettyJson.length();
+            }
+        }
+        if (gen != null)
+            gen.flush();
+        System.out.printf("recs: %d of %d indexed  len: %d\n", recs, index.count(), len);
+        nodeCount = 0L;
+        PhaseTrack.recordTimePoint("done");
+        PhaseTrack.logTimes(" indexed lookup", Level.INFO, TimeUnit.MILLISECONDS);
+    }
 
     public static void main(String[] args) {
         cli = new Cli();
@@ -287,6 +736,13 @@ public class Asn1ToJson3 {
                 cl.usage(System.err);
                 return;
             }
+            if (cli.gzipThreads > 0)
+                ParallelGzipInputStream.setThreads(cli.gzipThreads);
+            if (cli.readAhead > 0)
+                ReadAheadChannel.setRing(cli.readAhead, cli.readAheadMb << 20);
+            // the raw walk only writes to a generator
+            if (cli.raw)
+                cli.stream = true;
         } catch (Exception e) {
             System.err.println("cli related exception: " + e);
             return;
@@ -294,48 +750,98 @@ public class Asn1ToJson3 {
 
 
         try {
+            if (cli.ndjson != null) {
+                ndjson = new NdjsonWriter(om, cli.ndjson, cli.ndjsonBufferMb << 20, cli.ndjsonFlushRecords, cli.zstdLevel);
+                gen = ndjson.generator();
+                debugOut = System.err;
+            } else if (cli.stream) {
+                counted = new CountingOutputStream(new BufferedOutputStream(System.out, 1 << 16));
+                gen = om.getFactory().createGenerator(counted, JsonEncoding.UTF8);
+                gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                // records are separated by our own lines, not the default root value separator
+                if (cli.compact)
+                    gen.setRootValueSeparator(null);
+                else
+                    gen.setPrettyPrinter(new DefaultPrettyPrinter((String) null));
+                debugOut = System.err;
+            }
             SchemaNode schemaNode=null;
             if ( cli.asnSchemaFile != null ) {
                 if ( cli.asnTopName == null )
                     throw new RuntimeException("schema must also have the top schema name specified to make it usefule");
-                schemaNode = AsantiSchemaExperiment.createNodes(cli.asnSchemaFile, cli.asnTopName, false);
+                schemaNode = AsantiSchemaExperiment.createNodes(cli.asnSchemaFile, cli.asnTopName, cli.noSchemaCache ? null : cli.schemaCache);
 
                 SchemaNode test = schemaNode.find(new int[] {110,0,0});
                 int jjj=0;
             }
             for (var path : cli.files) {
+                if (cli.writeOnly != null) {
+                    try (RecordIndex index = RecordIndex.open(path)) {
+                        if (index != null) {
+                            walkIndexed(path, index, schemaNode);
+                            continue;
+                        }
+                    }
+                }
                 int recordNo = 0;
-                try (ASN1InputStream ais = new ASN1InputStream(Util.create(path))) {
+                // with -i the records not asked for are skipped by header only, ndjson needs the offsets
+                boolean split = cli.raw || cli.writeOnly != null || ndjson != null;
+                try (ASN1InputStream ais = split ? null : new ASN1InputStream(Util.create(path));
+                     RecordSource rr = split ? Util.records(path, false) : null) {
                     PhaseTrack.start();
                     long len = 0;
                     var tagStack = new TagStack();
-                    while (ais.available() > 0) {
+                    var tok = new BerTokenizer();
+                    while (split || ais.available() > 0) {
                         boolean writeThisOne = false;
                         if (cli.writeOnly != null) {
-                            if (cli.writeOnly.contains(recordNo))
+                            if (cli.writeOnly.contains(recordNo + 1))
                                 writeThisOne = true;
                         } else
                             writeThisOne = true;
 
-                        if ( writeThisOne ) {
-                            System.out.println("Record no: " + recordNo);
+                        if (split && !writeThisOne) {
+                            if (rr.skip() < 0)
+                                break;
+                            recordNo++;
+                            continue;
                         }
 
+                        ASN1Primitive obj = null;
+                        ByteBuffer rec = null;
+                        if (split) {
+                            rec = rr.next();
+                            if (rec == null)
+                                break;
+                            if (!cli.raw)
+                                obj = Util.readObject(rec);
+                        } else
+                            obj = ais.readObject();
 
-                        ASN1Primitive obj = ais.readObject();
                         recordNo++;
+                        if ( writeThisOne ) {
+                            recordHeader(recordNo);
+                        }
 
+                        if (gen != null) {
+                            if (writeThisOne)
+                                len += stream(record(cli.debug, tagStack, obj, tok, rec), schemaNode, recordNo, split ? rr.offset() : -1);
+                            tagStack.clear();
+                            continue;
+                        }
 
                         JsonNode jo = walk(cli.debug & writeThisOne, 0, tagStack, obj, schemaNode);
                         tagStack.clear();
 
                         if (writeThisOne) {
-                            String prettyJson = om.writerWithDefaultPrettyPrinter().writeValueAsString(jo);
+                            String prettyJson = toJson(jo);
                             System.out.println(prettyJson);
                             len += prettyJson.length();
                         }
 
                     }
+                    if (gen != null)
+                        gen.flush();
                     System.out.printf("recs: %d  len: %d\n", recordNo, len);
                     long deltaT = PhaseTrack.startToNowNanos();
                     long recRate = (recordNo * 1_000_000_000L) / deltaT;
@@ -346,6 +852,10 @@ public class Asn1ToJson3 {
                     PhaseTrack.logTimes(msg, Level.INFO, TimeUnit.MILLISECONDS);
                 }
             }
+            if (ndjson != null) {
+                ndjson.close();
+                System.out.printf("ndjson: %d records  %d bytes to %s\n", ndjson.records(), ndjson.bytes(), ndjson.path());
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
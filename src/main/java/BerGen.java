@@ -0,0 +1,779 @@
+import com.brightsparklabs.asanti.schema.AsnBuiltinType;
+import com.github.luben.zstd.Zstd;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.event.Level;
+import picocli.CommandLine;
+import util.OrderedPipeline;
+import util.PhaseTrack;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/// Synthetic BER records for a schema and top type, as many as wanted, for load testing the
+/// decoders.  The SchemaNode tree is turned into a plan once - identifiers, which fields are
+/// OPTIONAL, CHOICE alternatives, enum values - and records are then encoded straight from it.
+///
+/// Records are generated in chunks of --batch_size on --workers threads and written in chunk
+/// order.  Each chunk has its own random stream seeded from --seed and the chunk number, so the
+/// same arguments give the same file whatever the thread count.  Output ending in .gz is one gzip
+/// member per chunk and .zst one zstd frame per chunk, compressed on the workers too - both read
+/// back in parallel by the decoders.
+///
+/// Tags are written the IMPLICIT TAGS way, the only way the decoders here read them: a tagged
+/// field replaces the universal tag, except a tagged CHOICE which wraps the alternative.
+@Slf4j
+public class BerGen {
+    public static class Cli {
+
+        @CommandLine.Option(names = {"-s", "--asn1_schema_path"}, required = true,
+                description = "location of the asn1 schema file")
+        Path asnSchemaFile;
+
+        @CommandLine.Option(names = {"-t", "--topname_from_schema"}, required = true,
+                description = "top name to get from the schema to generate")
+        String asnTopName;
+
+        @CommandLine.Option(names = {"-o", "--output"}, required = true,
+                description = "file to write, gzip compressed when it ends in .gz and zstd when it ends in .zst")
+        Path outputPath;
+
+        @CommandLine.Option(names = {"-n", "--records"}, defaultValue = "1000000",
+                description = "number of records to write")
+        long records;
+
+        @CommandLine.Option(names = {"--seed"}, defaultValue = "1",
+                description = "random seed, the same seed and options give the same file")
+        long seed;
+
+        @CommandLine.Option(names = {"--optional"}, defaultValue = "0.5",
+                description = "chance an OPTIONAL field is present, 0 to 1")
+        double optional;
+
+        @CommandLine.Option(names = {"--seq_of_min"}, defaultValue = "0",
+                description = "fewest entries in a SEQUENCE OF or SET OF")
+        int seqOfMin;
+
+        @CommandLine.Option(names = {"--seq_of_max"}, defaultValue = "4",
+                description = "most entries in a SEQUENCE OF or SET OF")
+        int seqOfMax;
+
+        @CommandLine.Option(names = {"--str_min"}, defaultValue = "4",
+                description = "shortest string and octet string value")
+        int strMin;
+
+        @CommandLine.Option(names = {"--str_max"}, defaultValue = "16",
+                description = "longest string and octet string value")
+        int strMax;
+
+        @CommandLine.Option(names = {"--cardinality"}, defaultValue = "1000",
+                description = "distinct values per field, 0 for as many as the type holds")
+        int cardinality;
+
+        @CommandLine.Option(names = {"-w", "--workers"}, defaultValue = "0",
+                description = "threads generating and compressing chunks, 0 is one per core")
+        int workers;
+
+        @CommandLine.Option(names = {"--batch_size"}, defaultValue = "16384",
+                description = "records per chunk, also per gzip member or zstd frame")
+        int batchSize;
+
+        @CommandLine.Option(names = {"--gzip_level"}, defaultValue = "1",
+                description = "compression level for .gz output")
+        int gzipLevel;
+
+        @CommandLine.Option(names = {"--zstd_level"}, defaultValue = "3",
+                description = "compression level for .zst output")
+        int zstdLevel;
+
+        @CommandLine.Option(names = {"--schema_cache"}, defaultValue = "${sys:user.home}/.cache/asn1play",
+                description = "directory for compiled schemas so later runs skip parsing the schema, default: ${DEFAULT-VALUE}")
+        Path schemaCache;
+
+        @CommandLine.Option(names = {"--no_schema_cache"}, defaultValue = "false",
+                description = "always parse the schema, do not read or write the cache")
+        boolean noSchemaCache;
+
+        @CommandLine.Option(names = {"-h",
+                "--help"}, usageHelp = true, description = "display this help message")
+        boolean usageHelpRequested;
+    }
+
+    static Cli cli = null;
+
+    static final int UNIVERSAL = 0x00;
+    static final int CONTEXT = 0x80;
+    static final int CONSTRUCTED = 0x20;
+
+    enum Kind {INTEGER, ENUMERATED, BOOLEAN, NULL, OCTETS, TEXT, DIGITS, BITS, OID, RELATIVE_OID, REAL,
+        GENERALIZED_TIME, UTC_TIME, DATE, TIME_OF_DAY, DATE_TIME, DURATION, SEQUENCE, SEQUENCE_OF, CHOICE}
+
+    enum Format {RAW, GZIP, ZSTD}
+
+    static final byte[] TEXT = table("abcdefghijklmnopqrstuvwxyz0123456789");
+    static final byte[] DIGITS = table("0123456789");
+
+    /// chars repeated out to 64 entries so 6 random bits pick one
+    private static byte[] table(String chars) {
+        byte[] b = new byte[64];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) chars.charAt(i % chars.length());
+        return b;
+    }
+
+    /// one schema node worked out for writing
+    static final class Field {
+        final String name;
+        final Kind kind;
+        final boolean optional;
+        /// identifier octets, null for an untagged CHOICE which has none of its own
+        final byte[] identifier;
+        /// SEQUENCE and SET members, CHOICE alternatives, the one SEQUENCE OF entry
+        final Field[] children;
+        /// ENUMERATED values to pick from, empty for anything else
+        final int[] enumValues;
+        /// mixed into every value so fields with the same draw still differ
+        final long salt;
+
+        Field(String name, Kind kind, boolean optional, byte[] identifier, Field[] children, int[] enumValues, long salt) {
+            this.name = name;
+            this.kind = kind;
+            this.optional = optional;
+            this.identifier = identifier;
+            this.children = children;
+            this.enumValues = enumValues;
+            this.salt = salt;
+        }
+    }
+
+    /// one --batch_size run of records, generated then compressed on a worker
+    static final class Chunk {
+        final long no;
+        final int records;
+        byte[] data;
+        int length;
+        long rawBytes;
+
+        Chunk(long no, int records) {
+            this.no = no;
+            this.records = records;
+        }
+    }
+
+    /// per worker state, reused chunk after chunk
+    static final class Worker {
+        final Encoder enc = new Encoder();
+        final Deflater deflater = new Deflater(cli.gzipLevel, true);
+        final CRC32 crc = new CRC32();
+    }
+
+    private static Field top;
+    private static Format format;
+    private static final ConcurrentLinkedQueue<byte[]> pool = new ConcurrentLinkedQueue<>();
+
+    /// Plan for node and everything under it.  salts numbers the fields so each draws different
+    /// values.
+    static Field plan(SchemaNode node, long[] salts) {
+        Kind kind = kind(node);
+        int tag = node.tagged;
+        long salt = mix(cli.seed ^ ++salts[0] * 0xD1B54A32D192ED03L);
+        String name = node.fieldName;
+        if (kind == Kind.CHOICE) {
+            Field[] alts = new Field[node.choices.size()];
+            for (int i = 0; i < alts.length; i++)
+                alts[i] = plan(node.choices.get(i), salts);
+            if (alts.length == 0)
+                throw new RuntimeException("CHOICE " + name + " has no alternatives");
+            return new Field(name, kind, node.optional, tag < 0 ? null : identifier(CONTEXT | CONSTRUCTED, tag),
+                    alts, new int[0], salt);
+        }
+        boolean constructed = kind == Kind.SEQUENCE || kind == Kind.SEQUENCE_OF;
+        byte[] identifier = tag >= 0
+                ? identifier(CONTEXT | (constructed ? CONSTRUCTED : 0), tag)
+                : identifier(UNIVERSAL | (constructed ? CONSTRUCTED : 0), universalTag(node.primAsnBuiltinType));
+        Field[] children = new Field[0];
+        if (kind == Kind.SEQUENCE) {
+            children = plan(members(node), salts);
+            if (node.primAsnBuiltinType == AsnBuiltinType.Set)
+                Arrays.sort(children, Comparator.comparingLong(BerGen::canonical));
+        } else if (kind == Kind.SEQUENCE_OF) {
+            children = new Field[]{entry(node, salt, salts)};
+        }
+        int[] enumValues = kind == Kind.ENUMERATED && node.enumDef != null ? node.enumDef.values() : new int[0];
+        return new Field(name, kind, node.optional, identifier, children, enumValues, salt);
+    }
+
+    private static Field[] plan(ArrayList<SchemaNode> nodes, long[] salts) {
+        Field[] fields = new Field[nodes.size()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = plan(nodes.get(i), salts);
+        return fields;
+    }
+
+    /// One entry of a SEQUENCE OF or SET OF.  The entry type itself is not in the tree, only its
+    /// members, so what wraps them comes from the node's elementType - when asanti did not give
+    /// one, a SEQUENCE of the members or an OCTET STRING when there are none.
+    private static Field entry(SchemaNode node, long salt, long[] salts) {
+        String name = node.fieldName;
+        ArrayList<SchemaNode> members = members(node);
+        AsnBuiltinType type = node.elementType;
+        if (type == null)
+            type = members.isEmpty() ? AsnBuiltinType.OctetString : AsnBuiltinType.Sequence;
+        Kind kind = kind(type, name);
+        switch (kind) {
+            case CHOICE:
+                if (members.isEmpty())
+                    throw new RuntimeException("SEQUENCE OF CHOICE " + name + " has no alternatives");
+                return new Field(name, kind, false, null, plan(members, salts), new int[0], mix(salt + 1));
+            case SEQUENCE: {
+                Field[] entryMembers = plan(members, salts);
+                if (type == AsnBuiltinType.Set)
+                    Arrays.sort(entryMembers, Comparator.comparingLong(BerGen::canonical));
+                return new Field(name, kind, false, identifier(UNIVERSAL | CONSTRUCTED, universalTag(type)),
+                        entryMembers, new int[0], mix(salt + 1));
+            }
+            case SEQUENCE_OF: {
+                // how far down the nesting goes is not in the tree, the inner entries get the members
+                Field inner = new Field(name, Kind.SEQUENCE, false, identifier(UNIVERSAL | CONSTRUCTED, 0x10),
+                        plan(members, salts), new int[0], mix(salt + 2));
+                return new Field(name, kind, false, identifier(UNIVERSAL | CONSTRUCTED, universalTag(type)),
+                        new Field[]{inner}, new int[0], mix(salt + 1));
+            }
+            default:
+                return new Field(name, kind, false, identifier(UNIVERSAL, universalTag(type)), new Field[0], new int[0],
+                        mix(salt + 1));
+        }
+    }
+
+    /// DER order of SET members - tag class, then tag number, an untagged CHOICE by its lowest alternative
+    static long canonical(Field f) {
+        if (f.identifier == null) {
+            long lowest = Long.MAX_VALUE;
+            for (Field alt : f.children)
+                lowest = Math.min(lowest, canonical(alt));
+            return lowest;
+        }
+        long tag = f.identifier[0] & 0x1f;
+        if (tag == 0x1f) {
+            tag = 0;
+            for (int i = 1; i < f.identifier.length; i++)
+                tag = tag << 7 | (f.identifier[i] & 0x7f);
+        }
+        return (long) (f.identifier[0] & 0xc0) << 32 | tag;
+    }
+
+    /// the distinct members of a SEQUENCE or SET in declaration order - auditChild has every one by
+    /// name, and also under "" for whichever was added last
+    private static ArrayList<SchemaNode> members(SchemaNode node) {
+        IdentityHashMap<SchemaNode, Boolean> seen = new IdentityHashMap<>();
+        ArrayList<SchemaNode> members = new ArrayList<>();
+        for (var e : node.auditChild.entrySet()) {
+            if (!e.getKey().isEmpty() && seen.put(e.getValue(), Boolean.TRUE) == null)
+                members.add(e.getValue());
+        }
+        return members;
+    }
+
+    private static Kind kind(SchemaNode node) {
+        if (node.primAsnBuiltinType == null)
+            throw new RuntimeException("schema node " + node.fieldName + " has no type");
+        return kind(node.primAsnBuiltinType, node.fieldName);
+    }
+
+    private static Kind kind(AsnBuiltinType type, String name) {
+        switch (type) {
+            case Integer:
+                return Kind.INTEGER;
+            case Enumerated:
+                return Kind.ENUMERATED;
+            case Boolean:
+                return Kind.BOOLEAN;
+            case Null:
+            case Null2:
+                return Kind.NULL;
+            case OctetString:
+                return Kind.OCTETS;
+            case Ia5String:
+            case Utf8String:
+            case GraphicString:
+            case VisibleString:
+            case PrintableString:
+            case OidIri:
+                return Kind.TEXT;
+            case NumericString:
+                return Kind.DIGITS;
+            case BitString:
+                return Kind.BITS;
+            case Oid:
+                return Kind.OID;
+            case RelativeOid:
+                return Kind.RELATIVE_OID;
+            case Real:
+                return Kind.REAL;
+            case GeneralizedTime:
+                return Kind.GENERALIZED_TIME;
+            case UtcTime:
+                return Kind.UTC_TIME;
+            case Date:
+                return Kind.DATE;
+            case TimeOfDay:
+                return Kind.TIME_OF_DAY;
+            case DateTime:
+            case Time:
+                return Kind.DATE_TIME;
+            case Duration:
+                return Kind.DURATION;
+            case Sequence:
+            case Set:
+                return Kind.SEQUENCE;
+            case SequenceOf:
+            case SetOf:
+                return Kind.SEQUENCE_OF;
+            case Choice:
+                return Kind.CHOICE;
+            default:
+                throw new RuntimeException("type: " + type + " of " + name + " not yet handled here");
+        }
+    }
+
+    private static int universalTag(AsnBuiltinType type) {
+        switch (type) {
+            case Boolean: return 0x01;
+            case Integer: return 0x02;
+            case BitString: return 0x03;
+            case OctetString: return 0x04;
+            case Null:
+            case Null2: return 0x05;
+            case Oid: return 0x06;
+            case Real: return 0x09;
+            case Enumerated: return 0x0a;
+            case Utf8String: return 0x0c;
+            case RelativeOid: return 0x0d;
+            case Time: return 0x0e;
+            case Sequence:
+            case SequenceOf: return 0x10;
+            case Set:
+            case SetOf: return 0x11;
+            case NumericString: return 0x12;
+            case PrintableString: return 0x13;
+            case Ia5String: return 0x16;
+            case UtcTime: return 0x17;
+            case GeneralizedTime: return 0x18;
+            case GraphicString: return 0x19;
+            case VisibleString: return 0x1a;
+            case Date: return 0x1f;
+            case TimeOfDay: return 0x20;
+            case DateTime: return 0x21;
+            case Duration: return 0x22;
+            case OidIri: return 0x23;
+            default:
+                throw new RuntimeException("no universal tag for " + type);
+        }
+    }
+
+    /// identifier octets, high tag number form from 31 up
+    static byte[] identifier(int cls, int tag) {
+        if (tag < 0x1f)
+            return new byte[]{(byte) (cls | tag)};
+        int n = 1;
+        while ((tag >>> (7 * n)) != 0)
+            n++;
+        byte[] b = new byte[n + 1];
+        b[0] = (byte) (cls | 0x1f);
+        for (int i = 0; i < n; i++)
+            b[1 + i] = (byte) ((tag >>> (7 * (n - 1 - i))) & 0x7f | (i < n - 1 ? 0x80 : 0));
+        return b;
+    }
+
+    /// splitmix64 finaliser
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /// Definite length BER into a growing array.  A constructed element reserves one length
+    /// octet and moves its content up when the length turns out to need the long form.
+    static final class Encoder {
+        byte[] buf;
+        int pos = 0;
+        private SplittableRandom rnd;
+
+        void begin(byte[] into, SplittableRandom rnd) {
+            this.buf = into;
+            this.pos = 0;
+            this.rnd = rnd;
+        }
+
+        private void ensure(int more) {
+            if (pos + more > buf.length) {
+                byte[] b = new byte[Math.max(buf.length * 2, pos + more)];
+                System.arraycopy(buf, 0, b, 0, pos);
+                buf = b;
+            }
+        }
+
+        private void put(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        private void put(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, pos, b.length);
+            pos += b.length;
+        }
+
+        /// start of the content after reserving the one length octet
+        private int open(byte[] identifier) {
+            put(identifier);
+            put(0);
+            return pos;
+        }
+
+        private void close(int start) {
+            int len = pos - start;
+            if (len < 0x80) {
+                buf[start - 1] = (byte) len;
+                return;
+            }
+            int n = len < 1 << 8 ? 1 : len < 1 << 16 ? 2 : len < 1 << 24 ? 3 : 4;
+            ensure(n);
+            System.arraycopy(buf, start, buf, start + n, len);
+            buf[start - 1] = (byte) (0x80 | n);
+            for (int i = 0; i < n; i++)
+                buf[start + i] = (byte) (len >>> (8 * (n - 1 - i)));
+            pos += n;
+        }
+
+        private int length(long h) {
+            int span = cli.strMax - cli.strMin + 1;
+            return cli.strMin + (int) Long.remainderUnsigned(h, span);
+        }
+
+        void write(Field f) {
+            switch (f.kind) {
+                case CHOICE: {
+                    Field alt = f.children[rnd.nextInt(f.children.length)];
+                    if (f.identifier == null) {
+                        write(alt);
+                    } else {
+                        int start = open(f.identifier);
+                        write(alt);
+                        close(start);
+                    }
+                    return;
+                }
+                case SEQUENCE: {
+                    int start = open(f.identifier);
+                    for (Field c : f.children) {
+                        if (!c.optional || rnd.nextDouble() < cli.optional)
+                            write(c);
+                    }
+                    close(start);
+                    return;
+                }
+                case SEQUENCE_OF: {
+                    int start = open(f.identifier);
+                    int count = cli.seqOfMin + rnd.nextInt(cli.seqOfMax - cli.seqOfMin + 1);
+                    for (int i = 0; i < count; i++)
+                        write(f.children[0]);
+                    close(start);
+                    return;
+                }
+                default:
+                    int start = open(f.identifier);
+                    leaf(f);
+                    close(start);
+            }
+        }
+
+        private void leaf(Field f) {
+            if (f.kind == Kind.NULL)
+                return;
+            // k picks one of --cardinality values for the field, h spreads it into the content
+            long k = cli.cardinality > 0 ? rnd.nextInt(cli.cardinality) : rnd.nextLong();
+            long h = mix(f.salt ^ k);
+            switch (f.kind) {
+                case INTEGER:
+                    integer(k);
+                    break;
+                case ENUMERATED:
+                    integer(f.enumValues.length > 0 ? f.enumValues[(int) Long.remainderUnsigned(h, f.enumValues.length)]
+                            : Long.remainderUnsigned(h, 8));
+                    break;
+                case BOOLEAN:
+                    put((h & 1) == 0 ? 0x00 : 0xff);
+                    break;
+                case OCTETS:
+                    octets(h, null);
+                    break;
+                case TEXT:
+                    octets(h, TEXT);
+                    break;
+                case DIGITS:
+                    octets(h, DIGITS);
+                    break;
+                case BITS:
+                    put(0);
+                    octets(h, null);
+                    break;
+                case OID:
+                    // 1.3.6.1.4.1.<n>.<n>
+                    put(new byte[]{0x2b, 0x06, 0x01, 0x04, 0x01});
+                    arc(Long.remainderUnsigned(h, 100_000));
+                    arc(Long.remainderUnsigned(h >>> 20, 1000));
+                    break;
+                case RELATIVE_OID:
+                    arc(Long.remainderUnsigned(h, 100_000));
+                    break;
+                case REAL:
+                    // ISO 6093 NR1, plain decimal digits
+                    put(0x01);
+                    decimal(Long.remainderUnsigned(h, 1_000_000));
+                    break;
+                case GENERALIZED_TIME:
+                    time(h, "YYYYMMDDhhmmssZ");
+                    break;
+                case UTC_TIME:
+                    time(h, "YYMMDDhhmmssZ");
+                    break;
+                case DATE:
+                    time(h, "YYYY-MM-DD");
+                    break;
+                case TIME_OF_DAY:
+                    time(h, "hh:mm:ss");
+                    break;
+                case DATE_TIME:
+                    time(h, "YYYY-MM-DDThh:mm:ss");
+                    break;
+                case DURATION:
+                    put('P');
+                    put('T');
+                    decimal(Long.remainderUnsigned(h, 86_400));
+                    put('S');
+                    break;
+                default:
+                    throw new RuntimeException("kind " + f.kind + " is not a leaf");
+            }
+        }
+
+        /// --str_min to --str_max octets spun out of h eight at a time, as they come or looked up in
+        /// a 64 entry table
+        private void octets(long h, byte[] table) {
+            int n = length(h);
+            ensure(n);
+            long v = 0;
+            for (int i = 0; i < n; i++) {
+                if ((i & 7) == 0)
+                    v = h = mix(h + i);
+                buf[pos++] = table == null ? (byte) v : table[(int) v & 63];
+                v >>>= 8;
+            }
+        }
+
+        /// A time between 2020 and 2024 laid out by layout - runs of Y, M, D, h, m and s are that
+        /// field's low digits, anything else is copied as is.
+        private void time(long h, String layout) {
+            ensure(layout.length());
+            int[] fields = {2020 + (int) Long.remainderUnsigned(h, 5), 1 + (int) ((h >>> 8) & 0xff) % 12,
+                    1 + (int) ((h >>> 16) & 0xff) % 28, (int) ((h >>> 24) & 0xff) % 24,
+                    (int) ((h >>> 32) & 0xff) % 60, (int) ((h >>> 40) & 0xff) % 60};
+            for (int i = 0; i < layout.length(); ) {
+                char c = layout.charAt(i);
+                int field = "YMDhms".indexOf(c);
+                if (field < 0) {
+                    buf[pos++] = (byte) c;
+                    i++;
+                    continue;
+                }
+                int run = 1;
+                while (i + run < layout.length() && layout.charAt(i + run) == c)
+                    run++;
+                for (int v = fields[field], d = run - 1; d >= 0; d--, v /= 10)
+                    buf[pos + d] = (byte) ('0' + v % 10);
+                pos += run;
+                i += run;
+            }
+        }
+
+        private void decimal(long v) {
+            int n = 1;
+            for (long t = v / 10; t != 0; t /= 10)
+                n++;
+            ensure(n);
+            for (int d = n - 1; d >= 0; d--, v /= 10)
+                buf[pos + d] = (byte) ('0' + v % 10);
+            pos += n;
+        }
+
+        /// shortest two's complement content octets of v
+        private void integer(long v) {
+            int n = 1;
+            while (n < 8 && (v >> (8 * n - 1)) != 0 && (v >> (8 * n - 1)) != -1)
+                n++;
+            ensure(n);
+            for (int i = 0; i < n; i++)
+                buf[pos++] = (byte) (v >> (8 * (n - 1 - i)));
+        }
+
+        /// one OID arc, base 128
+        private void arc(long v) {
+            int n = 1;
+            while ((v >>> (7 * n)) != 0)
+                n++;
+            ensure(n);
+            for (int i = 0; i < n; i++)
+                buf[pos++] = (byte) ((v >>> (7 * (n - 1 - i))) & 0x7f | (i < n - 1 ? 0x80 : 0));
+        }
+    }
+
+    private static byte[] borrow(int size) {
+        byte[] b = pool.poll();
+        return b != null && b.length >= size ? b : new byte[Math.max(size, 1 << 20)];
+    }
+
+    /// records of the chunk, then compressed when the output is
+    static Chunk generate(Worker w, Chunk c) {
+        SplittableRandom rnd = new SplittableRandom(mix(cli.seed + c.no * 0x9E3779B97F4A7C15L));
+        Encoder enc = w.enc;
+        enc.begin(borrow(0), rnd);
+        for (int i = 0; i < c.records; i++)
+            enc.write(top);
+        c.rawBytes = enc.pos;
+        switch (format) {
+            case RAW:
+                c.data = enc.buf;
+                c.length = enc.pos;
+                return c;
+            case GZIP:
+                gzipMember(w, enc.buf, enc.pos, c);
+                break;
+            case ZSTD: {
+                byte[] out = borrow((int) Zstd.compressBound(enc.pos));
+                long n = Zstd.compressByteArray(out, 0, out.length, enc.buf, 0, enc.pos, cli.zstdLevel);
+                if (Zstd.isError(n))
+                    throw new RuntimeException("zstd compression failed: " + Zstd.getErrorName(n));
+                c.data = out;
+                c.length = (int) n;
+                break;
+            }
+        }
+        pool.offer(enc.buf);
+        return c;
+    }
+
+    /// a complete gzip member - header, raw deflate, CRC32 and size trailer
+    private static void gzipMember(Worker w, byte[] src, int len, Chunk c) {
+        byte[] out = borrow(len + (len >> 3) + 64);
+        out[0] = 0x1f;
+        out[1] = (byte) 0x8b;
+        out[2] = Deflater.DEFLATED;
+        for (int i = 3; i < 9; i++)
+            out[i] = 0;
+        out[9] = (byte) 0xff;
+        int n = 10;
+        Deflater d = w.deflater;
+        d.reset();
+        d.setInput(src, 0, len);
+        d.finish();
+        while (!d.finished()) {
+            if (n == out.length) {
+                byte[] b = new byte[out.length * 2];
+                System.arraycopy(out, 0, b, 0, n);
+                out = b;
+            }
+            n += d.deflate(out, n, out.length - n);
+        }
+        w.crc.reset();
+        w.crc.update(src, 0, len);
+        if (n + 8 > out.length) {
+            byte[] b = new byte[n + 8];
+            System.arraycopy(out, 0, b, 0, n);
+            out = b;
+        }
+        long crc = w.crc.getValue();
+        for (int i = 0; i < 4; i++)
+            out[n++] = (byte) (crc >>> (8 * i));
+        for (int i = 0; i < 4; i++)
+            out[n++] = (byte) (len >>> (8 * i));
+        c.data = out;
+        c.length = n;
+    }
+
+    public static void main(String[] args) {
+        cli = new Cli();
+        try {
+            CommandLine cl = new CommandLine(cli);
+            cl.parseArgs(args);
+            if (cli.usageHelpRequested) {
+                cl.usage(System.err);
+                return;
+            }
+            if (cli.optional < 0 || cli.optional > 1)
+                throw new RuntimeException("--optional is a chance from 0 to 1: " + cli.optional);
+            if (cli.seqOfMin < 0 || cli.seqOfMax < cli.seqOfMin)
+                throw new RuntimeException("--seq_of_min and --seq_of_max need 0 <= min <= max");
+            if (cli.strMin < 0 || cli.strMax < cli.strMin)
+                throw new RuntimeException("--str_min and --str_max need 0 <= min <= max");
+            if (cli.cardinality < 0)
+                throw new RuntimeException("--cardinality cannot be negative: " + cli.cardinality);
+            if (cli.workers <= 0)
+                cli.workers = Runtime.getRuntime().availableProcessors();
+        } catch (Exception e) {
+            System.err.println("cli related exception: " + e);
+            return;
+        }
+
+        try {
+            String name = cli.outputPath.getFileName().toString();
+            format = name.endsWith(".gz") ? Format.GZIP : name.endsWith(".zst") ? Format.ZSTD : Format.RAW;
+            SchemaNode schemaNode = AsantiSchemaExperiment.createNodes(cli.asnSchemaFile, cli.asnTopName, cli.noSchemaCache ? null : cli.schemaCache);
+            top = plan(schemaNode, new long[1]);
+            generateFile();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void generateFile() throws Exception {
+        PhaseTrack.start();
+        int batchSize = Math.max(cli.batchSize, 1);
+        long[] next = new long[1];
+        long[] totals = new long[2];
+        ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+        try (FileChannel out = FileChannel.open(cli.outputPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            new OrderedPipeline<Chunk, Chunk>(cli.workers, cli.workers * 2, "gen").run(() -> {
+                long done = next[0] * batchSize;
+                if (done >= cli.records)
+                    return null;
+                return new Chunk(next[0]++, (int) Math.min(batchSize, cli.records - done));
+            }, c -> generate(workers.get(), c), c -> {
+                ByteBuffer bb = ByteBuffer.wrap(c.data, 0, c.length);
+                while (bb.hasRemaining())
+                    out.write(bb);
+                totals[0] += c.rawBytes;
+                totals[1] += c.length;
+                pool.offer(c.data);
+                c.data = null;
+            });
+        }
+        long deltaT = PhaseTrack.startToNowNanos();
+        String msg = String.format(" %s records: %d  raw: %d  written: %d  raw rate: %d MB/s  write rate: %d MB/s",
+                cli.outputPath.getFileName(), cli.records, totals[0], totals[1],
+                totals[0] * 1000 / Math.max(deltaT, 1), totals[1] * 1000 / Math.max(deltaT, 1));
+        PhaseTrack.recordTimePoint("done");
+        PhaseTrack.logTimes(msg, Level.INFO, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,53 @@
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.event.Level;
+import picocli.CommandLine;
+import util.PhaseTrack;
+import util.RecordIndex;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/// Writes a <file>.idx record offset index next to each BER file so the decoders
+/// can jump straight to the records given with -i/--index_list.
+@Slf4j
+public class BerIndex {
+    public static class Cli {
+
+        @CommandLine.Option(names = {"-f", "--files_to_index"}, arity = "1..*", required = true,
+                description = "BER files to index, .gz and .zst are indexed by decompressed offset")
+        Path[] files;
+
+        @CommandLine.Option(names = {"-h",
+                "--help"}, usageHelp = true, description = "display this help message")
+        boolean usageHelpRequested;
+    }
+
+    public static void main(String[] args) {
+        Cli cli = new Cli();
+        try {
+            CommandLine cl = new CommandLine(cli);
+            cl.parseArgs(args);
+            if (cli.usageHelpRequested) {
+                cl.usage(System.err);
+                return;
+            }
+        } catch (Exception e) {
+            System.err.println("cli related exception: " + e);
+            return;
+        }
+
+        try {
+            for (var path : cli.files) {
+                PhaseTrack.start();
+                long count = RecordIndex.build(path);
+                System.out.printf("recs: %d  index: %s\n", count, RecordIndex.indexPath(path));
+                long deltaT = PhaseTrack.startToNowNanos();
+                long recRate = (count * 1_000_000_000L) / Math.max(deltaT, 1L);
+                PhaseTrack.recordTimePoint("done");
+                PhaseTrack.logTimes(String.format(" rec rate: %d/s", recRate), Level.INFO, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
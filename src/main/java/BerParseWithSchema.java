@@ -1,23 +1,48 @@
 import asanti.AsantiPaths;
+import asanti.ColumnarWriter;
+import asanti.CompiledSchema;
+import asanti.EnumTable;
+import asanti.WideLayout;
+import com.brightsparklabs.asanti.schema.AsnBuiltinType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.*;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.asn1.*;
 import org.bouncycastle.util.Strings;
-import org.bouncycastle.util.encoders.Hex;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
 import org.slf4j.event.Level;
 import picocli.CommandLine;
+import util.BerInteger;
+import util.BerTokenizer;
+import util.ByteOut;
+import util.FileScheduler;
+import util.Metrics;
+import util.OrderedPipeline;
+import util.ParallelGzipInputStream;
 import util.PhaseTrack;
+import util.Progress;
+import util.ReadAheadChannel;
+import util.RecordIndex;
+import util.RecordSource;
+import util.TagStack;
 import util.Util;
+import util.ValueText;
 
 import java.io.BufferedOutputStream;
 import java.io.PrintStream;
-import java.math.BigInteger;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
@@ -52,6 +77,98 @@ public class BerParseWithSchema {
                 description = "during processing write tags paths and final type")
         boolean debug;
 
+        @CommandLine.Option(names = {"-r", "--raw"}, defaultValue = "false",
+                description = "walk the raw BER bytes with the pull tokenizer instead of building BouncyCastle objects")
+        boolean raw;
+
+        @CommandLine.Option(names = {"-m", "--mmap"}, defaultValue = "false",
+                description = "memory map uncompressed input files, implies --raw")
+        boolean mmap;
+
+        @CommandLine.Option(names = {"-w", "--workers"}, defaultValue = "0",
+                description = "decode and render on this many threads between a reader and an in order writer, 0 is single threaded - implies --raw")
+        int workers;
+
+        @CommandLine.Option(names = {"--gzip_threads"}, defaultValue = "0",
+                description = "threads inflating multi-member .gz input, 0 is one per core, 1 a plain single threaded GZIPInputStream")
+        int gzipThreads;
+
+        @CommandLine.Option(names = {"--read_ahead"}, defaultValue = "0",
+                description = "buffers in the ring a separate thread reads and decompresses input into ahead of decoding, 0 or 1 reads on the decoding thread")
+        int readAhead;
+
+        @CommandLine.Option(names = {"--read_ahead_mb"}, defaultValue = "4",
+                description = "size in MB of each --read_ahead buffer")
+        int readAheadMb;
+
+        @CommandLine.Option(names = {"--queue_depth"}, defaultValue = "0",
+                description = "batches in flight with --workers, 0 is 4 per worker")
+        int queueDepth;
+
+        @CommandLine.Option(names = {"--batch_size"}, defaultValue = "256",
+                description = "records per batch handed to a worker")
+        int batchSize;
+
+        @CommandLine.Option(names = {"-P", "--parallel_files"}, defaultValue = "1",
+                description = "process this many files at once, largest first - implies --raw")
+        int parallelFiles;
+
+        @CommandLine.Option(names = {"--per_file_output"}, defaultValue = "false",
+                description = "with --parallel_files treat -o as a directory and write one <input name>.txt per file instead of merging")
+        boolean perFileOutput;
+
+        @CommandLine.Option(names = {"--wide"}, defaultValue = "false",
+                description = "write -o as one csv row per record with a column per schema leaf instead of a line per value - implies --raw")
+        boolean wide;
+
+        @CommandLine.Option(names = {"--tsv"}, defaultValue = "false",
+                description = "with --wide separate columns with tabs instead of commas")
+        boolean tsv;
+
+        @CommandLine.Option(names = {"--columns"}, arity = "1..*", split = ",",
+                description = "with --wide or --columnar only these leaves and in this order, as tag paths (/110/0/3) or field name paths")
+        List<String> columns;
+
+        @CommandLine.Option(names = {"--columnar"},
+                description = "also write the records to this columnar file, a column per schema leaf - read it with ColumnarScan, implies --raw")
+        Path columnarPath;
+
+        @CommandLine.Option(names = {"--row_group"}, defaultValue = "65536",
+                description = "records per row group in the --columnar file")
+        int rowGroup;
+
+        @CommandLine.Option(names = {"--metrics_interval"}, defaultValue = "0",
+                description = "log stage timings and counters every this many seconds, 0 is only once at the end when --metrics_file is given")
+        int metricsInterval;
+
+        @CommandLine.Option(names = {"--metrics_file"},
+                description = "write the metrics to this file at every report, JSON when it ends in .json and Prometheus text otherwise")
+        Path metricsFile;
+
+        @CommandLine.Option(names = {"--latency"}, defaultValue = "false",
+                description = "time every record and log latency percentiles and the slowest records with each file's times - decode is the BouncyCastle parse, render the schema walk (with --raw the tokenizing too)")
+        boolean latency;
+
+        @CommandLine.Option(names = {"--slowest"}, defaultValue = "5",
+                description = "with --latency how many of the slowest record numbers to log")
+        int slowest;
+
+        @CommandLine.Option(names = {"--progress"}, defaultValue = "0",
+                description = "log percent through the input, records, rec/s, MB/s read from disk and an ETA every this many seconds, 0 is off")
+        int progress;
+
+        @CommandLine.Option(names = {"--progress_file"},
+                description = "with --progress replace this small JSON file at every report so other processes can follow the run")
+        Path progressFile;
+
+        @CommandLine.Option(names = {"--schema_cache"}, defaultValue = "${sys:user.home}/.cache/asn1play",
+                description = "directory for compiled schemas so later runs skip parsing the schema, default: ${DEFAULT-VALUE}")
+        Path schemaCache;
+
+        @CommandLine.Option(names = {"--no_schema_cache"}, defaultValue = "false",
+                description = "always parse the schema, do not read or write the cache")
+        boolean noSchemaCache;
+
         @CommandLine.Option(names = {"-h",
                 "--help"}, usageHelp = true, description = "display this help message\nsample cmdline: java -cp hdfs_du2-1.0-SNAPSHOT.jar:lib/* org.HdfsDu2 /prod test --krb5_user adm_sflanag1@HDPQUANTUMPROD.COM --krb5_key_tab /etc/security/keytabs/adm_sflanag1.user.keytab")
         boolean usageHelpRequested;
@@ -62,18 +179,33 @@ public class BerParseWithSchema {
 
     static long nodeCount = 0;
 
-    static LinkedHashMap<String, AsantiPaths.FieldInfo> schema;
+    /// Stages for --metrics_interval: read is getting the next record out of the file, inflating
+    /// included, parse is BouncyCastle building its objects, render the schema walk making text
+    /// (for the raw walk tokenizing as well, the two are one loop) and write handing the text on.
+    static final Metrics.Timer READ = Metrics.timer("read");
+    static final Metrics.Timer PARSE = Metrics.timer("parse");
+    static final Metrics.Timer RENDER = Metrics.timer("render");
+    static final Metrics.Timer WRITE = Metrics.timer("write");
+    static final Metrics.Counter RECORDS = Metrics.counter("records");
+    static final Metrics.Counter NODES = Metrics.counter("nodes");
+    static final Metrics.Counter LOOKUPS = Metrics.counter("schema_lookups");
+    static final Metrics.Counter BYTES_IN = Metrics.counter("bytes_in");
+    static final Metrics.Counter BYTES_OUT = Metrics.counter("bytes_out");
+    /// leaves by schema type, indexed by ordinal
+    static final Metrics.Counter[] LEAVES = Arrays.stream(AsnBuiltinType.values())
+            .map(t -> Metrics.counter("leaves", "type", t.name())).toArray(Metrics.Counter[]::new);
+    static final Metrics.Counter UNTYPED_LEAVES = Metrics.counter("leaves", "type", "none");
+    /// unknown_tags counters of the object walk, which is only ever single threaded - see child()
+    static final LongObjectHashMap<Metrics.Counter> UNKNOWN_TAGS = new LongObjectHashMap<>();
+
+    static CompiledSchema schema;
+    /// --wide columns, null when writing a line per value
+    static WideLayout wide;
+    /// --columnar output, single threaded so shared by the one walker
+    static ColumnarWriter columnar;
     static PrintStream ps = null;
     private static String toStr(byte[] bytes) {
-        try {
-            String s = Util.carefulBytesToString(bytes);
-            if (cli.hexAlso)
-                s += ", HEX: " + Strings.fromByteArray(Hex.encode(bytes));
-            return s;
-        } catch (Exception e) {
-            return "HEX: " + Strings.fromByteArray(Hex.encode(bytes));
-
-        }
+        return ValueText.toStr(bytes, cli.hexAlso);
     }
 
     public static int peekForTag(ASN1Primitive obj) {
@@ -84,144 +216,773 @@ public class BerParseWithSchema {
             return -1;
     }
 
-    public static String getSchemaString(String path) {
-        var o = schema.get(path);
+    /// schema entry for node, tagStack is only there to say which path was missing
+    public static AsantiPaths.FieldInfo getFieldInfo(int node, TagStack tagStack) {
+        var o = schema.field(node);
         if ( o == null ) {
-            throw new RuntimeException("No connection to schema for tag path: " + path);
+            throw new RuntimeException("No connection to schema for tag path: " + tagStack);
         } else {
-            return o.toString();
+            return o;
+        }
+    }
+
+    public static String getSchemaString(int node, TagStack tagStack) {
+        return getFieldInfo(node, tagStack).label;
+    }
+
+    /// schema.child() counted, and the first tag of a path the schema does not know counted by
+    /// path - tagStack already has tag on it.  The path follows from (node, tag) so its counter is
+    /// kept in unknown under those and the path string only built the first time.
+    static int child(Metrics.Stripe stats, LongObjectHashMap<Metrics.Counter> unknown, int node, int tag, TagStack tagStack) {
+        stats.add(LOOKUPS, 1);
+        int next = schema.child(node, tag);
+        if (next == CompiledSchema.MISSING && node != CompiledSchema.MISSING) {
+            long key = (long) node << 32 | (tag & 0xffffffffL);
+            Metrics.Counter c = unknown.get(key);
+            if (c == null) {
+                c = Metrics.counter("unknown_tags", "path", tagStack.toString());
+                unknown.put(key, c);
+            }
+            stats.add(c, 1);
         }
+        return next;
     }
 
-    public static void walk(boolean debugWriteThisOne, int depth, StringBuilder tagStack, ASN1Primitive obj) {
+    /// counter for a leaf going by its schema type
+    static Metrics.Counter leaves(int node) {
+        var fieldInfo = node == CompiledSchema.MISSING ? null : schema.field(node);
+        return fieldInfo == null || fieldInfo.builtinType == null ? UNTYPED_LEAVES : LEAVES[fieldInfo.builtinType.ordinal()];
+    }
+
+    public static void walk(Metrics.Stripe stats, boolean debugWriteThisOne, int depth, TagStack tagStack, int node, ASN1Primitive obj) {
         nodeCount++;
         final int tag = peekForTag(obj);
-        String strTag = null;
-        int tagStackMarker = tagStack.length();
-        if (tag >= 0 )
-            tagStack.append('/').append(tag);
+        if (tag >= 0 ) {
+            tagStack.push(tag);
+            node = child(stats, UNKNOWN_TAGS, node, tag, tagStack);
+        }
 
         if (obj instanceof ASN1TaggedObject) {
-            walk(debugWriteThisOne, depth + 1, tagStack, ((ASN1TaggedObject) obj).getBaseObject().toASN1Primitive());
+            walk(stats, debugWriteThisOne, depth + 1, tagStack, node, ((ASN1TaggedObject) obj).getBaseObject().toASN1Primitive());
         } else if (obj instanceof org.bouncycastle.util.Iterable) {
             if (obj instanceof ASN1Sequence) {
                 var seq = (ASN1Sequence) obj;
-                handleSequence(debugWriteThisOne, depth, tagStack, seq);
+                handleSequence(stats, debugWriteThisOne, depth, tagStack, node, seq);
             } else if (obj instanceof ASN1Set) {
-                handleSet(debugWriteThisOne, depth, tagStack, (ASN1Set) obj);
+                handleSet(stats, debugWriteThisOne, depth, tagStack, node, (ASN1Set) obj);
             } else {
                 throw new RuntimeException("Unable handled interable: " + obj.getClass().getName());
             }
         } else if (obj instanceof ASN1OctetString) {
             ASN1OctetString os = (ASN1OctetString) obj;
-            String path = tagStack.toString();
-            String s = toStr((os).getOctets());
-            write(ps,os,tagStack);
+            stats.add(leaves(node), 1);
+            write(ps,os,node,tagStack);
             if (debugWriteThisOne)
-                write(System.out,os,tagStack);
+                write(System.out,os,node,tagStack);
         } else if (obj instanceof ASN1GraphicString) {
             String s = ((ASN1GraphicString) obj).getString();
+            stats.add(LEAVES[AsnBuiltinType.GraphicString.ordinal()], 1);
             if (debugWriteThisOne)
-                write(System.out, obj, tagStack,s);
+                write(System.out, obj, node, tagStack, s);
 
-            write(ps,obj, tagStack, s);
+            write(ps, obj, node, tagStack, s);
         } else if (obj instanceof ASN1UTF8String) {
             String s = ((ASN1UTF8String) obj).getString();
-            write(ps,obj,tagStack,s);
+            stats.add(LEAVES[AsnBuiltinType.Utf8String.ordinal()], 1);
+            write(ps, obj, node, tagStack, s);
             if (debugWriteThisOne)
-                write(System.out, obj, tagStack,s);
+                write(System.out, obj, node, tagStack, s);
         } else if (obj instanceof ASN1Integer) {
-            BigInteger bi = ((ASN1Integer) obj).getValue();
-            write(ps, obj,tagStack,bi.toString());
+            String s = BerInteger.toString((ASN1Integer) obj);
+            stats.add(LEAVES[AsnBuiltinType.Integer.ordinal()], 1);
+            write(ps, obj, node, tagStack, s);
             if (debugWriteThisOne)
-                write(System.out, obj, tagStack,bi.toString());
+                write(System.out, obj, node, tagStack, s);
         } else {
             throw new RuntimeException("unable handled type: " + obj.getClass().getSimpleName());
         }
         if (tag >= 0 )
-            tagStack.setLength(tagStackMarker);
+            tagStack.pop();
     }
 
-    private static void write(PrintStream printStream, ASN1Primitive obj, StringBuilder tagStack, String s) {
+    private static void write(PrintStream printStream, ASN1Primitive obj, int node, TagStack tagStack, String s) {
+        write(printStream, obj.getClass().getSimpleName(), node, tagStack, s);
+    }
+
+    private static void write(PrintStream printStream, String typeName, int node, TagStack tagStack, String s) {
         if ( printStream != null ) {
-            var path = tagStack.toString();
-            var ss = getSchemaString(path);
-            printStream.println(path + "," + ss + "," + obj.getClass().getSimpleName() + "," + s);
+            var ss = getSchemaString(node, tagStack);
+            printStream.println(schema.path(node) + "," + ss + "," + typeName + "," + s);
         }
     }
 
-    private static void write(PrintStream printStream, ASN1OctetString oct, StringBuilder tagStack) {
+    private static void write(PrintStream printStream, ASN1OctetString oct, int node, TagStack tagStack) {
+        write(printStream, oct.getClass().getSimpleName(), node, tagStack, oct.getOctets());
+    }
+
+    private static void write(PrintStream printStream, String typeName, int node, TagStack tagStack, byte[] bytes) {
         if ( printStream != null ) {
-            var path = tagStack.toString();
-            var fieldInfo =schema.get(path);
-            String s;
-            byte[] bytes = oct.getOctets();
-            if ( fieldInfo.enumDef!=null ) {
-                s = "(" + getEnumString(bytes, fieldInfo.enumDef) + ")";
-            } else {
-                switch (fieldInfo.builtinType) {
-                    case Integer:
-                        s = bytesIntegerToString(bytes);
-                        break;
-                    default:
-                        s = toStr(bytes);
-                        break;
-                }
+            var fieldInfo = getFieldInfo(node, tagStack);
+            String s = octetsToString(fieldInfo, bytes);
+            printStream.println(schema.path(node) + "," + fieldInfo.label + "," + typeName + "," + s);
+        }
+    }
+
+    /// the value text for an octet string leaf, going by what the schema says it holds
+    private static String octetsToString(AsantiPaths.FieldInfo fieldInfo, byte[] bytes) {
+        if ( fieldInfo.enumDef!=null ) {
+            return "(" + getEnumString(bytes, fieldInfo.enumDef) + ")";
+        } else {
+            switch (fieldInfo.builtinType) {
+                case Integer:
+                    return bytesIntegerToString(bytes);
+                default:
+                    return toStr(bytes);
             }
-            var ss = getSchemaString(path);
-            printStream.println(path + "," + ss + "," + oct.getClass().getSimpleName() + "," + s);
         }
     }
 
-    private static String getEnumString(byte[] bytes, HashMap<Integer, String> enumDef) {
-        int i = (int)bytesToLong(bytes);
-        String en = enumDef.get(i);
+    private static String getEnumString(byte[] bytes, EnumTable enumDef) {
+        String en = enumDef.name((int) BerInteger.toLong(bytes, 0, bytes.length));
         if ( en == null ) {
             // TODO: these do occur - just write the number?
             return bytesIntegerToString(bytes);
         }
         return en;
     }
-    private static long bytesToLong(byte[] bytes) {
-        long l = -1;
-        if (bytes.length == 1) {
-            l = (long) bytes[0];
-        } else {
-            BigInteger bi = new BigInteger(bytes);
-            l = bi.longValue();
-        }
-        return l;
-    }
+
     private static String bytesIntegerToString(byte[] bytes) {
-        if (bytes.length == 1) {
-            return String.valueOf(bytes[0]);
-        } else {
-            BigInteger bi = new BigInteger(bytes);
-            return bi.toString();
-        }
+        return BerInteger.toString(bytes, 0, bytes.length);
     }
 
-    private static void writeBottom(ASN1Primitive obj, ASN1OctetString os, String path) {
+    private static void writeBottom(ASN1Primitive obj, ASN1OctetString os, int node, TagStack tagStack) {
         if (ps!=null) {
             String s = toStr(os.getOctets());
-            ps.println(getSchemaString(path) + " " + s + " " + obj.getClass().getSimpleName());
+            ps.println(getSchemaString(node, tagStack) + " " + s + " " + obj.getClass().getSimpleName());
         }
     }
 
-    private static void handleSet(boolean debugWriteThisOne, int depth, StringBuilder tagStack, ASN1Set set) {
+    private static void handleSet(Metrics.Stripe stats, boolean debugWriteThisOne, int depth, TagStack tagStack, int node, ASN1Set set) {
 
         // TODO: should handle set have the same either array or object or both logic used below in sequence
         ObjectNode onset = om.createObjectNode();
         for (int i = 0, count = set.size(); i < count; ++i) {
-            walk(debugWriteThisOne, depth + 1, tagStack, set.getObjectAt(i).toASN1Primitive());
+            walk(stats, debugWriteThisOne, depth + 1, tagStack, node, set.getObjectAt(i).toASN1Primitive());
         }
     }
 
-    private static void handleSequence(boolean debugWriteThisOne, int depth, StringBuilder tagStack, ASN1Sequence seq) {
+    private static void handleSequence(Metrics.Stripe stats, boolean debugWriteThisOne, int depth, TagStack tagStack, int node, ASN1Sequence seq) {
         for (int i = 0, count = seq.size(); i < count; ++i)
-            walk(debugWriteThisOne, depth + 1, tagStack, seq.getObjectAt(i).toASN1Primitive());
+            walk(stats, debugWriteThisOne, depth + 1, tagStack, node, seq.getObjectAt(i).toASN1Primitive());
     }
 
+    /// Same output as walk() but straight off the record bytes - no ASN1Primitive graph is built.
+    /// The type names written match the classes BouncyCastle would have handed to walk().
+    /// One per thread: it owns its tokenizer, schema position, node count and output streams.
+    static final class RawWalker {
+        static final byte[] DER_OCTET = "DEROctetString".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] BER_OCTET = "BEROctetString".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] INTEGER = "ASN1Integer".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] UTF8 = "DERUTF8String".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] GRAPHIC = "DERGraphicString".getBytes(StandardCharsets.US_ASCII);
+
+        final BerTokenizer tok = new BerTokenizer();
+        /// -o lines for the record being walked, handed to out in one write at the end of it
+        final ByteOut line = new ByteOut(16 * 1024);
+        /// reused for primitive values on their way into line
+        byte[] octets = new byte[256];
+        /// a rendered value on its way into the --columnar file
+        final ByteOut value = new ByteOut(256);
+        final TagStack tagStack = new TagStack();
+        /// schema node of the parent of each open constructed element, and whether it pushed a tag
+        final int[] parents = new int[64];
+        final boolean[] pushed = new boolean[64];
+        int node = CompiledSchema.ROOT;
+        /// the -o stream, may be null
+        PrintStream out;
+        /// --wide values of the record being walked, null otherwise
+        final WideLayout.Row row;
+        int recordNo;
+        /// where R# lines and debug output go
+        PrintStream console;
+        long nodeCount = 0;
+        /// the metrics of the thread that made this walker, the one that uses it
+        final Metrics.Stripe stats = Metrics.local();
+        /// unknown_tags counters by (node, tag), see child()
+        final LongObjectHashMap<Metrics.Counter> unknown = new LongObjectHashMap<>();
+
+        RawWalker(PrintStream out, PrintStream console) {
+            this.out = out;
+            this.console = console;
+            this.row = wide == null ? null : wide.newRow();
+        }
+
+        /// the R# line ahead of a record's -o lines - with --wide the number goes in its row instead
+        void beginRecord(int recordNo) {
+            this.recordNo = recordNo;
+            if (out != null && row == null)
+                out.println("R# " + recordNo);
+        }
+
+        void walk(boolean debugWriteThisOne, ByteBuffer rec) {
+            walk(debugWriteThisOne, rec, rec.position(), rec.limit());
+        }
+
+        void walk(boolean debugWriteThisOne, ByteBuffer buf, int start, int end) {
+            long renderStart = Metrics.Timer.start();
+            long latencyStart = PhaseTrack.recordStart();
+            long nodesBefore = nodeCount;
+            tok.reset(buf, start, end);
+            if (columnar != null)
+                columnar.beginRow(recordNo);
+            int ev;
+            while ((ev = tok.next()) != BerTokenizer.EOF) {
+                switch (ev) {
+                    case BerTokenizer.START: {
+                        nodeCount++;
+                        if (tok.tagClass() == BerTokenizer.UNIVERSAL && tok.tagNo() == 4) {
+                            // segmented OCTET STRING - BouncyCastle glues these into a BEROctetString
+                            byte[] bytes = gatherSegments();
+                            stats.add(LEAVES[AsnBuiltinType.OctetString.ordinal()], 1);
+                            line(BER_OCTET, bytes, bytes.length);
+                            if (debugWriteThisOne)
+                                write(console, "BEROctetString", node, tagStack, bytes);
+                        } else {
+                            int d = tok.depth() - 1;
+                            parents[d] = node;
+                            pushed[d] = tok.isTagged();
+                            if (pushed[d]) {
+                                tagStack.push(tok.tagNo());
+                                node = child(stats, unknown, node, tok.tagNo(), tagStack);
+                            }
+                        }
+                    }
+                    break;
+                    case BerTokenizer.END:
+                        node = parents[tok.depth()];
+                        if (pushed[tok.depth()])
+                            tagStack.pop();
+                        break;
+                    case BerTokenizer.PRIMITIVE: {
+                        nodeCount++;
+                        if (tok.isTagged()) {
+                            int parent = node;
+                            tagStack.push(tok.tagNo());
+                            node = child(stats, unknown, node, tok.tagNo(), tagStack);
+                            stats.add(leaves(node), 1);
+                            writeOctets(debugWriteThisOne);
+                            tagStack.pop();
+                            node = parent;
+                        } else {
+                            stats.add(universalLeaves(tok.tagNo()), 1);
+                            switch (tok.tagNo()) {
+                                case 4:
+                                    writeOctets(debugWriteThisOne);
+                                    break;
+                                case 2: {
+                                    int len = fetchValue();
+                                    integerLine(len);
+                                    if (debugWriteThisOne)
+                                        write(console, "ASN1Integer", node, tagStack, BerInteger.toString(octets, 0, len));
+                                }
+                                break;
+                                case 12: {
+                                    String s = new String(tok.value(), StandardCharsets.UTF_8);
+                                    line(UTF8, s);
+                                    if (debugWriteThisOne)
+                                        write(console, "DERUTF8String", node, tagStack, s);
+                                }
+                                break;
+                                case 25: {
+                                    String s = Strings.fromByteArray(tok.value());
+                                    line(GRAPHIC, s);
+                                    if (debugWriteThisOne)
+                                        write(console, "DERGraphicString", node, tagStack, s);
+                                }
+                                break;
+                                default:
+                                    throw new RuntimeException("unable handled universal type: " + tok.tagNo());
+                            }
+                        }
+                    }
+                    break;
+                }
+            }
+            tagStack.clear();
+            node = CompiledSchema.ROOT;
+            if (out != null && row != null)
+                row.writeTo(line, recordNo);
+            if (columnar != null) {
+                try {
+                    columnar.endRow();
+                } catch (IOException e) {
+                    throw new RuntimeException("unable to write columnar output", e);
+                }
+            }
+            stats.time(RENDER, renderStart);
+            PhaseTrack.recordEnd(PhaseTrack.RENDER, recordNo, latencyStart);
+            if (out != null && line.size() > 0) {
+                long writeStart = Metrics.Timer.start();
+                stats.add(BYTES_OUT, line.size());
+                try {
+                    line.writeTo(out);
+                } catch (IOException e) {
+                    throw new RuntimeException("unable to write output", e);
+                }
+                stats.time(WRITE, writeStart);
+            }
+            stats.add(RECORDS, 1);
+            stats.add(BYTES_IN, end - start);
+            stats.add(NODES, nodeCount - nodesBefore);
+        }
+
+        /// the untagged leaves the walk handles, anything else fails right after
+        private static Metrics.Counter universalLeaves(int tagNo) {
+            switch (tagNo) {
+                case 2:
+                    return LEAVES[AsnBuiltinType.Integer.ordinal()];
+                case 4:
+                    return LEAVES[AsnBuiltinType.OctetString.ordinal()];
+                case 12:
+                    return LEAVES[AsnBuiltinType.Utf8String.ordinal()];
+                case 25:
+                    return LEAVES[AsnBuiltinType.GraphicString.ordinal()];
+                default:
+                    return UNTYPED_LEAVES;
+            }
+        }
+
+        /// same line write() makes, built from the pre-encoded path and label - or with --wide the
+        /// value alone into its column
+        private void line(byte[] typeName, String s) {
+            if (out == null && columnar == null)
+                return;
+            var fieldInfo = getFieldInfo(node, tagStack);
+            if (columnar != null) {
+                int c = columnar.column(node);
+                if (c >= 0) {
+                    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                    columnar.add(c, b, 0, b.length);
+                }
+            }
+            if (out == null)
+                return;
+            if (row == null) {
+                lineStart(typeName, fieldInfo).put(s).newLine();
+            } else {
+                ByteOut slot = row.slot(node);
+                if (slot != null)
+                    slot.put(s);
+            }
+        }
+
+        /// an octet string leaf rendered straight into the line - same text octetsToString() gives
+        private void line(byte[] typeName, byte[] bytes, int len) {
+            if (out == null && columnar == null)
+                return;
+            var fieldInfo = getFieldInfo(node, tagStack);
+            if (columnar != null) {
+                int c = columnar.column(node);
+                if (c >= 0) {
+                    if (columnar.isInt(c) && BerInteger.fitsLong(len)) {
+                        columnar.add(c, BerInteger.toLong(bytes, 0, len));
+                    } else {
+                        value.reset();
+                        renderOctets(value, fieldInfo, bytes, len, false);
+                        columnar.add(c, value.array(), 0, value.size());
+                    }
+                }
+            }
+            if (out == null)
+                return;
+            if (row == null) {
+                renderOctets(lineStart(typeName, fieldInfo), fieldInfo, bytes, len, true).newLine();
+            } else {
+                ByteOut slot = row.slot(node);
+                if (slot != null)
+                    renderOctets(slot, fieldInfo, bytes, len, false);
+            }
+        }
+
+        /// a universal INTEGER, its content already in octets
+        private void integerLine(int len) {
+            if (out == null && columnar == null)
+                return;
+            var fieldInfo = getFieldInfo(node, tagStack);
+            if (columnar != null) {
+                int c = columnar.column(node);
+                if (c >= 0 && columnar.isInt(c) && BerInteger.fitsLong(len)) {
+                    columnar.add(c, BerInteger.toLong(octets, 0, len));
+                } else if (c >= 0) {
+                    value.reset();
+                    BerInteger.render(value, octets, 0, len);
+                    columnar.add(c, value.array(), 0, value.size());
+                }
+            }
+            if (out == null)
+                return;
+            ByteOut to = row == null ? lineStart(INTEGER, fieldInfo) : row.slot(node);
+            if (to != null)
+                BerInteger.render(to, octets, 0, len);
+            if (row == null)
+                line.newLine();
+        }
+
+        /// enum names in brackets on the per value lines, bare in --wide columns
+        private static ByteOut renderOctets(ByteOut to, AsantiPaths.FieldInfo fieldInfo, byte[] bytes, int len, boolean brackets) {
+            if (fieldInfo.enumDef != null) {
+                if (brackets)
+                    to.put((byte) '(');
+                fieldInfo.enumDef.render(to, bytes, 0, len);
+                if (brackets)
+                    to.put((byte) ')');
+            } else if (fieldInfo.builtinType == AsnBuiltinType.Integer) {
+                BerInteger.render(to, bytes, 0, len);
+            } else {
+                ValueText.render(to, bytes, 0, len, cli.hexAlso);
+            }
+            return to;
+        }
+
+        private ByteOut lineStart(byte[] typeName, AsantiPaths.FieldInfo fieldInfo) {
+            return line.put(schema.pathBytes(node)).put((byte) ',').put(fieldInfo.labelBytes).put((byte) ',')
+                    .put(typeName).put((byte) ',');
+        }
+
+        /// copies the current primitive value into octets, returns its length
+        private int fetchValue() {
+            int len = tok.length();
+            if (octets.length < len)
+                octets = new byte[Math.max(len, octets.length * 2)];
+            tok.value(octets);
+            return len;
+        }
+
+        private void writeOctets(boolean debugWriteThisOne) {
+            int len = fetchValue();
+            line(DER_OCTET, octets, len);
+            if (debugWriteThisOne)
+                write(console, "DEROctetString", node, tagStack, Arrays.copyOf(octets, len));
+        }
+
+        private byte[] gatherSegments() {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            int open = tok.depth();
+            while (tok.depth() >= open) {
+                int ev = tok.next();
+                if (ev == BerTokenizer.PRIMITIVE) {
+                    nodeCount++;
+                    bos.writeBytes(tok.value());
+                } else if (ev == BerTokenizer.EOF) {
+                    throw new RuntimeException("truncated segmented OCTET STRING");
+                }
+            }
+            return bos.toByteArray();
+        }
+    }
+
+    /// Raw records copied out of the reader for one worker, and the text the worker made of them.
+    static final class Batch {
+        byte[] data = new byte[64 * 1024];
+        int size = 0;
+        final int[] ends;
+        final int[] recordNos;
+        final boolean[] selected;
+        int count = 0;
+
+        byte[] out;
+        byte[] console;
+        long nodeCount;
+
+        Batch(int capacity) {
+            ends = new int[capacity];
+            recordNos = new int[capacity];
+            selected = new boolean[capacity];
+        }
+
+        void add(ByteBuffer rec, int recordNo, boolean writeThisOne) {
+            int len = rec.remaining();
+            if (size + len > data.length)
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + len));
+            rec.duplicate().get(data, size, len);
+            size += len;
+            ends[count] = size;
+            recordNos[count] = recordNo;
+            selected[count] = writeThisOne;
+            count++;
+        }
+    }
+
+    /// per worker thread walker rendering into memory
+    private static final class PipelineWorker {
+        final ByteArrayOutputStream outBytes = new ByteArrayOutputStream(256 * 1024);
+        final ByteArrayOutputStream consoleBytes = new ByteArrayOutputStream(4 * 1024);
+        final RawWalker walker = new RawWalker(ps != null ? new PrintStream(outBytes) : null, new PrintStream(consoleBytes));
+
+        Batch render(Batch b) {
+            ByteBuffer buf = ByteBuffer.wrap(b.data);
+            int start = 0;
+            for (int i = 0; i < b.count; i++) {
+                if (b.selected[i])
+                    walker.console.println("R# " + b.recordNos[i]);
+                walker.beginRecord(b.recordNos[i]);
+                walker.walk(cli.debug & b.selected[i], buf, start, b.ends[i]);
+                start = b.ends[i];
+            }
+            walker.console.flush();
+            b.console = consoleBytes.toByteArray();
+            consoleBytes.reset();
+            if (walker.out != null) {
+                walker.out.flush();
+                b.out = outBytes.toByteArray();
+                outBytes.reset();
+            }
+            b.nodeCount = walker.nodeCount;
+            walker.nodeCount = 0;
+            b.data = null;
+            return b;
+        }
+    }
+
+    /// Reader thread splitting records into batches, --workers threads walking and rendering them,
+    /// and this thread writing the results in record order - output is the same as the single
+    /// threaded walk.  Returns the number of records read.
+    private static int walkPipelined(RecordSource rr, boolean skipUnselected) throws Exception {
+        int batchSize = Math.max(cli.batchSize, 1);
+        int queueDepth = cli.queueDepth > 0 ? cli.queueDepth : cli.workers * 4;
+        int[] recordNo = new int[1];
+        ThreadLocal<PipelineWorker> workers = ThreadLocal.withInitial(PipelineWorker::new);
+        OrderedPipeline<Batch, Batch> pipeline = new OrderedPipeline<>(cli.workers, queueDepth, "ber");
+        pipeline.run(() -> {
+            Metrics.Stripe stats = Metrics.local();
+            Batch b = new Batch(batchSize);
+            while (b.count < batchSize) {
+                boolean writeThisOne = cli.writeOnly == null || cli.writeOnly.contains(recordNo[0] + 1);
+                if (skipUnselected && !writeThisOne) {
+                    if (rr.skip() < 0)
+                        break;
+                    recordNo[0]++;
+                    continue;
+                }
+                long readStart = Metrics.Timer.start();
+                ByteBuffer rec = rr.next();
+                stats.time(READ, readStart);
+                if (rec == null)
+                    break;
+                recordNo[0]++;
+                b.add(rec, recordNo[0], writeThisOne);
+            }
+            return b.count > 0 ? b : null;
+        }, b -> workers.get().render(b), b -> {
+            long writeStart = Metrics.Timer.start();
+            if (ps != null)
+                ps.write(b.out, 0, b.out.length);
+            System.out.write(b.console, 0, b.console.length);
+            Metrics.local().time(WRITE, writeStart);
+            nodeCount += b.nodeCount;
+        });
+        return recordNo[0];
+    }
+
+    /// Only the -i records, fetched by offset from the index instead of walking the whole file.
+    /// Returns {records, nodes} of the records walked.
+    private static long[] walkIndexed(Path path, RecordIndex index, TagStack tagStack, RawWalker walker, PrintStream console) throws IOException {
+        console.println(path);
+        PhaseTrack.start();
+        Metrics.Stripe stats = Metrics.local();
+        // the object walk counts into the static, it is only ever single threaded
+        long staticBefore = nodeCount;
+        int recs = 0;
+        long len = 0;
+        try (RecordIndex.Reader reader = new RecordIndex.Reader(path, index)) {
+            for (int recordNo : new TreeSet<>(cli.writeOnly)) {
+                if (recordNo < 1 || recordNo > index.count()) {
+                    log.warn("record {} not in {} which has {} records", recordNo, path, index.count());
+                    continue;
+                }
+                ByteBuffer rec = reader.read(recordNo);
+                recs++;
+                len += rec.remaining();
+                console.println("R# " + recordNo);
+                if (cli.raw) {
+                    walker.beginRecord(recordNo);
+                    walker.walk(cli.debug, rec);
+                } else {
+                    walk(stats, cli.debug, 0, tagStack, CompiledSchema.ROOT, Util.readObject(rec));
+                }
+                tagStack.clear();
+            }
+        }
+        console.printf("recs: %d of %d indexed  len: %d\n", recs, index.count(), len);
+        long nodes = walker.nodeCount + (cli.raw ? 0 : nodeCount - staticBefore);
+        walker.nodeCount = 0L;
+        PhaseTrack.recordTimePoint("done");
+        PhaseTrack.logTimes(" indexed lookup", Level.INFO, TimeUnit.MILLISECONDS);
+        return new long[]{recs, nodes};
+    }
+
+    /// Walks one whole file - the -o text goes to out (may be null), R# lines and debug output to console.
+    /// Returns {records, nodes}.
+    private static long[] walkFile(Path path, TagStack tagStack, RawWalker walker, PrintStream out, PrintStream console) throws Exception {
+        if (cli.writeOnly != null && out == null && columnar == null) {
+            try (RecordIndex index = RecordIndex.open(path)) {
+                if (index != null)
+                    return walkIndexed(path, index, tagStack, walker, console);
+            }
+        }
+        int recordNo = 0;
+        long nodes;
+        long staticBefore = nodeCount;
+        // with -i and nothing going to -o the records not asked for are skipped by header only
+        boolean skipUnselected = cli.writeOnly != null && out == null && columnar == null;
+        boolean split = cli.raw || skipUnselected;
+        if (split)
+            console.println(path);
+        try (ASN1InputStream ais = split ? null : new ASN1InputStream(Util.create(path));
+             RecordSource rr = split ? Util.records(path, cli.mmap, null) : null) {
+            PhaseTrack.start();
+            Metrics.Stripe stats = Metrics.local();
+            long len = 0;
+            if (cli.workers > 0)
+                recordNo = walkPipelined(rr, skipUnselected);
+            while (cli.workers == 0 && (split || ais.available() > 0)) {
+                boolean writeThisOne = false;
+                if (cli.writeOnly != null) {
+                    if (cli.writeOnly.contains(recordNo + 1))
+                        writeThisOne = true;
+                } else
+                    writeThisOne = true;
+
+                if (skipUnselected && !writeThisOne) {
+                    if (rr.skip() < 0)
+                        break;
+                    recordNo++;
+                    continue;
+                }
+
+                ByteBuffer rec = null;
+                if (split) {
+                    long readStart = Metrics.Timer.start();
+                    rec = rr.next();
+                    stats.time(READ, readStart);
+                    if (rec == null)
+                        break;
+                }
+                recordNo++;
+
+                if (writeThisOne)
+                    console.println("R# " + recordNo);
+
+                walker.beginRecord(recordNo);
+
+                if (cli.raw) {
+                    walker.walk(cli.debug & writeThisOne, rec);
+                } else {
+                    long parseStart = Metrics.Timer.start();
+                    long latencyStart = PhaseTrack.recordStart();
+                    ASN1Primitive obj = split ? Util.readObject(rec) : ais.readObject();
+                    stats.time(PARSE, parseStart);
+                    PhaseTrack.recordEnd(PhaseTrack.DECODE, recordNo, latencyStart);
+                    long renderStart = Metrics.Timer.start();
+                    latencyStart = PhaseTrack.recordStart();
+                    long nodesBefore = nodeCount;
+                    walk(stats, cli.debug & writeThisOne, 0, tagStack, CompiledSchema.ROOT, obj);
+                    stats.time(RENDER, renderStart);
+                    PhaseTrack.recordEnd(PhaseTrack.RENDER, recordNo, latencyStart);
+                    stats.add(RECORDS, 1);
+                    stats.add(NODES, nodeCount - nodesBefore);
+                    if (rec != null)
+                        stats.add(BYTES_IN, rec.remaining());
+                }
+                tagStack.clear();
+
+                if (writeThisOne) {
+//                    String prettyJson = om.writerWithDefaultPrettyPrinter().writeValueAsString(jo);
+//                    System.out.println("Record no: " + recordNo + "\n" + prettyJson);
+//                    len += prettyJson.length();
+                }
+
+            }
+            console.printf("recs: %d  len: %d\n", recordNo, len);
+            // the object walk and the pipeline count into the static, the raw walker counts for itself
+            nodes = walker.nodeCount;
+            walker.nodeCount = 0L;
+            if (!cli.raw || cli.workers > 0)
+                nodes += nodeCount - staticBefore;
+            long deltaT = PhaseTrack.startToNowNanos();
+            long recRate = (recordNo * 1_000_000_000L) / deltaT;
+            long nodeRate = (nodes * 1_000_000_000L) / deltaT;
+            String msg = String.format(" %s rec rate: %d/s node rate: %d/s", path.getFileName(), recRate, nodeRate);
+            PhaseTrack.recordTimePoint("done");
+            PhaseTrack.logTimes(msg, Level.INFO, TimeUnit.MILLISECONDS);
+        }
+        if (columnar != null)
+            columnar.endFile(recordNo);
+        return new long[]{recordNo, nodes};
+    }
+
+    /// per file outcome of --parallel_files, the text is parked in files until it is this file's turn
+    private static final class FileResult {
+        Path console;
+        Path out;
+        long records;
+        long nodes;
+    }
+
+    /// Several files at once, biggest first, each on its own raw walker.  Results are written in
+    /// command line order: console output to stdout and either one -o file per input or all of
+    /// them appended to -o, so the output does not depend on which file finishes first.
+    private static void walkFilesInParallel() throws Exception {
+        PhaseTrack.start();
+        ExecutorService pool = Executors.newFixedThreadPool(cli.parallelFiles);
+        try {
+            List<Future<FileResult>> results = FileScheduler.submitLargestFirst(pool, cli.files, path -> {
+                FileResult r = new FileResult();
+                r.console = Files.createTempFile("berparse", ".console");
+                r.console.toFile().deleteOnExit();
+                if (cli.outputPath != null) {
+                    if (cli.perFileOutput) {
+                        r.out = cli.outputPath.resolve(path.getFileName().toString() + ".txt");
+                    } else {
+                        Path dir = cli.outputPath.toAbsolutePath().getParent();
+                        r.out = Files.createTempFile(dir, "berparse", ".part");
+                        r.out.toFile().deleteOnExit();
+                    }
+                }
+                try (PrintStream console = new PrintStream(new BufferedOutputStream(Files.newOutputStream(r.console)));
+                     PrintStream out = r.out == null ? null : new PrintStream(new BufferedOutputStream(Files.newOutputStream(r.out)))) {
+                    if (out != null && wide != null && cli.perFileOutput)
+                        out.write(wide.header(), 0, wide.header().length);
+                    long[] counts = walkFile(path, new TagStack(), new RawWalker(out, console), out, console);
+                    r.records = counts[0];
+                    r.nodes = counts[1];
+                }
+                return r;
+            });
+            long recs = 0;
+            long nodes = 0;
+            for (Future<FileResult> f : results) {
+                FileResult r = f.get();
+                Files.copy(r.console, System.out);
+                Files.delete(r.console);
+                if (ps != null) {
+                    ps.flush();
+                    Files.copy(r.out, ps);
+                    Files.delete(r.out);
+                }
+                recs += r.records;
+                nodes += r.nodes;
+            }
+            System.out.flush();
+            long deltaT = PhaseTrack.startToNowNanos();
+            String msg = String.format(" all %d files rec rate: %d/s node rate: %d/s", cli.files.length,
+                    (recs * 1_000_000_000L) / deltaT, (nodes * 1_000_000_000L) / deltaT);
+            PhaseTrack.recordTimePoint("done");
+            PhaseTrack.logTimes(msg, Level.INFO, TimeUnit.MILLISECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
     public static void main(String[] args) {
         cli = new Cli();
@@ -232,65 +993,75 @@ public class BerParseWithSchema {
                 cl.usage(System.err);
                 return;
             }
+            if (cli.gzipThreads > 0)
+                ParallelGzipInputStream.setThreads(cli.gzipThreads);
+            if (cli.readAhead > 0)
+                ReadAheadChannel.setRing(cli.readAhead, cli.readAheadMb << 20);
+            if (cli.latency)
+                PhaseTrack.recordTiming(true, cli.slowest);
+            if (cli.metricsInterval > 0 || cli.metricsFile != null)
+                Metrics.report(cli.metricsInterval, cli.metricsFile);
+            if (cli.progressFile != null && cli.progress <= 0)
+                throw new RuntimeException("--progress_file goes with --progress");
+            if (cli.parallelFiles > 1 && cli.workers > 0)
+                throw new RuntimeException("use either --parallel_files or --workers, not both");
+            if (cli.perFileOutput && (cli.parallelFiles < 2 || cli.outputPath == null))
+                throw new RuntimeException("--per_file_output needs --parallel_files and -o as a directory");
+            if (cli.tsv && !cli.wide)
+                throw new RuntimeException("--tsv goes with --wide");
+            if (cli.columns != null && !cli.wide && cli.columnarPath == null)
+                throw new RuntimeException("--columns goes with --wide or --columnar");
+            if (cli.columnarPath != null && (cli.workers > 0 || cli.parallelFiles > 1))
+                throw new RuntimeException("--columnar writes one file in record order, it cannot be used with --workers or --parallel_files");
+            if (cli.wide && cli.outputPath == null)
+                throw new RuntimeException("--wide needs -o");
+            if (cli.mmap || cli.workers > 0 || cli.parallelFiles > 1 || cli.wide || cli.columnarPath != null)
+                cli.raw = true;
         } catch (Exception e) {
             System.err.println("cli related exception: " + e);
             return;
         }
 //        for (int i = 0; i < 3; i++)
         try {
-            schema = AsantiPaths.createParsingSchema(cli.asnSchemaFile, cli.asnTopName);
+            schema = AsantiPaths.compileParsingSchema(cli.asnSchemaFile, cli.asnTopName, cli.noSchemaCache ? null : cli.schemaCache);
+            if (cli.wide || cli.columnarPath != null) {
+                WideLayout layout = new WideLayout(schema, cli.columns, cli.tsv);
+                if (cli.wide)
+                    wide = layout;
+                if (cli.columnarPath != null)
+                    columnar = new ColumnarWriter(cli.columnarPath, layout, schema, cli.rowGroup);
+            }
 
-            if ( cli.outputPath!=null)
+            if (cli.perFileOutput)
+                Files.createDirectories(cli.outputPath);
+            else if ( cli.outputPath!=null)
                 ps = new PrintStream(new BufferedOutputStream(Files.newOutputStream(cli.outputPath)));
-            StringBuilder tagStack = new StringBuilder(16);
-            for (var path : cli.files) {
-                int recordNo = 0;
-                try (ASN1InputStream ais = new ASN1InputStream(Util.create(path))) {
-                    PhaseTrack.start();
-                    long len = 0;
-                    while (ais.available() > 0) {
-                        recordNo++;
-                        boolean writeThisOne = false;
-                        if (cli.writeOnly != null) {
-                            if (cli.writeOnly.contains(recordNo))
-                                writeThisOne = true;
-                        } else
-                            writeThisOne = true;
-
-                        if (writeThisOne)
-                            System.out.println("R# " + recordNo);
-
-                        if ( ps!=null)
-                            ps.println("R# " + recordNo);
-
-                        ASN1Primitive obj = ais.readObject();
-
-
-                        walk(cli.debug & writeThisOne, 0, tagStack, obj);
-                        tagStack.setLength(0);
-
-                        if (writeThisOne) {
-//                            String prettyJson = om.writerWithDefaultPrettyPrinter().writeValueAsString(jo);
-//                            System.out.println("Record no: " + recordNo + "\n" + prettyJson);
-//                            len += prettyJson.length();
-                        }
-
-                    }
-                    System.out.printf("recs: %d  len: %d\n", recordNo, len);
-                    long deltaT = PhaseTrack.startToNowNanos();
-                    long recRate = (recordNo * 1_000_000_000L) / deltaT;
-                    long nodeRate = (nodeCount * 1_000_000_000L) / deltaT;
-                    nodeCount = 0L;
-                    String msg = String.format(" rec rate: %d/s node rate: %d/s", recRate, nodeRate);
-                    PhaseTrack.recordTimePoint("done");
-                    PhaseTrack.logTimes(msg, Level.INFO, TimeUnit.MILLISECONDS);
-                }
+            if (ps != null && wide != null)
+                ps.write(wide.header(), 0, wide.header().length);
+            if (cli.progress > 0)
+                Progress.start(cli.files, RECORDS, cli.progress, cli.progressFile);
+            if (cli.parallelFiles > 1) {
+                walkFilesInParallel();
+            } else {
+                TagStack tagStack = new TagStack();
+                RawWalker walker = new RawWalker(ps, System.out);
+                for (var path : cli.files)
+                    walkFile(path, tagStack, walker, ps, System.out);
+            }
+            if (ps != null)
+                ps.close();
+            if (columnar != null) {
+                columnar.close();
+                System.out.printf("columnar: %d records  %d bytes to %s\n", columnar.rows(), columnar.bytes(), columnar.path());
             }
         } catch (Exception e) {
             e.printStackTrace();
+            // a half written columnar file has no footer, nothing can read it
+            if (columnar != null)
+                columnar.abort();
         }
-
+        Progress.close();
+        Metrics.close();
     }
 
 }
-
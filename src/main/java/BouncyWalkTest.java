@@ -1,6 +1,7 @@
 import com.google.common.base.Stopwatch;
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1Primitive;
+import util.ReadAheadChannel;
 import util.Util;
 
 import java.nio.file.Paths;
@@ -13,6 +14,7 @@ public class BouncyWalkTest {
     }
 
     public static void main(String[] args) {
+        args = ReadAheadChannel.fromArgs(args);
         for (int j = 0; j < 10; j++) {
 
             try {
@@ -0,0 +1,153 @@
+import asanti.ColumnarReader;
+import asanti.WideLayout;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.event.Level;
+import picocli.CommandLine;
+import util.ByteOut;
+import util.PhaseTrack;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/// Reads columnar files written by BerParseWithSchema --columnar.  Only the chunks of the
+/// columns asked for are read, and how many bytes that came to is logged against the file size.
+@Slf4j
+public class ColumnarScan {
+    public static class Cli {
+
+        @CommandLine.Option(names = {"-f", "--files_to_scan"}, arity = "1..*", required = true,
+                description = "columnar files to read")
+        Path[] files;
+
+        @CommandLine.Option(names = {"-c", "--columns"}, arity = "1..*", split = ",",
+                description = "columns to read by field name path or tag path, all of them when not given - the record number always comes first")
+        List<String> columns;
+
+        @CommandLine.Option(names = {"--tsv"}, defaultValue = "false",
+                description = "separate columns with tabs instead of commas")
+        boolean tsv;
+
+        @CommandLine.Option(names = {"--count_only"}, defaultValue = "false",
+                description = "just read the columns and print how many rows have a value in each")
+        boolean countOnly;
+
+        @CommandLine.Option(names = {"--list"}, defaultValue = "false",
+                description = "print the columns in the file and stop")
+        boolean list;
+
+        @CommandLine.Option(names = {"-h",
+                "--help"}, usageHelp = true, description = "display this help message")
+        boolean usageHelpRequested;
+    }
+
+    static Cli cli = null;
+
+    public static void main(String[] args) {
+        cli = new Cli();
+        try {
+            CommandLine cl = new CommandLine(cli);
+            cl.parseArgs(args);
+            if (cli.usageHelpRequested) {
+                cl.usage(System.err);
+                return;
+            }
+        } catch (Exception e) {
+            System.err.println("cli related exception: " + e);
+            return;
+        }
+
+        try (OutputStream os = new BufferedOutputStream(System.out, 1 << 16)) {
+            for (Path path : cli.files)
+                scan(path, os);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void scan(Path path, OutputStream os) throws IOException {
+        PhaseTrack.start();
+        try (ColumnarReader r = new ColumnarReader(path)) {
+            if (cli.list) {
+                for (int c = 0; c < r.columns(); c++)
+                    System.out.println(r.name(c) + "," + r.tagPath(c) + "," + (r.isInt(c) ? "int" : "text"));
+                return;
+            }
+            int[] cols;
+            if (cli.columns == null) {
+                cols = new int[r.columns()];
+                for (int c = 0; c < cols.length; c++)
+                    cols[c] = c;
+            } else {
+                cols = new int[cli.columns.size() + 1];
+                for (int i = 0; i < cli.columns.size(); i++) {
+                    cols[i + 1] = r.column(cli.columns.get(i));
+                    if (cols[i + 1] <= 0)
+                        throw new RuntimeException("no column " + cli.columns.get(i) + " in " + path);
+                }
+            }
+
+            byte sep = cli.tsv ? (byte) '\t' : (byte) ',';
+            ByteOut line = new ByteOut(64 * 1024);
+            long[] present = new long[cols.length];
+            if (!cli.countOnly) {
+                for (int i = 0; i < cols.length; i++) {
+                    if (i > 0)
+                        line.put(sep);
+                    byte[] name = r.name(cols[i]).getBytes(StandardCharsets.UTF_8);
+                    WideLayout.escape(line, sep, name, 0, name.length);
+                }
+                line.newLine();
+            }
+            ByteOut value = new ByteOut(256);
+            ColumnarReader.Chunk[] chunks = new ColumnarReader.Chunk[cols.length];
+            for (int g = 0; g < r.rowGroups(); g++) {
+                for (int i = 0; i < cols.length; i++)
+                    chunks[i] = r.read(g, cols[i]);
+                for (int row = 0; row < r.rows(g); row++) {
+                    for (int i = 0; i < cols.length; i++) {
+                        ColumnarReader.Chunk ch = chunks[i];
+                        if (ch.present(row))
+                            present[i]++;
+                        if (cli.countOnly)
+                            continue;
+                        if (i > 0)
+                            line.put(sep);
+                        value.reset();
+                        int first = ch.first(row);
+                        int end = first + ch.count(row);
+                        for (int v = first; v < end; v++) {
+                            if (v > first)
+                                value.put(WideLayout.JOIN);
+                            int from = value.size();
+                            ch.render(value, v);
+                            WideLayout.escapeJoined(value, from);
+                        }
+                        WideLayout.escape(line, sep, value.array(), 0, value.size());
+                    }
+                    if (!cli.countOnly) {
+                        line.newLine();
+                        if (line.size() > 48 * 1024)
+                            line.writeTo(os);
+                    }
+                }
+            }
+            line.writeTo(os);
+            os.flush();
+            if (cli.countOnly) {
+                for (int i = 0; i < cols.length; i++)
+                    System.out.printf("%s: %d of %d rows\n", r.name(cols[i]), present[i], r.rows());
+            }
+            long deltaT = PhaseTrack.startToNowNanos();
+            String msg = String.format(" %s rows: %d read %d of %d bytes (%.1f%%) row rate: %d/s", path.getFileName(),
+                    r.rows(), r.bytesRead(), r.size(), 100.0 * r.bytesRead() / Math.max(r.size(), 1),
+                    (r.rows() * 1_000_000_000L) / Math.max(deltaT, 1L));
+            PhaseTrack.recordTimePoint("done");
+            PhaseTrack.logTimes(msg, Level.INFO, TimeUnit.MILLISECONDS);
+        }
+    }
+}
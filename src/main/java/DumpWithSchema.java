@@ -2,6 +2,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1Primitive;
+import util.ReadAheadChannel;
 import util.Util;
 
 import java.nio.file.Paths;
@@ -12,13 +13,14 @@ public class DumpWithSchema {
 
     public static void usage(String msg) {
         System.err.println("Command line error: " + msg);
-        System.err.println("Usage: java class asn_schema_file top_type_name ber_data_file\";");
+        System.err.println("Usage: java class [--read_ahead n] [--read_ahead_mb n] asn_schema_file top_type_name ber_data_file\";");
 
         System.exit(10);
     }
 
     public static void main(String[] args) {
         try {
+            args = ReadAheadChannel.fromArgs(args);
             if (args.length != 3) {
                 usage("missing argument - only have " + args.length);
             }
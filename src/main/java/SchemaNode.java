@@ -1,21 +1,44 @@
+import asanti.EnumTable;
 import com.brightsparklabs.asanti.schema.AsnBuiltinType;
 
+import org.eclipse.collections.api.map.primitive.IntObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import util.SchemaCache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 
+/// Children are an int keyed primitive map so decode lookups do not box.  Once the tree is built
+/// freeze() swaps it for an immutable copy, gives nodes whose tags are small a dense array of
+/// children indexed by tag and compiles the enum names into an EnumTable.
 public class SchemaNode {
 
+    /// nodes whose child tags are all below this get a dense array
+    static final int DENSE_LIMIT = 256;
+
     protected AsnBuiltinType primAsnBuiltinType;
     protected String fieldName;
     protected boolean bottom;
     protected int tagged;
-    protected HashMap<Integer, String> enumDef = null;
-    protected HashMap<Integer, SchemaNode> children;
-    protected HashMap<String, SchemaNode> auditChild;
+    /// built by freeze() from what addEnum() collected
+    protected EnumTable enumDef = null;
+    protected EnumTable.Builder enumBuilder = null;
+    protected IntObjectMap<SchemaNode> children;
+    protected SchemaNode[] denseChildren = null;
+    protected boolean frozen = false;
+    /// members by name in declaration order, and under "" whichever was added last
+    protected LinkedHashMap<String, SchemaNode> auditChild;
     protected ArrayList<SchemaNode> choices;
     protected SchemaNode parent;
     protected boolean optional;
+    /// SEQUENCE OF and SET OF only: the type of each entry, whose members are this node's children
+    protected AsnBuiltinType elementType;
 
 
     SchemaNode(AsnBuiltinType primAsnBuiltinType, boolean bottom, int tagged, SchemaNode parent) {
@@ -24,9 +47,9 @@ public class SchemaNode {
         this.tagged = tagged;
         this.parent = parent;
         this.optional = false;
-        children = new HashMap<>();
+        children = new IntObjectHashMap<>();
         this.fieldName = "";
-        auditChild = new HashMap<>();
+        auditChild = new LinkedHashMap<>();
         choices = new ArrayList<>();
     }
 
@@ -39,10 +62,59 @@ public class SchemaNode {
     }
 
     public void addTaggedChild(int tagged, SchemaNode node) {
+        if (frozen)
+            throw new RuntimeException("schema node " + fieldName + " is frozen, cannot add child: " + node.fieldName);
         if (children.containsKey(tagged))
             System.out.println("duplicate tagged child skipped: " + tagged + " named: " + node.fieldName);
         else
-            children.put(tagged, node);
+            ((MutableIntObjectMap<SchemaNode>) children).put(tagged, node);
+    }
+
+    public void addEnum(int value, String name) {
+        if (frozen)
+            throw new RuntimeException("schema node " + fieldName + " is frozen, cannot add enum: " + name);
+        if (enumBuilder == null)
+            enumBuilder = new EnumTable.Builder();
+        enumBuilder.put(value, name);
+    }
+
+    /// tagged child or null
+    public SchemaNode child(int tag) {
+        if (denseChildren != null)
+            return tag >= 0 && tag < denseChildren.length ? denseChildren[tag] : null;
+        return children.get(tag);
+    }
+
+    /// name for an enum value, null if there is none - only once frozen
+    public String enumName(int value) {
+        return enumDef == null ? null : enumDef.name(value);
+    }
+
+    /// enumName() pre-encoded as UTF-8
+    public byte[] enumNameBytes(int value) {
+        return enumDef == null ? null : enumDef.nameBytes(value);
+    }
+
+    /// Make this node and everything under it immutable and compact - call once the schema is loaded.
+    public SchemaNode freeze() {
+        if (frozen)
+            return this;
+        frozen = true;
+        children.forEachValue(SchemaNode::freeze);
+        choices.forEach(SchemaNode::freeze);
+        if (!children.isEmpty()) {
+            int max = children.keysView().max();
+            if (children.keysView().min() >= 0 && max < DENSE_LIMIT) {
+                denseChildren = new SchemaNode[max + 1];
+                children.forEachKeyValue((tag, node) -> denseChildren[tag] = node);
+            }
+        }
+        children = children.toImmutable();
+        if (enumBuilder != null) {
+            enumDef = enumBuilder.build();
+            enumBuilder = null;
+        }
+        return this;
     }
 
     public void auditTheseChildren() {
@@ -50,9 +122,9 @@ public class SchemaNode {
             if (!children.containsKey(e.getValue().tagged))
                 throw new RuntimeException("audit child field: " + e.getValue().fieldName + " not in map by tag list");
         }
-        for (var e : children.entrySet()) {
-            if (!auditChild.containsKey(e.getValue().fieldName))
-                throw new RuntimeException("tag/mapped child field: " + e.getValue().fieldName + " not in map by tag list");
+        for (var e : children) {
+            if (!auditChild.containsKey(e.fieldName))
+                throw new RuntimeException("tag/mapped child field: " + e.fieldName + " not in map by tag list");
         }
     }
 
@@ -64,7 +136,7 @@ public class SchemaNode {
         SchemaNode next = here;
         for (int i = 0; i < path.length; i++) {
             int tag = path[i];
-            next = next.children.get(tag);
+            next = next.child(tag);
             if ( next == null )
                 throw new RuntimeException("Cannot find path: " + Arrays.toString(path) + " at " + i);
         }
@@ -88,4 +160,95 @@ public class SchemaNode {
         }
         return here;
     }
+
+    /// Frozen trees for SchemaCache.  A node is written with its enum names and then its children:
+    /// each distinct child once, subtree and all, followed by which of them are tagged, choices and
+    /// audit entries.  Reading rebuilds the same maps and lists and freezes the result.
+    static final SchemaCache.Codec<SchemaNode> CODEC = new SchemaCache.Codec<>() {
+        @Override
+        public String kind() {
+            return "nodes";
+        }
+
+        @Override
+        public int version() {
+            return 2;
+        }
+
+        @Override
+        public Class<?>[] builders() {
+            return new Class<?>[]{AsantiSchemaExperiment.class, SchemaNode.class, EnumTable.class};
+        }
+
+        @Override
+        public void write(SchemaNode node, DataOutputStream out) throws IOException {
+            out.writeUTF(node.primAsnBuiltinType == null ? "" : node.primAsnBuiltinType.name());
+            out.writeUTF(node.fieldName);
+            out.writeBoolean(node.bottom);
+            out.writeInt(node.tagged);
+            out.writeBoolean(node.optional);
+            out.writeUTF(node.elementType == null ? "" : node.elementType.name());
+            EnumTable enums = node.enumDef != null ? node.enumDef : EnumTable.EMPTY;
+            out.writeInt(enums.size());
+            for (int value : enums.values()) {
+                out.writeInt(value);
+                out.writeUTF(enums.name(value));
+            }
+
+            IdentityHashMap<SchemaNode, Integer> ids = new IdentityHashMap<>();
+            ArrayList<SchemaNode> kids = new ArrayList<>();
+            for (SchemaNode c : node.choices)
+                ids.computeIfAbsent(c, k -> { kids.add(k); return kids.size() - 1; });
+            for (SchemaNode c : node.children.values())
+                ids.computeIfAbsent(c, k -> { kids.add(k); return kids.size() - 1; });
+            for (SchemaNode c : node.auditChild.values())
+                ids.computeIfAbsent(c, k -> { kids.add(k); return kids.size() - 1; });
+            out.writeInt(kids.size());
+            for (SchemaNode c : kids)
+                write(c, out);
+            out.writeInt(node.children.size());
+            for (var e : node.children.keyValuesView()) {
+                out.writeInt(e.getOne());
+                out.writeInt(ids.get(e.getTwo()));
+            }
+            out.writeInt(node.choices.size());
+            for (SchemaNode c : node.choices)
+                out.writeInt(ids.get(c));
+            out.writeInt(node.auditChild.size());
+            for (var e : node.auditChild.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(ids.get(e.getValue()));
+            }
+        }
+
+        @Override
+        public SchemaNode read(DataInputStream in) throws IOException {
+            return read(in, null).freeze();
+        }
+
+        private SchemaNode read(DataInputStream in, SchemaNode parent) throws IOException {
+            String type = in.readUTF();
+            SchemaNode node = new SchemaNode(type.isEmpty() ? null : AsnBuiltinType.valueOf(type), false, -1, parent);
+            node.fieldName = in.readUTF();
+            node.bottom = in.readBoolean();
+            node.tagged = in.readInt();
+            node.optional = in.readBoolean();
+            String element = in.readUTF();
+            node.elementType = element.isEmpty() ? null : AsnBuiltinType.valueOf(element);
+            for (int i = in.readInt(); i > 0; i--)
+                node.addEnum(in.readInt(), in.readUTF());
+
+            SchemaNode[] kids = new SchemaNode[in.readInt()];
+            for (int i = 0; i < kids.length; i++)
+                kids[i] = read(in, node);
+            MutableIntObjectMap<SchemaNode> children = (MutableIntObjectMap<SchemaNode>) node.children;
+            for (int i = in.readInt(); i > 0; i--)
+                children.put(in.readInt(), kids[in.readInt()]);
+            for (int i = in.readInt(); i > 0; i--)
+                node.choices.add(kids[in.readInt()]);
+            for (int i = in.readInt(); i > 0; i--)
+                node.auditChild.put(in.readUTF(), kids[in.readInt()]);
+            return node;
+        }
+    };
 }
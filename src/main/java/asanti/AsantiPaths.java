@@ -10,12 +10,18 @@ import com.brightsparklabs.asanti.schema.AsnBuiltinType;
 import com.google.common.base.Charsets;
 import com.google.common.io.CharSource;
 import com.google.common.io.Files;
+import util.SchemaCache;
 import util.TagStack;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.Optional;
 
@@ -24,56 +30,61 @@ import static util.Util.isEmpty;
 public class AsantiPaths {
 
     public static class FieldInfo {
+        /// null when the field was loaded from the schema cache
         public final AsnSchemaType asantiType;
         public final AsnBuiltinType builtinType;
 
         public final String fieldName;
         public final FieldInfo parent;
-        public final HashMap<Integer, String> enumDef;
+        /// value names for Integer and Enumerated fields, null for everything else
+        public final EnumTable enumDef;
+        /// "/top/child/field" names down from the schema top, built once here instead of per toString()
+        public final String namePath;
+        /// namePath + "," + builtinType - what gets written for every value of this field
+        public final String label;
+        public final byte[] labelBytes;
 
         public FieldInfo(FieldInfo parent, AsnBuiltinType builtinType, String fieldName, AsnSchemaType type) {
+            this(parent, builtinType, fieldName, type, namedValues(builtinType, type));
+        }
+
+        /// type is null for fields loaded back from the schema cache
+        private FieldInfo(FieldInfo parent, AsnBuiltinType builtinType, String fieldName, AsnSchemaType type, EnumTable enumDef) {
             this.parent = parent;
             this.builtinType = builtinType;
             this.fieldName = fieldName;
             this.asantiType = type;
+            this.enumDef = enumDef;
+            // parents are always built first so theirs is already there
+            this.namePath = (parent == null ? "" : parent.namePath) + "/" + fieldName;
+            this.label = namePath + "," + builtinType.toString();
+            this.labelBytes = label.getBytes(StandardCharsets.UTF_8);
+        }
 
+        private static EnumTable namedValues(AsnBuiltinType builtinType, AsnSchemaType type) {
             switch(builtinType) {
                 case Integer:
                 case Enumerated:
-                     enumDef = new HashMap<>();
+                    var defs = new EnumTable.Builder();
                     if ( type instanceof AsnSchemaTypePlaceholder) {
                         var holder = (AsnSchemaTypePlaceholder)type;
                         if ( holder.getIndirectType() instanceof AsnSchemaTypeWithNamedTags) {
                             AsnSchemaTypeWithNamedTags tags = (AsnSchemaTypeWithNamedTags) holder.getIndirectType();
                             for (var e : tags.getTagsToNamedValues().values()) {
-                                enumDef.put(Integer.parseInt(e.getTag()), e.getTagName());
+                                defs.put(Integer.parseInt(e.getTag()), e.getTagName());
                             }
                         }
                     }
-                    break;
+                    return defs.build();
                 default:
-                    enumDef = null;
                     // do nothing yet
-                    break;
+                    return null;
             }
-
         }
 
-
         @Override
         public String toString() {
-            FieldInfo pfi = this.parent;
-            ArrayList<FieldInfo> lineage = new ArrayList<>();
-            while( pfi != null ) {
-                lineage.add(pfi);
-                pfi = pfi.parent;
-            }
-            String parentPath = "";
-            for (int i = lineage.size()-1; i >= 0; i--) {
-                parentPath += "/" + lineage.get(i).fieldName;
-            }
-//            StringBuilder parent = new StringBuilder(32);
-            return parentPath + "/" + fieldName + "," + builtinType.toString();
+            return label;
         }
     }
     private static AsnSchemaTypeWithNamedTags getEnumMap(AsnSchemaTypePlaceholder holder) {
@@ -87,6 +98,13 @@ public class AsantiPaths {
     }
 
 
+    /// createParsingSchema, loaded from the compiled schema cache in cacheDir when it is there -
+    /// a null cacheDir always parses the schema
+    public static LinkedHashMap<String, FieldInfo> createParsingSchema(Path schemaPath, String topFieldName, Path cacheDir) {
+        return SchemaCache.load(cacheDir, schemaPath, topFieldName, CODEC,
+                () -> createParsingSchema(schemaPath, topFieldName));
+    }
+
     public static LinkedHashMap<String, FieldInfo> createParsingSchema(Path schemaPath, String topFieldName) {
         try {
             final CharSource charSource = Files.asCharSource(schemaPath.toFile(), Charsets.UTF_8);
@@ -110,6 +128,118 @@ public class AsantiPaths {
         }
     }
 
+    /// createParsingSchema compiled into the int keyed trie used by the hot decode loops
+    public static CompiledSchema compileParsingSchema(Path schemaPath, String topFieldName) {
+        return CompiledSchema.compile(createParsingSchema(schemaPath, topFieldName));
+    }
+
+    public static CompiledSchema compileParsingSchema(Path schemaPath, String topFieldName, Path cacheDir) {
+        return CompiledSchema.compile(createParsingSchema(schemaPath, topFieldName, cacheDir));
+    }
+
+    /// The tag path map for SchemaCache.  Distinct enum tables are written first, then each field
+    /// once, parents ahead of their children, then the map entries refer to fields by number - a
+    /// parent need not be a map value itself, an untagged CHOICE member replaces its parent's entry
+    /// under the same path.  Loaded fields share one EnumTable per distinct set of names.
+    static final SchemaCache.Codec<LinkedHashMap<String, FieldInfo>> CODEC = new SchemaCache.Codec<>() {
+        @Override
+        public String kind() {
+            return "paths";
+        }
+
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public Class<?>[] builders() {
+            return new Class<?>[]{AsantiPaths.class, FieldInfo.class, EnumTable.class};
+        }
+
+        @Override
+        public void write(LinkedHashMap<String, FieldInfo> map, DataOutputStream out) throws IOException {
+            IdentityHashMap<FieldInfo, Integer> ids = new IdentityHashMap<>();
+            ArrayList<FieldInfo> fields = new ArrayList<>();
+            for (FieldInfo fi : map.values())
+                number(fi, ids, fields);
+
+            // fields of one named type each have their own copy of its values, keep one of each
+            HashMap<String, Integer> tableIds = new HashMap<>();
+            ArrayList<EnumTable> tables = new ArrayList<>();
+            int[] tableOf = new int[fields.size()];
+            for (int i = 0; i < fields.size(); i++) {
+                EnumTable t = fields.get(i).enumDef;
+                if (t == null) {
+                    tableOf[i] = -1;
+                    continue;
+                }
+                StringBuilder key = new StringBuilder();
+                for (int value : t.values())
+                    key.append(value).append('=').append(t.name(value)).append('\0');
+                tableOf[i] = tableIds.computeIfAbsent(key.toString(), k -> {
+                    tables.add(t);
+                    return tables.size() - 1;
+                });
+            }
+            out.writeInt(tables.size());
+            for (EnumTable t : tables) {
+                out.writeInt(t.size());
+                for (int value : t.values()) {
+                    out.writeInt(value);
+                    out.writeUTF(t.name(value));
+                }
+            }
+
+            out.writeInt(fields.size());
+            for (int i = 0; i < fields.size(); i++) {
+                FieldInfo fi = fields.get(i);
+                out.writeInt(fi.parent == null ? -1 : ids.get(fi.parent));
+                out.writeUTF(fi.builtinType.name());
+                out.writeUTF(fi.fieldName);
+                out.writeInt(tableOf[i]);
+            }
+            out.writeInt(map.size());
+            for (var e : map.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(ids.get(e.getValue()));
+            }
+        }
+
+        private void number(FieldInfo fi, IdentityHashMap<FieldInfo, Integer> ids, ArrayList<FieldInfo> fields) {
+            if (fi == null || ids.containsKey(fi))
+                return;
+            number(fi.parent, ids, fields);
+            ids.put(fi, fields.size());
+            fields.add(fi);
+        }
+
+        @Override
+        public LinkedHashMap<String, FieldInfo> read(DataInputStream in) throws IOException {
+            EnumTable[] tables = new EnumTable[in.readInt()];
+            for (int i = 0; i < tables.length; i++) {
+                var defs = new EnumTable.Builder();
+                for (int j = in.readInt(); j > 0; j--)
+                    defs.put(in.readInt(), in.readUTF());
+                tables[i] = defs.build();
+            }
+            FieldInfo[] fields = new FieldInfo[in.readInt()];
+            for (int i = 0; i < fields.length; i++) {
+                int parent = in.readInt();
+                AsnBuiltinType type = AsnBuiltinType.valueOf(in.readUTF());
+                String name = in.readUTF();
+                int table = in.readInt();
+                fields[i] = new FieldInfo(parent < 0 ? null : fields[parent], type, name, null,
+                        table < 0 ? null : tables[table]);
+            }
+            int entries = in.readInt();
+            LinkedHashMap<String, FieldInfo> map = new LinkedHashMap<>();
+            for (int i = 0; i < entries; i++)
+                map.put(in.readUTF(), fields[in.readInt()]);
+            return map;
+        }
+    };
+
     private static void walk(AsnSchemaType type, TagStack tagStack, String fieldName, FieldInfo parent, LinkedHashMap<String, FieldInfo> map, boolean b, int depth) {
         var t = type.getBuiltinType();
         FieldInfo fieldInfo = null;
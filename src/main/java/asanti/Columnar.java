@@ -0,0 +1,85 @@
+package asanti;
+
+import util.ByteOut;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/// Layout of the columnar CDR files ColumnarWriter makes and ColumnarReader scans.
+///
+///   file:      MAGIC, row group*, footer, footer offset (8 bytes big endian), MAGIC
+///   row group: one chunk per column, back to back
+///   chunk:     encoding byte - then for anything but EMPTY:
+///              presence bitmap, a bit per row, low bit first
+///              flags byte - REPEATS when some row has more than one value
+///              with REPEATS a varint value count per present row
+///              the values, as the encoding says
+///   footer:    varint column count, per column name, tag path (varint length + UTF-8) and kind byte
+///              varint row group count, per group varint rows and per column varint offset and length
+///
+/// Values: INT_DELTA is zigzag varints of the difference from the previous value in the chunk,
+/// DICT a varint entry count, the entries (varint length + bytes) and a varint index per value,
+/// PLAIN varint length + bytes per value.  Which one is picked per chunk, so an integer column
+/// holding a value too wide for a long just gets a PLAIN chunk of decimal text.
+final class Columnar {
+
+    static final byte[] MAGIC = "CDRCOL1\n".getBytes(StandardCharsets.US_ASCII);
+
+    /// column kinds
+    static final byte KIND_INT = 1;
+    static final byte KIND_TEXT = 2;
+
+    /// chunk encodings
+    static final byte EMPTY = 0;
+    static final byte INT_DELTA = 1;
+    static final byte DICT = 2;
+    static final byte PLAIN = 3;
+
+    static final int REPEATS = 1;
+
+    private Columnar() {
+    }
+
+    static void putVarint(ByteOut out, long v) {
+        while ((v & ~0x7fL) != 0) {
+            out.put((byte) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static long getVarint(ByteBuffer buf) {
+        long v = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buf.get();
+            v |= (long) (b & 0x7f) << shift;
+            if (b >= 0)
+                return v;
+            shift += 7;
+            if (shift > 63)
+                throw new RuntimeException("varint too long at " + buf.position());
+        }
+    }
+
+    static void putString(ByteOut out, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        putVarint(out, b.length);
+        out.put(b);
+    }
+
+    static String getString(ByteBuffer buf) {
+        int len = (int) getVarint(buf);
+        byte[] b = new byte[len];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,252 @@
+package asanti;
+
+import util.ByteOut;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/// Reads the columnar files ColumnarWriter makes.  Opening reads the footer only, and read()
+/// fetches exactly one column chunk of one row group - a scan over a few columns never touches
+/// the bytes of the others.  bytesRead() says how much was actually read.
+public final class ColumnarReader implements Closeable {
+
+    private final Path path;
+    private final FileChannel channel;
+    private final String[] names;
+    private final String[] tagPaths;
+    private final byte[] kinds;
+    /// per row group: rows, then offset and length of each column's chunk
+    private final long[][] groups;
+    private long bytesRead = 0;
+
+    public ColumnarReader(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            int tail = 8 + Columnar.MAGIC.length;
+            long size = channel.size();
+            if (size < Columnar.MAGIC.length + tail)
+                throw new RuntimeException("too short for a columnar file: " + path);
+            ByteBuffer end = fetch(size - tail, tail);
+            long footerAt = end.getLong();
+            checkMagic(end, path);
+            checkMagic(fetch(0, Columnar.MAGIC.length), path);
+
+            ByteBuffer f = fetch(footerAt, (int) (size - tail - footerAt));
+            int columns = (int) Columnar.getVarint(f);
+            names = new String[columns];
+            tagPaths = new String[columns];
+            kinds = new byte[columns];
+            for (int c = 0; c < columns; c++) {
+                names[c] = Columnar.getString(f);
+                tagPaths[c] = Columnar.getString(f);
+                kinds[c] = f.get();
+            }
+            groups = new long[(int) Columnar.getVarint(f)][];
+            for (int g = 0; g < groups.length; g++) {
+                groups[g] = new long[1 + columns * 2];
+                for (int i = 0; i < groups[g].length; i++)
+                    groups[g][i] = Columnar.getVarint(f);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void checkMagic(ByteBuffer b, Path path) {
+        byte[] m = new byte[Columnar.MAGIC.length];
+        b.get(m);
+        if (!Arrays.equals(m, Columnar.MAGIC))
+            throw new RuntimeException("not a columnar file: " + path);
+    }
+
+    private ByteBuffer fetch(long at, int len) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(len);
+        while (b.hasRemaining()) {
+            if (channel.read(b, at + b.position()) < 0)
+                throw new RuntimeException("unexpected end of " + path + " reading " + len + " bytes at " + at);
+        }
+        bytesRead += len;
+        return b.flip();
+    }
+
+    public int columns() {
+        return names.length;
+    }
+
+    /// field name path, "record" for column 0
+    public String name(int column) {
+        return names[column];
+    }
+
+    public String tagPath(int column) {
+        return tagPaths[column];
+    }
+
+    public boolean isInt(int column) {
+        return kinds[column] == Columnar.KIND_INT;
+    }
+
+    /// column by field name path or tag path, -1 if there is none
+    public int column(String nameOrPath) {
+        for (int c = 0; c < names.length; c++)
+            if (names[c].equals(nameOrPath) || (!tagPaths[c].isEmpty() && tagPaths[c].equals(nameOrPath)))
+                return c;
+        return -1;
+    }
+
+    public int rowGroups() {
+        return groups.length;
+    }
+
+    public int rows(int group) {
+        return (int) groups[group][0];
+    }
+
+    public long rows() {
+        long n = 0;
+        for (long[] g : groups)
+            n += g[0];
+        return n;
+    }
+
+    /// bytes fetched from the file so far, footer included
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    /// one column of one row group
+    public Chunk read(int group, int column) throws IOException {
+        long[] g = groups[group];
+        return new Chunk((int) g[0], fetch(g[1 + column * 2], (int) g[2 + column * 2]));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /// A decoded column chunk.  Values are numbered across the chunk, first(row) to
+    /// first(row) + count(row) are the ones in a row.
+    public static final class Chunk {
+        private final int rows;
+        private final byte encoding;
+        private final byte[] bitmap;
+        /// index of each row's first value, rows + 1 long
+        private final int[] first;
+        private final long[] longs;
+        /// DICT entries, or PLAIN values
+        private final byte[][] texts;
+        /// DICT entry of each value
+        private final int[] ids;
+
+        Chunk(int rows, ByteBuffer b) {
+            this.rows = rows;
+            this.encoding = b.get();
+            this.first = new int[rows + 1];
+            this.bitmap = new byte[(rows + 7) >>> 3];
+            if (encoding == Columnar.EMPTY) {
+                longs = null;
+                texts = null;
+                ids = null;
+                return;
+            }
+            b.get(bitmap);
+            boolean repeats = (b.get() & Columnar.REPEATS) != 0;
+            int values = 0;
+            for (int r = 0; r < rows; r++) {
+                first[r] = values;
+                if (present(r))
+                    values += repeats ? (int) Columnar.getVarint(b) : 1;
+            }
+            first[rows] = values;
+            switch (encoding) {
+                case Columnar.INT_DELTA: {
+                    longs = new long[values];
+                    long prev = 0;
+                    for (int i = 0; i < values; i++) {
+                        prev += Columnar.unzigzag(Columnar.getVarint(b));
+                        longs[i] = prev;
+                    }
+                    texts = null;
+                    ids = null;
+                    break;
+                }
+                case Columnar.DICT: {
+                    texts = new byte[(int) Columnar.getVarint(b)][];
+                    for (int d = 0; d < texts.length; d++)
+                        texts[d] = bytes(b);
+                    ids = new int[values];
+                    for (int i = 0; i < values; i++)
+                        ids[i] = (int) Columnar.getVarint(b);
+                    longs = null;
+                    break;
+                }
+                case Columnar.PLAIN: {
+                    texts = new byte[values][];
+                    for (int i = 0; i < values; i++)
+                        texts[i] = bytes(b);
+                    longs = null;
+                    ids = null;
+                    break;
+                }
+                default:
+                    throw new RuntimeException("unknown chunk encoding: " + encoding);
+            }
+        }
+
+        private static byte[] bytes(ByteBuffer b) {
+            byte[] v = new byte[(int) Columnar.getVarint(b)];
+            b.get(v);
+            return v;
+        }
+
+        public int rows() {
+            return rows;
+        }
+
+        public boolean present(int row) {
+            return (bitmap[row >>> 3] & (1 << (row & 7))) != 0;
+        }
+
+        public int first(int row) {
+            return first[row];
+        }
+
+        public int count(int row) {
+            return first[row + 1] - first[row];
+        }
+
+        /// true when the values are numbers - an INT column can still have a text chunk
+        public boolean isInt() {
+            return encoding == Columnar.INT_DELTA;
+        }
+
+        public long longValue(int value) {
+            return longs[value];
+        }
+
+        public byte[] bytes(int value) {
+            return ids != null ? texts[ids[value]] : texts[value];
+        }
+
+        public String text(int value) {
+            return isInt() ? Long.toString(longs[value]) : new String(bytes(value), StandardCharsets.UTF_8);
+        }
+
+        public ByteOut render(ByteOut out, int value) {
+            return isInt() ? out.putDecimal(longs[value]) : out.put(bytes(value));
+        }
+    }
+}
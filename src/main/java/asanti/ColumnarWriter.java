@@ -0,0 +1,355 @@
+package asanti;
+
+import com.brightsparklabs.asanti.schema.AsnBuiltinType;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import util.ByteOut;
+import util.ChannelOutputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/// Writes decoded records as a columnar file - see Columnar for the layout.
+///
+/// The columns are the record number followed by those of a WideLayout, so --columns narrows
+/// this the same way it does --wide.  Integer fields are INT columns, everything else (strings,
+/// enum names, hex) TEXT - an INTEGER with named values too, holding the name --wide shows.  Values are collected per column for rowGroup rows, then each column
+/// is encoded on its own: deltas as varints for integers, a dictionary for text when that comes
+/// out smaller than writing it plain.
+///
+/// Call beginRow(), add*() for each value, endRow() per record, and endFile() after each input
+/// file so record numbers run on across files instead of starting over.  Not thread safe.
+///
+/// The file is written next to path under a temporary name and only moved into place by
+/// close(), so a run that fails part way leaves no file without a footer - abort() drops it.
+public final class ColumnarWriter implements Closeable {
+
+    private final Path path;
+    private final Path tmp;
+    private final WideLayout layout;
+    private final int rowGroup;
+    private final ChannelOutputStream out;
+    private final ColumnBuffer[] cols;
+    private final ByteOut chunk = new ByteOut(64 * 1024);
+    private final ArrayList<long[]> groups = new ArrayList<>();
+    private int rows = 0;
+    private long totalRows = 0;
+    /// added to record numbers, the records of the files before this one
+    private long base = 0;
+    private boolean closed = false;
+
+    public ColumnarWriter(Path path, WideLayout layout, CompiledSchema schema, int rowGroup) throws IOException {
+        if (path.getFileName().toString().endsWith(".zst"))
+            throw new RuntimeException("columnar files are read by offset and cannot be compressed as a whole: " + path);
+        if (rowGroup < 1)
+            throw new RuntimeException("row group size must be at least 1: " + rowGroup);
+        this.path = path;
+        this.layout = layout;
+        this.rowGroup = rowGroup;
+        this.cols = new ColumnBuffer[layout.columns() + 1];
+        cols[0] = new ColumnBuffer("record", "", Columnar.KIND_INT);
+        for (int c = 0; c < layout.columns(); c++) {
+            int node = layout.node(c);
+            var fi = schema.field(node);
+            boolean named = fi.enumDef != null && !fi.enumDef.isEmpty();
+            byte kind = fi.builtinType == AsnBuiltinType.Integer && !named ? Columnar.KIND_INT : Columnar.KIND_TEXT;
+            cols[c + 1] = new ColumnBuffer(fi.namePath, schema.path(node), kind);
+        }
+        this.tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        this.out = new ChannelOutputStream(tmp, 1 << 20, 0);
+        out.write(Columnar.MAGIC);
+    }
+
+    /// column for a schema node, -1 when it is not written
+    public int column(int node) {
+        int c = layout.column(node);
+        return c < 0 ? -1 : c + 1;
+    }
+
+    /// true when the column is stored as integers - text can still go to it, see add(int, byte[]...)
+    public boolean isInt(int column) {
+        return cols[column].kind == Columnar.KIND_INT;
+    }
+
+    /// recordNo counts from 1 in each input file
+    public void beginRow(long recordNo) {
+        add(0, base + recordNo);
+    }
+
+    /// the current input file had records records, the next one numbers on from there
+    public void endFile(long records) {
+        base += records;
+    }
+
+    public void add(int column, long v) {
+        ColumnBuffer c = cols[column];
+        if (c.asText) {
+            c.text.putDecimal(v);
+            c.ends.add(c.text.size());
+        } else {
+            c.longs.add(v);
+        }
+        c.rowOf.add(rows);
+    }
+
+    /// a text value - on an INT column this is a number too wide for a long, which turns the
+    /// column's current chunk into text
+    public void add(int column, byte[] b, int off, int len) {
+        ColumnBuffer c = cols[column];
+        if (!c.asText) {
+            for (int i = 0; i < c.longs.size(); i++) {
+                c.text.putDecimal(c.longs.get(i));
+                c.ends.add(c.text.size());
+            }
+            c.longs.clear();
+            c.asText = true;
+        }
+        c.text.put(b, off, len);
+        c.ends.add(c.text.size());
+        c.rowOf.add(rows);
+    }
+
+    public void endRow() throws IOException {
+        rows++;
+        totalRows++;
+        if (rows == rowGroup)
+            flushGroup();
+    }
+
+    public long rows() {
+        return totalRows;
+    }
+
+    /// bytes written so far
+    public long bytes() {
+        return out.count();
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    private void flushGroup() throws IOException {
+        if (rows == 0)
+            return;
+        long[] dir = new long[1 + cols.length * 2];
+        dir[0] = rows;
+        for (int c = 0; c < cols.length; c++) {
+            chunk.reset();
+            cols[c].encode(chunk, rows);
+            dir[1 + c * 2] = out.count();
+            dir[2 + c * 2] = chunk.size();
+            chunk.writeTo(out);
+            cols[c].reset();
+        }
+        groups.add(dir);
+        rows = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        boolean moved = false;
+        try {
+            flushGroup();
+            long footerAt = out.count();
+            ByteOut f = new ByteOut(4096);
+            Columnar.putVarint(f, cols.length);
+            for (ColumnBuffer c : cols) {
+                Columnar.putString(f, c.name);
+                Columnar.putString(f, c.tagPath);
+                f.put(c.kind);
+            }
+            Columnar.putVarint(f, groups.size());
+            for (long[] dir : groups)
+                for (long v : dir)
+                    Columnar.putVarint(f, v);
+            for (int i = 7; i >= 0; i--)
+                f.put((byte) (footerAt >>> (i * 8)));
+            f.put(Columnar.MAGIC);
+            f.writeTo(out);
+            out.close();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved)
+                discard();
+        }
+    }
+
+    /// give up on the file - nothing is left at path or under the temporary name
+    public void abort() {
+        if (closed)
+            return;
+        closed = true;
+        discard();
+    }
+
+    private void discard() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // the file is being thrown away
+        }
+        try {
+            Files.deleteIfExists(tmp);
+        } catch (IOException e) {
+            throw new UncheckedIOException("unable to remove " + tmp, e);
+        }
+    }
+
+    private static final class ColumnBuffer {
+        final String name;
+        final String tagPath;
+        final byte kind;
+        /// row in the group of each value - kept per value, not per row, as most columns are
+        /// empty in most records
+        final IntArrayList rowOf = new IntArrayList();
+        final LongArrayList longs = new LongArrayList();
+        final ByteOut text = new ByteOut(64);
+        final IntArrayList ends = new IntArrayList();
+        /// values are kept as text - always for TEXT columns
+        boolean asText;
+
+        ColumnBuffer(String name, String tagPath, byte kind) {
+            this.name = name;
+            this.tagPath = tagPath;
+            this.kind = kind;
+            this.asText = kind == Columnar.KIND_TEXT;
+        }
+
+        void reset() {
+            rowOf.clear();
+            longs.clear();
+            text.reset();
+            ends.clear();
+            asText = kind == Columnar.KIND_TEXT;
+        }
+
+        void encode(ByteOut out, int rows) {
+            int values = asText ? ends.size() : longs.size();
+            if (values == 0) {
+                out.put(Columnar.EMPTY);
+                return;
+            }
+            int encodingAt = out.size();
+            out.put(Columnar.EMPTY);
+            byte[] bitmap = new byte[(rows + 7) >>> 3];
+            boolean repeats = false;
+            for (int i = 0; i < values; i++) {
+                int r = rowOf.get(i);
+                bitmap[r >>> 3] |= (byte) (1 << (r & 7));
+                repeats |= i > 0 && rowOf.get(i - 1) == r;
+            }
+            out.put(bitmap);
+            out.put((byte) (repeats ? Columnar.REPEATS : 0));
+            if (repeats) {
+                // values of a row are next to each other, count each run
+                for (int i = 0; i < values; ) {
+                    int j = i + 1;
+                    while (j < values && rowOf.get(j) == rowOf.get(i))
+                        j++;
+                    Columnar.putVarint(out, j - i);
+                    i = j;
+                }
+            }
+            byte encoding;
+            if (!asText) {
+                encoding = Columnar.INT_DELTA;
+                long prev = 0;
+                for (int i = 0; i < values; i++) {
+                    long v = longs.get(i);
+                    Columnar.putVarint(out, Columnar.zigzag(v - prev));
+                    prev = v;
+                }
+            } else {
+                encoding = encodeText(out);
+            }
+            out.array()[encodingAt] = encoding;
+        }
+
+        /// a dictionary when that is smaller than the values written out plain
+        private byte encodeText(ByteOut out) {
+            int values = ends.size();
+            byte[] data = text.array();
+            int[] ids = new int[values];
+            // open addressing, slots hold the index of the first value with those bytes + 1
+            int[] table = new int[Integer.highestOneBit(Math.max(values, 8) * 2) * 2];
+            int mask = table.length - 1;
+            IntArrayList dict = new IntArrayList();
+            long plainSize = 0;
+            long dictSize = 0;
+            for (int i = 0; i < values; i++) {
+                int s = start(i);
+                int len = ends.get(i) - s;
+                plainSize += len + varintSize(len);
+                int h = hash(data, s, len) & mask;
+                while (true) {
+                    int slot = table[h];
+                    if (slot == 0) {
+                        table[h] = i + 1;
+                        ids[i] = dict.size();
+                        dict.add(i);
+                        dictSize += len + varintSize(len);
+                        break;
+                    }
+                    int j = slot - 1;
+                    int js = start(j);
+                    if (ends.get(j) - js == len && Arrays.equals(data, s, s + len, data, js, js + len)) {
+                        ids[i] = ids[j];
+                        break;
+                    }
+                    h = (h + 1) & mask;
+                }
+            }
+            for (int i = 0; i < values; i++)
+                dictSize += varintSize(ids[i]);
+            if (dictSize + varintSize(dict.size()) < plainSize) {
+                Columnar.putVarint(out, dict.size());
+                for (int d = 0; d < dict.size(); d++)
+                    putValue(out, dict.get(d));
+                for (int i = 0; i < values; i++)
+                    Columnar.putVarint(out, ids[i]);
+                return Columnar.DICT;
+            }
+            for (int i = 0; i < values; i++)
+                putValue(out, i);
+            return Columnar.PLAIN;
+        }
+
+        private int start(int i) {
+            return i == 0 ? 0 : ends.get(i - 1);
+        }
+
+        private void putValue(ByteOut out, int i) {
+            int s = start(i);
+            int len = ends.get(i) - s;
+            Columnar.putVarint(out, len);
+            out.put(text.array(), s, len);
+        }
+
+        private static int hash(byte[] b, int off, int len) {
+            int h = 1;
+            for (int i = off, end = off + len; i < end; i++)
+                h = 31 * h + b[i];
+            return h ^ (h >>> 16);
+        }
+
+        private static int varintSize(long v) {
+            int n = 1;
+            while ((v & ~0x7fL) != 0) {
+                n++;
+                v >>>= 7;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package asanti;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/// The tag path -> FieldInfo map from AsantiPaths compiled into an int keyed trie.
+///
+/// Nodes are plain ints.  Walking down one tag is child(node, tag), a bounds check and an array
+/// load out of a flat transition table, so the walkers carry a node number instead of building
+/// "/110/0/3" strings and hashing them for every leaf.  The path text each node stands for is
+/// kept for output and errors.
+///
+/// Each node owns a dense run of the table covering tags 0..its largest child tag.  Schemas with a
+/// huge context tag would make that run silly, so tags at or above DENSE_LIMIT go to a map instead.
+public final class CompiledSchema {
+
+    public static final int ROOT = 0;
+    public static final int MISSING = -1;
+
+    static final int DENSE_LIMIT = 1024;
+
+    private final int[] base;
+    private final int[] span;
+    private final int[] table;
+    private final AsantiPaths.FieldInfo[] fields;
+    private final String[] paths;
+    private final byte[][] pathBytes;
+    private final HashMap<Long, Integer> sparse;
+    private final boolean[] leaf;
+    private final int[] fieldOrder;
+
+    private CompiledSchema(int[] base, int[] span, int[] table, AsantiPaths.FieldInfo[] fields, String[] paths,
+                           HashMap<Long, Integer> sparse, boolean[] leaf, int[] fieldOrder) {
+        this.base = base;
+        this.span = span;
+        this.table = table;
+        this.fields = fields;
+        this.paths = paths;
+        this.pathBytes = new byte[paths.length][];
+        for (int i = 0; i < paths.length; i++)
+            pathBytes[i] = paths[i].getBytes(StandardCharsets.US_ASCII);
+        this.sparse = sparse;
+        this.leaf = leaf;
+        this.fieldOrder = fieldOrder;
+    }
+
+    /// node reached from node by tag, MISSING if the schema has no such path - and from MISSING on down
+    public int child(int node, int tag) {
+        if (node < 0)
+            return MISSING;
+        if (tag < span[node])
+            return table[base[node] + tag];
+        if (tag < DENSE_LIMIT || sparse.isEmpty())
+            return MISSING;
+        return sparse.getOrDefault(((long) node << 32) | tag, MISSING);
+    }
+
+    /// null for MISSING and for nodes that are only a prefix of some longer path
+    public AsantiPaths.FieldInfo field(int node) {
+        return node < 0 ? null : fields[node];
+    }
+
+    /// the tag path node stands for, "/110/0/3" style - the root is ""
+    public String path(int node) {
+        return paths[node];
+    }
+
+    /// path() pre-encoded for writers assembling output bytes
+    public byte[] pathBytes(int node) {
+        return pathBytes[node];
+    }
+
+    public int size() {
+        return fields.length;
+    }
+
+    /// true when the schema has nothing below node - where the values are
+    public boolean isLeaf(int node) {
+        return leaf[node];
+    }
+
+    /// the nodes that have a FieldInfo, in the order the schema map listed them
+    public int[] fieldNodes() {
+        return fieldOrder.clone();
+    }
+
+    /// node for a "/110/0/3" style path, MISSING if the schema does not have it
+    public int node(String path) {
+        int node = ROOT;
+        for (String part : path.split("/")) {
+            if (part.isEmpty())
+                continue;
+            try {
+                node = child(node, Integer.parseInt(part));
+            } catch (NumberFormatException e) {
+                return MISSING;
+            }
+        }
+        return node;
+    }
+
+    public static CompiledSchema compile(Map<String, AsantiPaths.FieldInfo> map) {
+        Builder root = new Builder("");
+        ArrayList<Builder> listed = new ArrayList<>();
+        for (var e : map.entrySet()) {
+            Builder b = root;
+            for (String part : e.getKey().split("/")) {
+                if (part.isEmpty())
+                    continue;
+                int tag = Integer.parseInt(part);
+                if (tag < 0)
+                    throw new RuntimeException("negative tag in schema path: " + e.getKey());
+                final Builder parent = b;
+                b = b.children.computeIfAbsent(tag, t -> new Builder(parent.path + "/" + t));
+            }
+            b.field = e.getValue();
+            listed.add(b);
+        }
+
+        // number the nodes breadth first so siblings sit next to each other in the table
+        ArrayList<Builder> nodes = new ArrayList<>();
+        ArrayDeque<Builder> todo = new ArrayDeque<>();
+        todo.add(root);
+        while (!todo.isEmpty()) {
+            Builder b = todo.poll();
+            b.id = nodes.size();
+            nodes.add(b);
+            todo.addAll(b.children.values());
+        }
+
+        int n = nodes.size();
+        int[] base = new int[n];
+        int[] span = new int[n];
+        AsantiPaths.FieldInfo[] fields = new AsantiPaths.FieldInfo[n];
+        String[] paths = new String[n];
+        int size = 0;
+        for (Builder b : nodes) {
+            base[b.id] = size;
+            var dense = b.children.headMap(DENSE_LIMIT);
+            span[b.id] = dense.isEmpty() ? 0 : dense.lastKey() + 1;
+            size += span[b.id];
+            fields[b.id] = b.field;
+            paths[b.id] = b.path;
+        }
+        boolean[] leaf = new boolean[n];
+        for (Builder b : nodes)
+            leaf[b.id] = b.children.isEmpty();
+        int[] fieldOrder = listed.stream().filter(b -> b.field != null).mapToInt(b -> b.id).distinct().toArray();
+        int[] table = new int[size];
+        Arrays.fill(table, MISSING);
+        HashMap<Long, Integer> sparse = new HashMap<>();
+        for (Builder b : nodes) {
+            for (var c : b.children.entrySet()) {
+                if (c.getKey() < DENSE_LIMIT)
+                    table[base[b.id] + c.getKey()] = c.getValue().id;
+                else
+                    sparse.put(((long) b.id << 32) | c.getKey(), c.getValue().id);
+            }
+        }
+        return new CompiledSchema(base, span, table, fields, paths, sparse, leaf, fieldOrder);
+    }
+
+    private static final class Builder {
+        final String path;
+        final TreeMap<Integer, Builder> children = new TreeMap<>();
+        AsantiPaths.FieldInfo field;
+        int id;
+
+        Builder(String path) {
+            this.path = path;
+        }
+    }
+}
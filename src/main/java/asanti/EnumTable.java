@@ -0,0 +1,113 @@
+package asanti;
+
+import org.eclipse.collections.api.map.primitive.ImmutableIntObjectMap;
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import util.BerInteger;
+import util.ByteOut;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/// Names for the values of an enumerated (or named number) field, compiled once from the schema.
+///
+/// Enumerations are nearly always 0..n with maybe a hole or two, so values go in an array indexed
+/// by value - min.  The array only runs as far as it stays reasonably full, values past a big gap
+/// go to a map.  Names are kept UTF-8 encoded next to the Strings for writers working in bytes.
+///
+/// Shared by AsantiPaths.FieldInfo and SchemaNode so both walkers look values up the same way.
+public final class EnumTable {
+
+    public static final EnumTable EMPTY = new Builder().build();
+
+    /// slack allowed in the dense array beyond one slot per name
+    static final int DENSE_SLACK = 16;
+
+    private final int min;
+    private final String[] names;
+    private final byte[][] nameBytes;
+    private final ImmutableIntObjectMap<String> sparse;
+    private final ImmutableIntObjectMap<byte[]> sparseBytes;
+    private final int size;
+
+    private EnumTable(int min, String[] names, IntObjectHashMap<String> sparse) {
+        this.min = min;
+        this.names = names;
+        this.nameBytes = new byte[names.length][];
+        for (int i = 0; i < names.length; i++)
+            nameBytes[i] = names[i] == null ? null : names[i].getBytes(StandardCharsets.UTF_8);
+        IntObjectHashMap<byte[]> sb = new IntObjectHashMap<>();
+        sparse.forEachKeyValue((v, n) -> sb.put(v, n.getBytes(StandardCharsets.UTF_8)));
+        this.sparse = sparse.toImmutable();
+        this.sparseBytes = sb.toImmutable();
+        this.size = (int) Arrays.stream(names).filter(n -> n != null).count() + sparse.size();
+    }
+
+    /// name for value, null if it has none
+    public String name(int value) {
+        int i = value - min;
+        if (i >= 0 && i < names.length)
+            return names[i];
+        return sparse.isEmpty() ? null : sparse.get(value);
+    }
+
+    /// name() pre-encoded as UTF-8
+    public byte[] nameBytes(int value) {
+        int i = value - min;
+        if (i >= 0 && i < nameBytes.length)
+            return nameBytes[i];
+        return sparseBytes.isEmpty() ? null : sparseBytes.get(value);
+    }
+
+    /// name for the INTEGER/ENUMERATED content bytes b[off, off+len), the number itself when the
+    /// value has no name - the lookup key is the low 32 bits, as it has always been
+    public ByteOut render(ByteOut out, byte[] b, int off, int len) {
+        byte[] n = nameBytes((int) BerInteger.toLong(b, off, len));
+        return n != null ? out.put(n) : BerInteger.render(out, b, off, len);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /// the values that have a name, in order
+    public int[] values() {
+        int[] v = new int[size];
+        int n = 0;
+        for (int i = 0; i < names.length; i++)
+            if (names[i] != null)
+                v[n++] = min + i;
+        for (int s : sparse.keysView().toSortedArray())
+            v[n++] = s;
+        return v;
+    }
+
+    public static final class Builder {
+        private final IntObjectHashMap<String> values = new IntObjectHashMap<>();
+
+        public Builder put(int value, String name) {
+            values.put(value, name);
+            return this;
+        }
+
+        public EnumTable build() {
+            if (values.isEmpty())
+                return new EnumTable(0, new String[0], new IntObjectHashMap<>());
+            int[] keys = values.keysView().toSortedArray();
+            // take values in order while the array they need stays within slack of full
+            int end = 1;
+            while (end < keys.length && (long) keys[end] - keys[0] + 1 <= 2L * (end + 1) + DENSE_SLACK)
+                end++;
+            String[] names = new String[keys[end - 1] - keys[0] + 1];
+            for (int i = 0; i < end; i++)
+                names[keys[i] - keys[0]] = values.get(keys[i]);
+            IntObjectHashMap<String> sparse = new IntObjectHashMap<>();
+            for (int i = end; i < keys.length; i++)
+                sparse.put(keys[i], values.get(keys[i]));
+            return new EnumTable(keys[0], names, sparse);
+        }
+    }
+}
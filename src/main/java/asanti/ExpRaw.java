@@ -8,11 +8,9 @@ import com.google.common.io.ByteSink;
 import com.google.common.io.ByteSource;
 import com.google.common.io.CharSource;
 import com.google.common.io.Files;
-import org.bouncycastle.util.Strings;
-import org.bouncycastle.util.encoders.Hex;
 import org.checkerframework.checker.units.qual.C;
 import picocli.CommandLine;
-import util.Util;
+import util.ValueText;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -97,13 +95,7 @@ public class ExpRaw {
     }
 
     private static String toStr(byte[] bytes) {
-        try {
-            String s = Util.carefulBytesToString(bytes);
-            return s;
-        } catch (Exception e) {
-            return "HEX: " + Strings.fromByteArray(Hex.encode(bytes));
-
-        }
+        return ValueText.toStr(bytes, false);
     }
 
 }
@@ -0,0 +1,197 @@
+package asanti;
+
+import util.ByteOut;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/// Columns for a flat one-row-per-record export, worked out once from the compiled schema.
+///
+/// By default every leaf of the schema is a column, in schema order.  A list of tag paths
+/// ("/110/0/3") or field name paths ("/top/field/sub") picks and orders them instead.  The first
+/// column is always the record number.
+///
+/// Each walker gets its own Row: a slot per column that values are rendered into while the
+/// record is walked, then one row appended to the output buffer when it is done.  A leaf seen
+/// more than once in a record (SEQUENCE OF and the like) gets its values joined with '|', with a
+/// '|' or '\' inside any value backslash escaped - so ["", "x"], ["x"] and ["a|b"] all differ.
+public final class WideLayout {
+
+    public static final byte JOIN = '|';
+
+    private final byte sep;
+    /// column index by schema node, -1 for nodes that are not a column
+    private final int[] columnOf;
+    private final int columns;
+    /// schema node by column
+    private final int[] nodes;
+    private final byte[] header;
+
+    public WideLayout(CompiledSchema schema, List<String> selected, boolean tsv) {
+        this.sep = tsv ? (byte) '\t' : (byte) ',';
+        this.columnOf = new int[schema.size()];
+        Arrays.fill(columnOf, -1);
+
+        ArrayList<Integer> nodes = new ArrayList<>();
+        if (selected == null || selected.isEmpty()) {
+            for (int node : schema.fieldNodes())
+                if (schema.isLeaf(node))
+                    nodes.add(node);
+        } else {
+            // name paths are only known through the FieldInfo, so look those up the long way
+            for (String want : selected) {
+                int node = want.matches("(/\\d+)+") ? schema.node(want) : CompiledSchema.MISSING;
+                if (node == CompiledSchema.MISSING) {
+                    for (int n : schema.fieldNodes())
+                        if (schema.field(n).namePath.equals(want))
+                            node = n;
+                }
+                if (node == CompiledSchema.MISSING || schema.field(node) == null)
+                    throw new RuntimeException("no schema field for column: " + want);
+                if (columnOf[node] >= 0)
+                    throw new RuntimeException("column listed twice: " + want);
+                columnOf[node] = nodes.size();
+                nodes.add(node);
+            }
+        }
+        this.columns = nodes.size();
+        this.nodes = nodes.stream().mapToInt(Integer::intValue).toArray();
+
+        ByteOut h = new ByteOut(columns * 32);
+        h.put("record");
+        for (int i = 0; i < columns; i++) {
+            int node = nodes.get(i);
+            columnOf[node] = i;
+            h.put(sep);
+            byte[] name = schema.field(node).namePath.getBytes(StandardCharsets.UTF_8);
+            escape(h, name, 0, name.length);
+        }
+        h.newLine();
+        this.header = Arrays.copyOf(h.array(), h.size());
+    }
+
+    public int columns() {
+        return columns;
+    }
+
+    /// column of a schema node, -1 when it is not one
+    public int column(int node) {
+        return node < 0 ? -1 : columnOf[node];
+    }
+
+    /// schema node of a column
+    public int node(int column) {
+        return nodes[column];
+    }
+
+    /// the header line, line separator included
+    public byte[] header() {
+        return header;
+    }
+
+    public Row newRow() {
+        return new Row();
+    }
+
+    /// backslash escapes JOIN and '\' in the value that runs from from to the end of out
+    public static void escapeJoined(ByteOut out, int from) {
+        byte[] b = out.array();
+        int end = out.size();
+        int i = from;
+        while (i < end && b[i] != JOIN && b[i] != '\\')
+            i++;
+        if (i == end)
+            return;
+        byte[] rest = Arrays.copyOfRange(b, i, end);
+        out.truncate(i);
+        for (byte c : rest) {
+            if (c == JOIN || c == '\\')
+                out.put((byte) '\\');
+            out.put(c);
+        }
+    }
+
+    private void escape(ByteOut out, byte[] b, int off, int len) {
+        escape(out, sep, b, off, len);
+    }
+
+    /// one field of a sep separated line - csv quotes a field holding the separator, a quote or a
+    /// line break and doubles its quotes, tsv backslash escapes tab, line breaks and the backslash
+    public static void escape(ByteOut out, byte sep, byte[] b, int off, int len) {
+        int end = off + len;
+        boolean plain = true;
+        for (int i = off; i < end && plain; i++) {
+            byte c = b[i];
+            plain = c != sep && c != '\n' && c != '\r' && (sep == '\t' ? c != '\\' : c != '"');
+        }
+        if (plain) {
+            out.put(b, off, len);
+        } else if (sep == '\t') {
+            for (int i = off; i < end; i++) {
+                byte c = b[i];
+                if (c == '\t')
+                    out.put((byte) '\\').put((byte) 't');
+                else if (c == '\n')
+                    out.put((byte) '\\').put((byte) 'n');
+                else if (c == '\r')
+                    out.put((byte) '\\').put((byte) 'r');
+                else if (c == '\\')
+                    out.put((byte) '\\').put((byte) '\\');
+                else
+                    out.put(c);
+            }
+        } else {
+            out.put((byte) '"');
+            for (int i = off; i < end; i++) {
+                if (b[i] == '"')
+                    out.put((byte) '"');
+                out.put(b[i]);
+            }
+            out.put((byte) '"');
+        }
+    }
+
+    /// One record's values, a slot per column.  Not thread safe - one per walker.
+    public final class Row {
+        private final ByteOut[] slots = new ByteOut[columns];
+        /// values in each slot so far, and where the last one starts
+        private final int[] counts = new int[columns];
+        private final int[] starts = new int[columns];
+
+        private Row() {
+            for (int i = 0; i < columns; i++)
+                slots[i] = new ByteOut(64);
+        }
+
+        /// where the value for node goes, null when node is not a column
+        public ByteOut slot(int node) {
+            int c = column(node);
+            if (c < 0)
+                return null;
+            ByteOut s = slots[c];
+            if (counts[c]++ > 0) {
+                escapeJoined(s, starts[c]);
+                s.put(JOIN);
+            }
+            starts[c] = s.size();
+            return s;
+        }
+
+        /// appends the row for recordNo to out and empties the slots for the next record
+        public void writeTo(ByteOut out, long recordNo) {
+            out.putDecimal(recordNo);
+            for (int c = 0; c < columns; c++) {
+                ByteOut s = slots[c];
+                if (counts[c] > 0)
+                    escapeJoined(s, starts[c]);
+                out.put(sep);
+                escape(out, s.array(), 0, s.size());
+                s.reset();
+                counts[c] = 0;
+            }
+            out.newLine();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/// Splits the decoded bytes of a channel into whole BER records sliced straight out of the read
+/// buffer - the records are never copied into a record array the way BerRecordReader does.
+///
+/// The buffer is read in BLOCK sized gulps and compacted from the start of the current record when
+/// the next one does not fit, or doubled when a single record is bigger than the whole buffer.
+/// It is direct when the channel decodes into native memory (raw files, zstd) so nothing is copied
+/// on the way in either.
+///
+/// From a ReadAheadChannel the records are sliced out of its ring buffers instead, taken whole
+/// and given back once the reader has moved past them.  Only a record that runs from one ring
+/// buffer into the next is copied, into a buffer of its own.
+public final class BerChannelReader implements RecordSource {
+
+    static final int BLOCK = 1 << 20;
+    /// enough for any tag and length this tree handles
+    static final int HEADER_MAX = 16;
+
+    private final ReadableByteChannel in;
+    private final boolean direct;
+    /// in when it is a read-ahead ring, null otherwise
+    private final ReadAheadChannel ring;
+    /// ring buffer following buf, its bytes from segStart + segUsed on are not in buf yet
+    private ByteBuffer seg;
+    private long segStart;
+    private int segUsed;
+    /// where a record spanning two ring buffers is put together
+    private ByteBuffer spill;
+    private final BerTokenizer tok = new BerTokenizer();
+    private ByteBuffer buf;
+    private ByteBuffer view;
+    private long bufStart = 0;   // stream offset of buf[0]
+    private int fill = 0;        // bytes of buf holding data
+    private boolean eof = false;
+
+    private long position = 0;   // stream offset just past the current record
+    private long offset = 0;     // stream offset of the current record
+    private long length = 0;     // full TLV length of the current record
+
+    public BerChannelReader(ReadableByteChannel in, boolean direct) {
+        this.in = in;
+        this.direct = direct;
+        this.ring = in instanceof ReadAheadChannel ? (ReadAheadChannel) in : null;
+        if (ring != null) {
+            spill = allocate(64 * 1024);
+            use(spill, 0, 0);
+        } else {
+            buf = allocate(BLOCK);
+            view = buf.duplicate();
+        }
+    }
+
+    /// next whole record as position..limit of a reused view over the read buffer, null at the end
+    @Override
+    public ByteBuffer next() throws IOException {
+        if (!advance())
+            return null;
+        int rel = (int) (offset - bufStart);
+        view.clear().position(rel).limit(rel + (int) length);
+        return view;
+    }
+
+    @Override
+    public long skip() throws IOException {
+        if (!advance())
+            return -1;
+        return length;
+    }
+
+    @Override
+    public long offset() {
+        return offset;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /// read the header at position to find the record length, then make the whole record available
+    private boolean advance() throws IOException {
+        offset = position;
+        if (!fillTo(offset + 1))
+            return false;
+        fillTo(offset + HEADER_MAX);
+        int rel = (int) (offset - bufStart);
+        try {
+            tok.reset(view.clear(), rel, fill).readHeaderOnly();
+        } catch (RuntimeException e) {
+            if (eof)
+                throw new EOFException("truncated BER record starting at offset: " + offset);
+            throw e;
+        }
+        int header = tok.valueOffset() - rel;
+        if (tok.length() == BerTokenizer.INDEFINITE) {
+            // nested headers must be walked to find the end-of-contents
+            length = indefiniteEnd(offset + header) - offset;
+        } else {
+            length = header + (long) tok.length();
+        }
+        if (length > Integer.MAX_VALUE - 64)
+            throw new RuntimeException("record too long: " + length + " at offset: " + offset);
+        if (!fillTo(offset + length))
+            throw new EOFException("truncated BER record starting at offset: " + offset);
+        position = offset + length;
+        return true;
+    }
+
+    /// stream offset just past the end-of-contents of an indefinite element whose content starts at at
+    private long indefiniteEnd(long at) throws IOException {
+        while (true) {
+            int first = byteAt(at++);
+            if ((first & 0x1f) == 0x1f) {
+                while ((byteAt(at++) & 0x80) != 0) {
+                }
+            }
+            int l = byteAt(at++);
+            if (first == 0 && l == 0)
+                return at;
+            if (l == 0x80) {
+                at = indefiniteEnd(at);
+            } else if (l > 0x80) {
+                int n = l & 0x7f;
+                long ll = 0;
+                for (int i = 0; i < n; i++)
+                    ll = (ll << 8) | byteAt(at++);
+                at += ll;
+            } else {
+                at += l;
+            }
+        }
+    }
+
+    private int byteAt(long at) throws IOException {
+        if (!fillTo(at + 1))
+            throw new EOFException("truncated BER record starting at offset: " + offset);
+        return buf.get((int) (at - bufStart)) & 0xff;
+    }
+
+    /// read until stream offsets [offset, end) are in the buffer, false when the stream ends first
+    private boolean fillTo(long end) throws IOException {
+        if (ring != null)
+            return fillFromRing(end);
+        while (end - bufStart > fill) {
+            if (eof)
+                return false;
+            if (end - bufStart > buf.capacity())
+                makeRoom(end - offset);
+            buf.limit(buf.capacity()).position(fill);
+            int n = in.read(buf);
+            if (n < 0)
+                eof = true;
+            else
+                fill += n;
+        }
+        return true;
+    }
+
+    /// fillTo() over the ring - buf is the ring buffer the record starts in, or spill once the
+    /// record runs on into the next one
+    private boolean fillFromRing(long end) throws IOException {
+        while (end - bufStart > fill) {
+            if (seg == null) {
+                if (eof)
+                    return false;
+                seg = ring.take();
+                if (seg == null) {
+                    eof = true;
+                    return false;
+                }
+                segStart = bufStart + fill;
+                segUsed = 0;
+            }
+            if (offset >= segStart) {
+                // the record starts in seg, nothing before it is needed any more
+                if (buf != spill)
+                    ring.recycle(buf);
+                use(seg, segStart, seg.limit());
+                seg = null;
+                continue;
+            }
+            if (buf != spill) {
+                int rel = (int) (offset - bufStart);
+                ensureSpill(Math.max(fill - rel, end - offset));
+                buf.limit(fill).position(rel);
+                spill.clear();
+                spill.put(buf);
+                ring.recycle(buf);
+                use(spill, offset, spill.position());
+            }
+            ensureSpill(end - bufStart);
+            int n = (int) Math.min(end - bufStart - fill, seg.limit() - segUsed);
+            spill.limit(fill + n).position(fill);
+            spill.put(seg.duplicate().limit(segUsed + n).position(segUsed));
+            fill += n;
+            segUsed += n;
+            if (segUsed == seg.limit()) {
+                ring.recycle(seg);
+                seg = null;
+            }
+        }
+        return true;
+    }
+
+    /// spill grown to hold need bytes, keeping what it has when it is buf
+    private void ensureSpill(long need) {
+        if (need <= spill.capacity())
+            return;
+        if (need > Integer.MAX_VALUE - 64)
+            throw new RuntimeException("record too long: " + need + " at offset: " + offset);
+        ByteBuffer bigger = allocate((int) Math.max(Math.min(spill.capacity() * 2L, Integer.MAX_VALUE - 64), need));
+        if (buf == spill) {
+            bigger.put(spill.limit(fill).position(0));
+            use(bigger, bufStart, fill);
+        }
+        spill = bigger;
+    }
+
+    private void use(ByteBuffer b, long start, int filled) {
+        buf = b;
+        bufStart = start;
+        fill = filled;
+        view = b.duplicate();
+    }
+
+    /// move the current record to the front of the buffer, growing it when need bytes will not fit
+    private void makeRoom(long need) {
+        if (need > Integer.MAX_VALUE - 64)
+            throw new RuntimeException("record too long: " + need + " at offset: " + offset);
+        int rel = (int) (offset - bufStart);
+        buf.limit(fill).position(rel);
+        if (need > buf.capacity()) {
+            ByteBuffer bigger = allocate((int) Math.max(Math.min(buf.capacity() * 2L, Integer.MAX_VALUE - 64), need));
+            bigger.put(buf);
+            buf = bigger;
+            view = buf.duplicate();
+        } else {
+            buf.compact();
+        }
+        fill -= rel;
+        bufStart = offset;
+    }
+
+    private ByteBuffer allocate(int size) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
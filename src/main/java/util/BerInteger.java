@@ -0,0 +1,91 @@
+package util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.node.BigIntegerNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.NumericNode;
+import org.bouncycastle.asn1.ASN1Integer;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+/// INTEGER and ENUMERATED content bytes - big endian two's complement - decoded into a long.
+///
+/// Up to 8 content bytes is every value a long can hold, and that is all the CDR integers we see,
+/// so those never touch BigInteger.  Anything longer falls back to it.
+public final class BerInteger {
+
+    private BerInteger() {
+    }
+
+    /// true when len content bytes always decode to their exact value in a long
+    public static boolean fitsLong(int len) {
+        return len > 0 && len <= 8;
+    }
+
+    /// the value when fitsLong(len), otherwise its low 64 bits the way BigInteger.longValue()
+    /// would give them - so (int) of this is BigInteger.intValue() as well
+    public static long toLong(byte[] b, int off, int len) {
+        if (len <= 0)
+            throw new RuntimeException("zero length INTEGER");
+        int start = len > 8 ? off + len - 8 : off;
+        int end = off + len;
+        // sign extend off the first byte used
+        long v = b[start];
+        for (int i = start + 1; i < end; i++)
+            v = (v << 8) | (b[i] & 0xff);
+        return v;
+    }
+
+    /// decimal text of the value appended to out
+    public static ByteOut render(ByteOut out, byte[] b, int off, int len) {
+        if (fitsLong(len))
+            return out.putDecimal(toLong(b, off, len));
+        return out.put(new BigInteger(b, off, len).toString());
+    }
+
+    public static String toString(byte[] b, int off, int len) {
+        if (fitsLong(len))
+            return Long.toString(toLong(b, off, len));
+        return new BigInteger(b, off, len).toString();
+    }
+
+    public static NumericNode node(byte[] b, int off, int len) {
+        if (fitsLong(len))
+            return LongNode.valueOf(toLong(b, off, len));
+        return BigIntegerNode.valueOf(new BigInteger(b, off, len));
+    }
+
+    public static void write(JsonGenerator gen, byte[] b, int off, int len) throws IOException {
+        if (fitsLong(len))
+            gen.writeNumber(toLong(b, off, len));
+        else
+            gen.writeNumber(new BigInteger(b, off, len));
+    }
+
+    /// BouncyCastle already holds the content bytes - longValueExact() reads them without a
+    /// BigInteger, and only refuses values that really are wider than a long
+    public static NumericNode node(ASN1Integer i) {
+        try {
+            return LongNode.valueOf(i.longValueExact());
+        } catch (ArithmeticException e) {
+            return BigIntegerNode.valueOf(i.getValue());
+        }
+    }
+
+    public static void write(JsonGenerator gen, ASN1Integer i) throws IOException {
+        try {
+            gen.writeNumber(i.longValueExact());
+        } catch (ArithmeticException e) {
+            gen.writeNumber(i.getValue());
+        }
+    }
+
+    public static String toString(ASN1Integer i) {
+        try {
+            return Long.toString(i.longValueExact());
+        } catch (ArithmeticException e) {
+            return i.getValue().toString();
+        }
+    }
+}
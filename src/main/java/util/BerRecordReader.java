@@ -0,0 +1,166 @@
+package util;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/// Splits a stream of concatenated BER records into whole records without decoding them.
+/// Only the outer tag and length are parsed, the record bytes land in one reusable array
+/// which is handed out as a ByteBuffer for BerTokenizer - valid until the next call.
+public final class BerRecordReader implements RecordSource {
+
+    /// largest record the buffer can grow to, about the biggest array a VM hands out
+    static final int MAX_RECORD = Integer.MAX_VALUE - 8;
+
+    private final InputStream in;
+    private byte[] buf = new byte[64 * 1024];
+    private ByteBuffer view = ByteBuffer.wrap(buf);
+    private int size = 0;
+
+    private long position = 0;   // stream offset just past the current record
+    private long offset = 0;     // stream offset of the current record
+    private long length = 0;     // full TLV length of the current record
+
+    public BerRecordReader(InputStream in) {
+        this.in = in;
+    }
+
+    /// next whole record as [0, length) of a reused buffer, or null at end of stream
+    @Override
+    public ByteBuffer next() throws IOException {
+        size = 0;
+        offset = position;
+        int first = in.read();
+        if (first < 0)
+            return null;
+        put(first);
+        int contentLen = readHeaderRest(first);
+        if (contentLen == BerTokenizer.INDEFINITE)
+            readIndefinite();
+        else
+            readInto(contentLen);
+        length = size;
+        position = offset + size;
+        view.limit(size).position(0);
+        return view;
+    }
+
+    /// Move past the next record reading only its header - returns the record length or -1 at end of stream.
+    @Override
+    public long skip() throws IOException {
+        size = 0;
+        offset = position;
+        int first = in.read();
+        if (first < 0)
+            return -1;
+        put(first);
+        int contentLen = readHeaderRest(first);
+        if (contentLen == BerTokenizer.INDEFINITE) {
+            // no way around walking the nested headers
+            readIndefinite();
+            length = size;
+        } else {
+            ByteStreams.skipFully(in, contentLen);
+            length = (long) size + contentLen;
+        }
+        position = offset + length;
+        return length;
+    }
+
+    /// stream offset of the current record
+    @Override
+    public long offset() {
+        return offset;
+    }
+
+    /// total length (header + content) of the current record
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /// reads the rest of a header whose first byte is already consumed, returns the content length
+    private int readHeaderRest(int first) throws IOException {
+        if ((first & 0x1f) == 0x1f) {
+            int b;
+            do {
+                b = readByte();
+                put(b);
+            } while ((b & 0x80) != 0);
+        }
+        int l = readByte();
+        put(l);
+        if (l == 0x80) {
+            if ((first & 0x20) == 0)
+                throw new RuntimeException("indefinite length on a primitive element at offset: " + (offset + size));
+            return BerTokenizer.INDEFINITE;
+        } else if (l > 0x80) {
+            int n = l & 0x7f;
+            if (n > 4)
+                throw new RuntimeException("bad length of length: " + n + " at offset: " + (offset + size));
+            long ll = 0;
+            for (int i = 0; i < n; i++) {
+                int b = readByte();
+                put(b);
+                ll = (ll << 8) | b;
+            }
+            if (ll > Integer.MAX_VALUE - 64)
+                throw new RuntimeException("record too long: " + ll + " at offset: " + offset);
+            return (int) ll;
+        }
+        return l;
+    }
+
+    private void readIndefinite() throws IOException {
+        while (true) {
+            int first = readByte();
+            put(first);
+            int contentLen = readHeaderRest(first);
+            if (first == 0 && contentLen == 0)
+                return; // end-of-contents
+            if (contentLen == BerTokenizer.INDEFINITE)
+                readIndefinite();
+            else
+                readInto(contentLen);
+        }
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0)
+            throw new EOFException("truncated BER record starting at offset: " + offset);
+        return b;
+    }
+
+    private void put(int b) {
+        ensure(1);
+        buf[size++] = (byte) b;
+    }
+
+    private void readInto(int len) throws IOException {
+        ensure(len);
+        ByteStreams.readFully(in, buf, size, len);
+        size += len;
+    }
+
+    private void ensure(int more) {
+        long need = (long) size + more;
+        if (need > buf.length) {
+            if (need > MAX_RECORD)
+                throw new RuntimeException("BER record longer than " + MAX_RECORD + " bytes starting at offset: " + offset);
+            int newLen = (int) Math.min(Math.max(buf.length * 2L, need), MAX_RECORD);
+            byte[] tmp = new byte[newLen];
+            System.arraycopy(buf, 0, tmp, 0, size);
+            buf = tmp;
+            view = ByteBuffer.wrap(buf);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,274 @@
+package util;
+
+import java.nio.ByteBuffer;
+
+/// Pull style BER tokenizer over a ByteBuffer.
+/// Each call to next() moves to the next TLV header (or to the close of a constructed
+/// element) and exposes tag class, tag number, constructed flag, length and value offset
+/// through plain int fields.  Nothing is allocated per node - value bytes stay in the
+/// buffer and are addressed by absolute index, so heap, direct and mapped buffers all work.
+///
+/// Typical loop:
+///   tok.reset(record);
+///   while ((ev = tok.next()) != BerTokenizer.EOF) { switch(ev) ... }
+public final class BerTokenizer {
+
+    public static final int EOF = 0;
+    /// constructed element opened - children follow until the matching END
+    public static final int START = 1;
+    /// primitive element - value is at valueOffset() for length() bytes
+    public static final int PRIMITIVE = 2;
+    /// the last START is closed, tag fields are those of the closed element
+    public static final int END = 3;
+
+    public static final int UNIVERSAL = 0;
+    public static final int APPLICATION = 1;
+    public static final int CONTEXT = 2;
+    public static final int PRIVATE = 3;
+
+    public static final int INDEFINITE = -1;
+
+    final static int LIMIT = 32;
+
+    private ByteBuffer buf;
+    private int pos;
+    private int limit;
+
+    private final int[] ends = new int[LIMIT];
+    private final int[] openClass = new int[LIMIT];
+    private final int[] openTag = new int[LIMIT];
+    private int depth = 0;
+
+    private int tagClass;
+    private int tagNo;
+    private boolean constructed;
+    private int length;
+    private int headerOffset;
+    private int valueOffset;
+
+    public BerTokenizer() {
+    }
+
+    /// tokenize buf from its position to its limit
+    public BerTokenizer reset(ByteBuffer buf) {
+        return reset(buf, buf.position(), buf.limit());
+    }
+
+    /// tokenize buf between the absolute indices start and end
+    public BerTokenizer reset(ByteBuffer buf, int start, int end) {
+        this.buf = buf;
+        this.pos = start;
+        this.limit = end;
+        this.depth = 0;
+        return this;
+    }
+
+    public int next() {
+        if (depth > 0) {
+            int end = ends[depth - 1];
+            if (end == INDEFINITE) {
+                if (pos + 1 < limit && buf.get(pos) == 0 && buf.get(pos + 1) == 0) {
+                    pos += 2;
+                    return close();
+                }
+            } else if (pos >= end) {
+                if (pos > end)
+                    throw new RuntimeException("child element overruns its parent at offset: " + pos);
+                return close();
+            }
+        }
+        if (pos >= limit) {
+            if (depth > 0)
+                throw new RuntimeException("truncated BER, " + depth + " element(s) still open at offset: " + pos);
+            return EOF;
+        }
+        readHeader();
+        if (constructed) {
+            if (depth >= LIMIT)
+                throw new RuntimeException("over pushed this tokenizer past the limit: " + LIMIT);
+            openClass[depth] = tagClass;
+            openTag[depth] = tagNo;
+            ends[depth] = length == INDEFINITE ? INDEFINITE : valueOffset + length;
+            depth++;
+            pos = valueOffset;
+            return START;
+        } else {
+            if (length == INDEFINITE)
+                throw new RuntimeException("indefinite length on a primitive element at offset: " + headerOffset);
+            pos = valueOffset + length;
+            return PRIMITIVE;
+        }
+    }
+
+    /// After a START, skip the rest of that element without reporting its children or its END.
+    public void skip() {
+        if (depth == 0)
+            return;
+        int target = depth - 1;
+        if (ends[target] != INDEFINITE) {
+            pos = ends[target];
+            depth = target;
+            return;
+        }
+        while (depth > target) {
+            if (next() == EOF)
+                throw new RuntimeException("truncated BER while skipping at offset: " + pos);
+        }
+    }
+
+    /// Tag number of the next sibling if it carries a non universal tag, otherwise -1.
+    /// Does not move the tokenizer.
+    public int peekTagNo() {
+        if (!hasNextSibling())
+            return -1;
+        int b = buf.get(pos) & 0xff;
+        if ((b >>> 6) == UNIVERSAL)
+            return -1;
+        int t = b & 0x1f;
+        if (t == 0x1f) {
+            int end = depth > 0 && ends[depth - 1] != INDEFINITE ? ends[depth - 1] : limit;
+            int p = pos + 1;
+            t = 0;
+            do {
+                if (p >= end)
+                    throw new RuntimeException("truncated tag at offset: " + pos);
+                b = buf.get(p++) & 0xff;
+                t = (t << 7) | (b & 0x7f);
+            } while ((b & 0x80) != 0);
+        }
+        return t;
+    }
+
+    /// true when another element follows at the current depth
+    public boolean hasNextSibling() {
+        if (depth > 0) {
+            int end = ends[depth - 1];
+            if (end == INDEFINITE)
+                return !(pos + 1 < limit && buf.get(pos) == 0 && buf.get(pos + 1) == 0);
+            return pos < end;
+        }
+        return pos < limit;
+    }
+
+    private int close() {
+        depth--;
+        tagClass = openClass[depth];
+        tagNo = openTag[depth];
+        constructed = true;
+        return END;
+    }
+
+    /// Read only the header of the next element - the value may extend past the end of the
+    /// buffer.  Used to size records, the tokenizer has to be reset before next() is used.
+    public void readHeaderOnly() {
+        readHeader(false);
+    }
+
+    private void readHeader() {
+        readHeader(true);
+    }
+
+    private void readHeader(boolean checkValue) {
+        headerOffset = pos;
+        int b = buf.get(pos++) & 0xff;
+        tagClass = b >>> 6;
+        constructed = (b & 0x20) != 0;
+        int t = b & 0x1f;
+        if (t == 0x1f) {
+            t = 0;
+            do {
+                if (pos >= limit)
+                    throw new RuntimeException("truncated tag at offset: " + headerOffset);
+                b = buf.get(pos++) & 0xff;
+                t = (t << 7) | (b & 0x7f);
+            } while ((b & 0x80) != 0);
+        }
+        tagNo = t;
+        if (pos >= limit)
+            throw new RuntimeException("truncated length at offset: " + headerOffset);
+        int l = buf.get(pos++) & 0xff;
+        if (l == 0x80) {
+            length = INDEFINITE;
+        } else if (l > 0x80) {
+            int n = l & 0x7f;
+            if (n > 4 || pos + n > limit)
+                throw new RuntimeException("bad length of length: " + n + " at offset: " + headerOffset);
+            long ll = 0;
+            for (int i = 0; i < n; i++)
+                ll = (ll << 8) | (buf.get(pos++) & 0xff);
+            if (ll > Integer.MAX_VALUE)
+                throw new RuntimeException("element too long: " + ll + " at offset: " + headerOffset);
+            length = (int) ll;
+        } else {
+            length = l;
+        }
+        valueOffset = pos;
+        if (checkValue && length != INDEFINITE && length > limit - valueOffset)
+            throw new RuntimeException("element length " + length + " runs past the end at offset: " + headerOffset);
+    }
+
+    public int tagClass() {
+        return tagClass;
+    }
+
+    public int tagNo() {
+        return tagNo;
+    }
+
+    /// true for application, context and private tags - what BouncyCastle hands back as an ASN1TaggedObject
+    public boolean isTagged() {
+        return tagClass != UNIVERSAL;
+    }
+
+    public boolean isConstructed() {
+        return constructed;
+    }
+
+    /// value length, INDEFINITE for indefinite constructed elements
+    public int length() {
+        return length;
+    }
+
+    public int headerOffset() {
+        return headerOffset;
+    }
+
+    public int valueOffset() {
+        return valueOffset;
+    }
+
+    /// absolute index just past the last element read (or skipped)
+    public int position() {
+        return pos;
+    }
+
+    /// number of constructed elements currently open
+    public int depth() {
+        return depth;
+    }
+
+    public ByteBuffer buffer() {
+        return buf;
+    }
+
+    public int byteAt(int i) {
+        return buf.get(valueOffset + i) & 0xff;
+    }
+
+    /// copy of the current primitive value
+    public byte[] value() {
+        byte[] ray = new byte[length];
+        value(ray);
+        return ray;
+    }
+
+    /// the current primitive value copied to the start of dst, which must hold length() bytes
+    public void value(byte[] dst) {
+        if (buf.hasArray()) {
+            System.arraycopy(buf.array(), buf.arrayOffset() + valueOffset, dst, 0, length);
+        } else {
+            for (int i = 0; i < length; i++)
+                dst[i] = buf.get(valueOffset + i);
+        }
+    }
+}
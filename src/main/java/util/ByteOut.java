@@ -0,0 +1,123 @@
+package util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/// Growable byte buffer for assembling output lines.  Labels that are known ahead of time are
+/// put as pre-encoded bytes, strings are encoded as UTF-8 with a straight copy for plain ASCII.
+/// Not thread safe - one per walker.
+public final class ByteOut {
+
+    public static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf;
+    private int size = 0;
+
+    public ByteOut(int capacity) {
+        buf = new byte[Math.max(capacity, 16)];
+    }
+
+    public ByteOut put(byte b) {
+        ensure(1);
+        buf[size++] = b;
+        return this;
+    }
+
+    public ByteOut put(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, size, b.length);
+        size += b.length;
+        return this;
+    }
+
+    public ByteOut put(byte[] b, int off, int len) {
+        ensure(len);
+        System.arraycopy(b, off, buf, size, len);
+        size += len;
+        return this;
+    }
+
+    /// decimal text of v without going through a String
+    public ByteOut putDecimal(long v) {
+        if (v < 0) {
+            if (v == Long.MIN_VALUE)
+                return put(Long.toString(v));
+            put((byte) '-');
+            v = -v;
+        }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10)
+            digits++;
+        ensure(digits);
+        for (int i = size + digits - 1; i >= size; i--) {
+            buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        size += digits;
+        return this;
+    }
+
+    public ByteOut put(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                // rare - give up on the fast path and encode whatever is left
+                return put(s.substring(i).getBytes(StandardCharsets.UTF_8));
+            }
+            buf[size++] = (byte) c;
+        }
+        return this;
+    }
+
+    public ByteOut newLine() {
+        return put(NEWLINE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /// the backing array - valid from 0 to size(), for handing to writers that take (array, off, len)
+    public byte[] array() {
+        return buf;
+    }
+
+    /// grows the content by n bytes for the caller to fill in place, returns the backing array
+    byte[] extend(int n) {
+        ensure(n);
+        size += n;
+        return buf;
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    /// drops everything from size on
+    public void truncate(int size) {
+        if (size < 0 || size > this.size)
+            throw new RuntimeException("truncate to " + size + " outside 0.." + this.size);
+        this.size = size;
+    }
+
+    /// hand everything to os and empty the buffer
+    public void writeTo(OutputStream os) throws IOException {
+        os.write(buf, 0, size);
+        size = 0;
+    }
+
+    /// the content decoded as UTF-8
+    @Override
+    public String toString() {
+        return new String(buf, 0, size, StandardCharsets.UTF_8);
+    }
+
+    private void ensure(int n) {
+        if (size + n > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+    }
+}
@@ -0,0 +1,107 @@
+package util;
+
+import com.github.luben.zstd.ZstdDirectBufferCompressingStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/// OutputStream for bulk export files - bytes collect in one large direct buffer that goes to the
+/// FileChannel in a single write when it fills, not on every line the way System.out does.
+/// A path ending in .zst is zstd compressed on the way out, straight from that direct buffer.
+///
+/// Flushing is up to the caller: flush() pushes what is buffered (and ends the current zstd
+/// block), sync() also forces it to disk.  Not thread safe.
+public final class ChannelOutputStream extends OutputStream {
+
+    private final FileChannel channel;
+    private final ByteBuffer buf;
+    private final ZstdDirectBufferCompressingStream zstd;
+    private long written = 0;
+
+    public ChannelOutputStream(Path path, int bufferBytes, int zstdLevel) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buf = ByteBuffer.allocateDirect(bufferBytes);
+        if (path.getFileName().toString().endsWith(".zst")) {
+            zstd = new ZstdDirectBufferCompressingStream(
+                    ByteBuffer.allocateDirect(ZstdDirectBufferCompressingStream.recommendedOutputBufferSize()), zstdLevel) {
+                @Override
+                protected ByteBuffer flushBuffer(ByteBuffer toFlush) throws IOException {
+                    toFlush.flip();
+                    writeFully(toFlush);
+                    toFlush.clear();
+                    return toFlush;
+                }
+            };
+        } else {
+            zstd = null;
+        }
+    }
+
+    /// bytes handed to this stream so far, before any compression
+    public long count() {
+        return written + buf.position();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buf.hasRemaining())
+            drain();
+        buf.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buf.hasRemaining())
+                drain();
+            int n = Math.min(len, buf.remaining());
+            buf.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        if (zstd != null)
+            zstd.flush();
+    }
+
+    /// flush() and force the file contents to the device
+    public void sync() throws IOException {
+        flush();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+            if (zstd != null)
+                zstd.close();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        buf.flip();
+        written += buf.remaining();
+        if (zstd != null)
+            zstd.compress(buf);
+        else
+            writeFully(buf);
+        buf.clear();
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining())
+            channel.write(b);
+    }
+}
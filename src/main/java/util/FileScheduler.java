@@ -0,0 +1,52 @@
+package util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/// Hands whole files to a pool biggest first - the long ones start early and the small ones fill
+/// in the gaps at the end, which keeps the makespan close to the longest single file.
+public final class FileScheduler {
+
+    public interface FileTask<R> {
+        R run(Path path) throws Exception;
+    }
+
+    private FileScheduler() {
+    }
+
+    /// Submits task for every path, largest file first.  The futures come back in the order of
+    /// paths so the caller can emit results deterministically.
+    public static <R> List<Future<R>> submitLargestFirst(ExecutorService pool, Path[] paths, FileTask<R> task) {
+        long[] sizes = new long[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            try {
+                sizes[i] = Files.size(paths[i]);
+            } catch (IOException e) {
+                throw new UncheckedIOException("cannot size input file: " + paths[i], e);
+            }
+        }
+        Integer[] order = new Integer[paths.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> sizes[i]).reversed());
+
+        List<Future<R>> futures = new ArrayList<>(paths.length);
+        for (int i = 0; i < paths.length; i++)
+            futures.add(null);
+        for (int i : order) {
+            final Path p = paths[i];
+            Callable<R> c = () -> task.run(p);
+            futures.set(i, pool.submit(c));
+        }
+        return futures;
+    }
+}
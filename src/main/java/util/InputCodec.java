@@ -0,0 +1,32 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+
+/// One way an input file can be encoded - InputCodecs picks the codec for a file from its first
+/// bytes, never its name.
+public interface InputCodec {
+
+    /// "gzip", "zstd", "raw" - for logs and errors
+    String name();
+
+    /// true when a file starting with head[0, len) is in this format
+    boolean matches(byte[] head, int len);
+
+    /// the decoded bytes of path
+    ReadableByteChannel open(Path path) throws IOException;
+
+    /// true when open() decodes straight into direct buffers - readers then use direct ones too,
+    /// heap buffers otherwise
+    default boolean directBuffers() {
+        return false;
+    }
+
+    /// open() as a stream for the BouncyCastle readers - available() stays positive until the end
+    /// since their loops stop on it
+    default InputStream stream(Path path) throws IOException {
+        return InputCodecs.stream(open(path));
+    }
+}
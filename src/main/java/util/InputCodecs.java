@@ -0,0 +1,291 @@
+package util;
+
+import com.github.luben.zstd.ZstdDirectBufferDecompressingStreamNoFinalizer;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/// Picks the InputCodec for a file by sniffing its magic bytes - a .zst that is really gzip, or
+/// plain BER with no extension at all, is read as what it is.  Anything no codec claims is raw.
+///
+/// Built in: gzip (1f 8b 08) through ParallelGzipInputStream and zstd (frame or skippable frame
+/// magic) through zstd-jni's direct buffer stream, so zstd output lands in native memory and
+/// BerChannelReader slices records out of it where it lies.
+public final class InputCodecs {
+
+    /// bytes handed to matches()
+    static final int HEAD = 8;
+    /// compressed bytes read at a time for zstd
+    static final int ZSTD_INPUT = 1 << 17;
+
+    public static final InputCodec RAW = new InputCodec() {
+        @Override
+        public String name() {
+            return "raw";
+        }
+
+        @Override
+        public boolean matches(byte[] head, int len) {
+            return true;
+        }
+
+        @Override
+        public ReadableByteChannel open(Path path) throws IOException {
+            return Progress.count(FileChannel.open(path, StandardOpenOption.READ));
+        }
+
+        @Override
+        public InputStream stream(Path path) throws IOException {
+            return Progress.count(path);
+        }
+
+        @Override
+        public boolean directBuffers() {
+            return true;
+        }
+    };
+
+    public static final InputCodec GZIP = new InputCodec() {
+        @Override
+        public String name() {
+            return "gzip";
+        }
+
+        @Override
+        public boolean matches(byte[] head, int len) {
+            return len >= 3 && head[0] == (byte) 0x1f && head[1] == (byte) 0x8b && head[2] == 8;
+        }
+
+        @Override
+        public ReadableByteChannel open(Path path) throws IOException {
+            return new StreamChannel(stream(path));
+        }
+
+        @Override
+        public InputStream stream(Path path) throws IOException {
+            return ParallelGzipInputStream.open(path);
+        }
+    };
+
+    public static final InputCodec ZSTD = new InputCodec() {
+        @Override
+        public String name() {
+            return "zstd";
+        }
+
+        @Override
+        public boolean matches(byte[] head, int len) {
+            if (len < 4)
+                return false;
+            // frame 0xFD2FB528, skippable frames 0x184D2A50 to 0x184D2A5F - little endian
+            return head[0] == (byte) 0x28 && head[1] == (byte) 0xb5 && head[2] == (byte) 0x2f && head[3] == (byte) 0xfd
+                    || (head[0] & 0xf0) == 0x50 && head[1] == (byte) 0x2a && head[2] == (byte) 0x4d && head[3] == (byte) 0x18;
+        }
+
+        @Override
+        public ReadableByteChannel open(Path path) throws IOException {
+            return new ZstdChannel(path);
+        }
+
+        @Override
+        public boolean directBuffers() {
+            return true;
+        }
+    };
+
+    private static final CopyOnWriteArrayList<InputCodec> codecs = new CopyOnWriteArrayList<>(List.of(GZIP, ZSTD));
+
+    private InputCodecs() {
+    }
+
+    /// adds a codec, tried ahead of the ones already there
+    public static void register(InputCodec codec) {
+        codecs.add(0, codec);
+    }
+
+    /// the codec for path, RAW when none claims it
+    public static InputCodec detect(Path path) throws IOException {
+        byte[] head = new byte[HEAD];
+        int len = 0;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.wrap(head);
+            while (b.hasRemaining() && ch.read(b) >= 0) {
+            }
+            len = b.position();
+        }
+        for (InputCodec c : codecs)
+            if (c.matches(head, len))
+                return c;
+        return RAW;
+    }
+
+    /// ch as an InputStream whose available() is 0 only at the end - it reads a byte ahead to know
+    static InputStream stream(ReadableByteChannel ch) {
+        return new FilterInputStream(Channels.newInputStream(ch)) {
+            private int ahead = -2;   // byte read by available(), -1 at the end, -2 for none
+
+            @Override
+            public int read() throws IOException {
+                if (ahead != -2) {
+                    int b = ahead;
+                    ahead = b < 0 ? -1 : -2;
+                    return b;
+                }
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0)
+                    return 0;
+                if (ahead == -1)
+                    return -1;
+                if (ahead >= 0) {
+                    b[off] = (byte) ahead;
+                    ahead = -2;
+                    int n = super.read(b, off + 1, len - 1);
+                    return n < 0 ? 1 : n + 1;
+                }
+                return super.read(b, off, len);
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                if (n <= 0 || ahead == -1)
+                    return 0;
+                if (ahead >= 0) {
+                    ahead = -2;
+                    return 1 + Math.max(0, super.skip(n - 1));
+                }
+                return super.skip(n);
+            }
+
+            @Override
+            public int available() throws IOException {
+                if (ahead == -2)
+                    ahead = super.read();
+                return ahead < 0 ? 0 : 1;
+            }
+        };
+    }
+
+    /// InputStream as a channel - straight into the array of a heap buffer
+    private static final class StreamChannel implements ReadableByteChannel {
+        private final InputStream in;
+        private byte[] scratch;
+        private boolean open = true;
+
+        StreamChannel(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int n;
+            if (dst.hasArray()) {
+                n = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+                if (n > 0)
+                    dst.position(dst.position() + n);
+            } else {
+                if (scratch == null)
+                    scratch = new byte[1 << 16];
+                n = in.read(scratch, 0, Math.min(scratch.length, dst.remaining()));
+                if (n > 0)
+                    dst.put(scratch, 0, n);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            in.close();
+        }
+    }
+
+    /// zstd frames decoded straight into direct buffers, compressed input read into a direct buffer
+    private static final class ZstdChannel implements ReadableByteChannel {
+        private final FileChannel file;
+        private final ByteBuffer input = ByteBuffer.allocateDirect(ZSTD_INPUT);
+        private final ZstdDirectBufferDecompressingStreamNoFinalizer zstd;
+        private ByteBuffer scratch;
+        private boolean fileEnd = false;
+
+        ZstdChannel(Path path) throws IOException {
+            file = FileChannel.open(path, StandardOpenOption.READ);
+            input.limit(0);
+            zstd = new ZstdDirectBufferDecompressingStreamNoFinalizer(input) {
+                @Override
+                protected ByteBuffer refill(ByteBuffer toRefill) {
+                    toRefill.clear();
+                    try {
+                        while (toRefill.hasRemaining()) {
+                            int n = file.read(toRefill);
+                            if (n < 0) {
+                                fileEnd = true;
+                                break;
+                            }
+                            Progress.consumed(n);
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException("reading zstd input", e);
+                    }
+                    return toRefill.flip();
+                }
+            };
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ByteBuffer target = dst;
+            if (!dst.isDirect()) {
+                if (scratch == null)
+                    scratch = ByteBuffer.allocateDirect(1 << 16);
+                target = scratch.clear().limit(Math.min(scratch.capacity(), dst.remaining()));
+            }
+            int n = 0;
+            boolean stalled = false;
+            while (n == 0 && target.hasRemaining()) {
+                if (!zstd.hasRemaining())
+                    return -1;
+                if (stalled)
+                    throw new EOFException("truncated zstd frame");
+                n = zstd.read(target);
+                // nothing out, nothing left in and no more to read - the frame was cut off
+                stalled = n == 0 && fileEnd && !input.hasRemaining();
+            }
+            if (target != dst)
+                dst.put(target.flip());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return file.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                zstd.close();
+            } finally {
+                file.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package util;
+
+import java.util.Arrays;
+
+/// Fixed bucket log-linear histogram of nanosecond latencies, with the record numbers of the
+/// slowest few kept next to it.  add() writes into arrays sized up front - no allocation, no map -
+/// so it can run once per record.  Not thread safe, one per thread and merge() them.
+///
+/// Values under 32 get a bucket each, above that every power of two is cut into 16 buckets, so a
+/// percentile is within 1/16 of the real value.  max is exact.
+public final class LatencyHistogram {
+
+    static final int SUB_BITS = 4;
+    static final int SUB = 1 << SUB_BITS;
+    static final int LINEAR = 2 * SUB;
+    /// enough for any positive long
+    static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long max = 0;
+    /// slowest records, unordered - slowAt is the fastest of them, the one to replace next
+    private final long[] slowNanos;
+    private final long[] slowRecords;
+    private int slowUsed = 0;
+    private int slowAt = 0;
+
+    public LatencyHistogram(int slowest) {
+        slowNanos = new long[slowest];
+        slowRecords = new long[slowest];
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < LINEAR)
+            return (int) Math.max(nanos, 0);
+        int exp = 63 - Long.numberOfLeadingZeros(nanos);
+        return LINEAR + (exp - SUB_BITS - 1) * SUB + (int) ((nanos >>> (exp - SUB_BITS)) & (SUB - 1));
+    }
+
+    /// highest value that lands in bucket b
+    static long bucketTop(int b) {
+        if (b < LINEAR)
+            return b;
+        int exp = (b - LINEAR) / SUB + SUB_BITS + 1;
+        long low = (long) (SUB + (b - LINEAR) % SUB) << (exp - SUB_BITS);
+        return low + (1L << (exp - SUB_BITS)) - 1;
+    }
+
+    public void add(long recordNo, long nanos) {
+        counts[bucket(nanos)]++;
+        count++;
+        if (nanos > max)
+            max = nanos;
+        slow(recordNo, nanos);
+    }
+
+    private void slow(long recordNo, long nanos) {
+        if (slowNanos.length == 0)
+            return;
+        if (slowUsed < slowNanos.length) {
+            slowNanos[slowUsed] = nanos;
+            slowRecords[slowUsed] = recordNo;
+            slowUsed++;
+            if (slowUsed == slowNanos.length)
+                slowAt = fastestSlow();
+        } else if (nanos > slowNanos[slowAt]) {
+            slowNanos[slowAt] = nanos;
+            slowRecords[slowAt] = recordNo;
+            slowAt = fastestSlow();
+        }
+    }
+
+    private int fastestSlow() {
+        int at = 0;
+        for (int i = 1; i < slowUsed; i++) {
+            if (slowNanos[i] < slowNanos[at])
+                at = i;
+        }
+        return at;
+    }
+
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] += other.counts[i];
+        count += other.count;
+        max = Math.max(max, other.max);
+        for (int i = 0; i < other.slowUsed; i++)
+            slow(other.slowRecords[i], other.slowNanos[i]);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+        slowUsed = 0;
+        slowAt = 0;
+    }
+
+    /// how many of the slowest records are kept
+    public int slowest() {
+        return slowNanos.length;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /// value at or under which fraction of the latencies fall, as the top of its bucket
+    public long percentile(double fraction) {
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(bucketTop(i), max);
+        }
+        return max;
+    }
+
+    /// "p50=.. p99=.. p99.9=.. max=.. n=.. slowest: #rec=.., ..." slowest first
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("p50=").append(toSi(percentile(0.5)))
+                .append(" p99=").append(toSi(percentile(0.99)))
+                .append(" p99.9=").append(toSi(percentile(0.999)))
+                .append(" max=").append(toSi(max))
+                .append(" n=").append(count);
+        if (slowUsed > 0) {
+            Integer[] order = new Integer[slowUsed];
+            for (int i = 0; i < slowUsed; i++)
+                order[i] = i;
+            Arrays.sort(order, (a, b) -> Long.compare(slowNanos[b], slowNanos[a]));
+            sb.append(" slowest:");
+            for (int i : order)
+                sb.append(" #").append(slowRecords[i]).append('=').append(toSi(slowNanos[i]));
+        }
+        return sb.toString();
+    }
+
+    /// ns under 10us, us under 10ms, ms above
+    static String toSi(long nanos) {
+        if (nanos < 10_000)
+            return nanos + "ns";
+        if (nanos < 10_000_000)
+            return nanos / 1_000 + "us";
+        return nanos / 1_000_000 + "ms";
+    }
+}
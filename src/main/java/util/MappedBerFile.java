@@ -0,0 +1,188 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/// Memory mapped view of an uncompressed BER file handing out records as ByteBuffer views
+/// straight onto the mapping - no read() copies and no syscalls per record.
+///
+/// A single MappedByteBuffer tops out at 2GB so the file is mapped in CHUNK sized windows.
+/// Each window overlaps the next by OVERLAP bytes, so any record shorter than OVERLAP that
+/// starts in a window is whole inside it.  Only longer records straddling a window edge are
+/// copied out into a scratch buffer.
+public final class MappedBerFile implements RecordSource {
+
+    static final long CHUNK = 1L << 30;
+    static final long OVERLAP = 64L << 20;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final MappedByteBuffer[] maps;
+    private final ByteBuffer[] views;
+    private final BerTokenizer tok = new BerTokenizer();
+    private ByteBuffer scratch = ByteBuffer.allocate(0);
+
+    private long position = 0;
+    private long offset = 0;
+    private long length = 0;
+    /// position up to which records have been counted for Progress, counted a MB at a time
+    private long counted = 0;
+
+    public MappedBerFile(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileSize = channel.size();
+        int n = (int) ((fileSize + CHUNK - 1) / CHUNK);
+        maps = new MappedByteBuffer[n];
+        views = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long start = i * CHUNK;
+            long size = Math.min(CHUNK + OVERLAP, fileSize - start);
+            maps[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            views[i] = maps[i].duplicate();
+        }
+    }
+
+    public long size() {
+        return fileSize;
+    }
+
+    /// next record as position..limit of a reused view over the mapping, null at the end of the file
+    @Override
+    public ByteBuffer next() throws IOException {
+        if (!advance())
+            return null;
+        return view(offset, (int) length);
+    }
+
+    @Override
+    public long skip() throws IOException {
+        if (!advance())
+            return -1;
+        return length;
+    }
+
+    @Override
+    public long offset() {
+        return offset;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /// Move the cursor to an arbitrary record start - the next call to next() or skip() reads from there.
+    public void seek(long recordOffset) {
+        if (recordOffset < 0 || recordOffset > fileSize)
+            throw new RuntimeException("seek past end of mapped file: " + recordOffset + " size: " + fileSize);
+        position = recordOffset;
+    }
+
+    /// An independent slice for a record at offset - safe to hand to another thread.
+    public ByteBuffer slice(long recordOffset, int recordLength) {
+        int chunk = (int) (recordOffset / CHUNK);
+        int rel = (int) (recordOffset - chunk * CHUNK);
+        if (rel + recordLength <= maps[chunk].capacity())
+            return maps[chunk].duplicate().position(rel).limit(rel + recordLength).slice();
+        return copyOut(recordOffset, recordLength, ByteBuffer.allocate(recordLength));
+    }
+
+    private ByteBuffer view(long recordOffset, int recordLength) {
+        int chunk = (int) (recordOffset / CHUNK);
+        int rel = (int) (recordOffset - chunk * CHUNK);
+        if (rel + recordLength <= maps[chunk].capacity()) {
+            ByteBuffer v = views[chunk];
+            v.limit(rel + recordLength).position(rel);
+            return v;
+        }
+        if (scratch.capacity() < recordLength)
+            scratch = ByteBuffer.allocate(recordLength);
+        scratch.clear();
+        return copyOut(recordOffset, recordLength, scratch);
+    }
+
+    private ByteBuffer copyOut(long recordOffset, int recordLength, ByteBuffer dst) {
+        long at = recordOffset;
+        int left = recordLength;
+        while (left > 0) {
+            int chunk = (int) (at / CHUNK);
+            int rel = (int) (at - chunk * CHUNK);
+            // only use the non overlapping part of each window so the walk lines up with the next one
+            int n = (int) Math.min(left, CHUNK - rel);
+            dst.put(maps[chunk].duplicate().position(rel).limit(rel + n));
+            at += n;
+            left -= n;
+        }
+        dst.flip();
+        return dst;
+    }
+
+    /// read the header at position to find the record length
+    private boolean advance() {
+        if (position >= fileSize)
+            return false;
+        offset = position;
+        int chunk = (int) (offset / CHUNK);
+        int rel = (int) (offset - chunk * CHUNK);
+        ByteBuffer map = maps[chunk];
+        tok.reset(map, rel, map.capacity()).readHeaderOnly();
+        if (tok.length() == BerTokenizer.INDEFINITE) {
+            // nested headers must be walked to find the end-of-contents
+            length = indefiniteEnd(offset + (tok.valueOffset() - rel)) - offset;
+        } else {
+            length = (tok.valueOffset() - rel) + (long) tok.length();
+        }
+        if (offset + length > fileSize)
+            throw new RuntimeException("truncated BER record at offset: " + offset + " length: " + length + " file size: " + fileSize);
+        position = offset + length;
+        if (position - counted >= 1 << 20) {
+            Progress.consumed(position - counted);
+            counted = position;
+        }
+        return true;
+    }
+
+    /// offset just past the end-of-contents of an indefinite element whose content starts at at
+    private long indefiniteEnd(long at) {
+        while (true) {
+            int first = byteAt(at++);
+            if ((first & 0x1f) == 0x1f) {
+                while ((byteAt(at++) & 0x80) != 0) {
+                }
+            }
+            int l = byteAt(at++);
+            if (first == 0 && l == 0)
+                return at;
+            if (l == 0x80) {
+                at = indefiniteEnd(at);
+            } else if (l > 0x80) {
+                int n = l & 0x7f;
+                long ll = 0;
+                for (int i = 0; i < n; i++)
+                    ll = (ll << 8) | byteAt(at++);
+                at += ll;
+            } else {
+                at += l;
+            }
+        }
+    }
+
+    private int byteAt(long at) {
+        if (at >= fileSize)
+            throw new RuntimeException("truncated BER record at offset: " + offset + " file size: " + fileSize);
+        int chunk = (int) (at / CHUNK);
+        return maps[chunk].get((int) (at - chunk * CHUNK)) & 0xff;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (position > counted)
+            Progress.consumed(position - counted);
+        counted = position;
+        channel.close();
+    }
+}
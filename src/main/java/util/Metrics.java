@@ -0,0 +1,365 @@
+package util;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/// Process wide counters and stage timers, cheap enough for the decode loops.
+///
+/// Every thread adds into its own Stripe - a plain long[] indexed by metric, written only by that
+/// thread - and nothing is shared until a report sums the stripes.  A hot loop holds on to its
+/// Stripe from local() and adds to it directly; Counter.add() and Timer.stop() look it up each
+/// time, which is fine once per record or batch.  Summing also folds the stripes of threads that
+/// have ended into one retired total and drops them, so runs that start threads per file do not
+/// pile up stripes.
+///
+/// A metric is a name and optionally one label, e.g. "leaves" type=Integer, so one family covers
+/// per type or per path counts.  Timers are a count and a nanosecond total and only run once
+/// report() has turned timing on, until then Timer.start() is 0 and stop() does nothing.
+///
+/// report() logs every interval on a background thread and writes the numbers to a file, as JSON
+/// when its name ends in .json and the Prometheus text format otherwise - a node exporter textfile
+/// collector can pick it up.  The file is replaced whole each time so a reader never sees half of
+/// one.  close() makes the last report.
+@Slf4j
+public final class Metrics {
+
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static final ConcurrentHashMap<String, Metric> metrics = new ConcurrentHashMap<>();
+    /// in slot order, a timer has two slots
+    private static final List<Metric> order = new CopyOnWriteArrayList<>();
+    private static final List<Stripe> stripes = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<Stripe> local = ThreadLocal.withInitial(() -> {
+        Stripe s = new Stripe(Thread.currentThread());
+        if (stripes.size() >= 64)
+            retire();
+        stripes.add(s);
+        return s;
+    });
+    /// what the stripes of ended threads had counted
+    private static long[] retired = new long[0];
+    private static int slots = 0;
+    private static volatile boolean timing = false;
+
+    private static ScheduledExecutorService reporter;
+    private static Path file;
+    private static long lastReport;
+    private static long[] lastTotals = new long[0];
+
+    private Metrics() {
+    }
+
+    private abstract static class Metric {
+        final String name;
+        final String label;
+        final String labelValue;
+        final int slot;
+
+        Metric(String name, String label, String labelValue, int slot) {
+            this.name = name;
+            this.label = label;
+            this.labelValue = labelValue;
+            this.slot = slot;
+        }
+
+        String key() {
+            return label == null ? name : name + "{" + label + "=" + labelValue + "}";
+        }
+    }
+
+    public static final class Counter extends Metric {
+        private Counter(String name, String label, String labelValue, int slot) {
+            super(name, label, labelValue, slot);
+        }
+
+        public void add(long n) {
+            local.get().add(this, n);
+        }
+
+        public void inc() {
+            local.get().add(this, 1);
+        }
+    }
+
+    public static final class Timer extends Metric {
+        private Timer(String name, int slot) {
+            super(name, null, null, slot);
+        }
+
+        /// now for stop(), 0 while timing is off
+        public static long start() {
+            return timing ? System.nanoTime() : 0;
+        }
+
+        public void stop(long start) {
+            if (start != 0)
+                local.get().time(this, start);
+        }
+    }
+
+    /// one thread's values, only ever written by that thread
+    public static final class Stripe {
+        private volatile long[] values = new long[64];
+        private final WeakReference<Thread> owner;
+
+        private Stripe(Thread owner) {
+            this.owner = new WeakReference<>(owner);
+        }
+
+        /// the owner has ended - isAlive() false also means every write it made is visible
+        private boolean retired() {
+            Thread t = owner.get();
+            return t == null || !t.isAlive();
+        }
+
+        public void add(Counter c, long n) {
+            long[] v = values;
+            if (c.slot >= v.length)
+                v = grow(c.slot);
+            SLOT.setOpaque(v, c.slot, (long) SLOT.getOpaque(v, c.slot) + n);
+        }
+
+        public void time(Timer t, long start) {
+            if (start == 0)
+                return;
+            long nanos = System.nanoTime() - start;
+            long[] v = values;
+            if (t.slot + 1 >= v.length)
+                v = grow(t.slot + 1);
+            SLOT.setOpaque(v, t.slot, (long) SLOT.getOpaque(v, t.slot) + 1);
+            SLOT.setOpaque(v, t.slot + 1, (long) SLOT.getOpaque(v, t.slot + 1) + nanos);
+        }
+
+        private long[] grow(int slot) {
+            long[] v = values;
+            long[] bigger = new long[Math.max(v.length * 2, slot + 16)];
+            for (int i = 0; i < v.length; i++)
+                bigger[i] = (long) SLOT.getOpaque(v, i);
+            values = bigger;
+            return bigger;
+        }
+    }
+
+    /// this thread's stripe
+    public static Stripe local() {
+        return local.get();
+    }
+
+    public static Counter counter(String name) {
+        return counter(name, null, null);
+    }
+
+    /// the counter for name with label=value, the same one every time
+    public static Counter counter(String name, String label, String value) {
+        String key = label == null ? name : name + "{" + label + "=" + value + "}";
+        Metric m = metrics.get(key);
+        if (m == null) {
+            synchronized (Metrics.class) {
+                m = metrics.computeIfAbsent(key, k -> register(new Counter(name, label, value, slots), 1));
+            }
+        }
+        if (!(m instanceof Counter))
+            throw new RuntimeException("metric " + key + " is not a counter");
+        return (Counter) m;
+    }
+
+    public static Timer timer(String name) {
+        Metric m;
+        synchronized (Metrics.class) {
+            m = metrics.computeIfAbsent(name, k -> register(new Timer(name, slots), 2));
+        }
+        if (!(m instanceof Timer))
+            throw new RuntimeException("metric " + name + " is not a timer");
+        return (Timer) m;
+    }
+
+    private static Metric register(Metric m, int width) {
+        slots += width;
+        order.add(m);
+        return m;
+    }
+
+    /// fold the stripes of ended threads into retired and drop them
+    private static synchronized void retire() {
+        if (retired.length < slots)
+            retired = Arrays.copyOf(retired, slots);
+        ArrayList<Stripe> ended = new ArrayList<>();
+        for (Stripe s : stripes) {
+            if (s.retired()) {
+                long[] v = s.values;
+                for (int i = 0, n = Math.min(v.length, retired.length); i < n; i++)
+                    retired[i] += (long) SLOT.getOpaque(v, i);
+                ended.add(s);
+            }
+        }
+        stripes.removeAll(ended);
+    }
+
+    /// every slot summed over the stripes, the stripes of ended threads retired on the way
+    private static synchronized long[] totals() {
+        retire();
+        long[] t = Arrays.copyOf(retired, slots);
+        for (Stripe s : stripes) {
+            long[] v = s.values;
+            for (int i = 0, n = Math.min(v.length, t.length); i < n; i++)
+                t[i] += (long) SLOT.getOpaque(v, i);
+        }
+        return t;
+    }
+
+    /// current value of a counter, summed over every thread
+    public static synchronized long value(Counter c) {
+        return totals()[c.slot];
+    }
+
+    /// Turn timing on and report every intervalSeconds to the log, and to file when it is not
+    /// null.  An interval of 0 only reports at close().
+    public static synchronized void report(int intervalSeconds, Path file) {
+        if (reporter != null)
+            throw new RuntimeException("metrics are already being reported");
+        Metrics.file = file;
+        timing = true;
+        lastReport = System.nanoTime();
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        if (intervalSeconds > 0)
+            reporter.scheduleAtFixedRate(Metrics::reportNow, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public static synchronized boolean reporting() {
+        return reporter != null;
+    }
+
+    /// stop the periodic reports and make a last one, nothing when report() was never called
+    public static void close() {
+        ScheduledExecutorService r;
+        synchronized (Metrics.class) {
+            r = reporter;
+            reporter = null;
+        }
+        if (r == null)
+            return;
+        r.shutdownNow();
+        try {
+            r.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reportNow();
+        timing = false;
+    }
+
+    private static synchronized void reportNow() {
+        try {
+            long now = System.nanoTime();
+            long[] totals = totals();
+            log.info("metrics: {}", line(totals, now - lastReport));
+            if (file != null)
+                write(totals);
+            lastTotals = totals;
+            lastReport = now;
+        } catch (Exception e) {
+            log.warn("unable to report metrics: {}", e.toString());
+        }
+    }
+
+    /// counters with their rate since the last report, timers as total and mean
+    private static String line(long[] totals, long nanos) {
+        StringBuilder sb = new StringBuilder();
+        for (Metric m : order) {
+            long v = totals[m.slot];
+            long was = m.slot < lastTotals.length ? lastTotals[m.slot] : 0;
+            if (v == 0)
+                continue;
+            if (sb.length() > 0)
+                sb.append("  ");
+            sb.append(m.key()).append('=');
+            if (m instanceof Timer) {
+                long total = totals[m.slot + 1];
+                sb.append(total / 1_000_000).append("ms/").append(v).append(" mean ").append(total / v).append("ns");
+            } else {
+                sb.append(v).append(" (").append((v - was) * 1_000_000_000L / Math.max(nanos, 1)).append("/s)");
+            }
+        }
+        return sb.length() == 0 ? "nothing counted" : sb.toString();
+    }
+
+    private static void write(long[] totals) throws IOException {
+        byte[] text = file.getFileName().toString().endsWith(".json") ? json(totals) : prometheus(totals);
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, text);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static byte[] json(long[] totals) throws IOException {
+        ObjectNode root = Util.jom().createObjectNode();
+        root.put("time", System.currentTimeMillis());
+        ObjectNode counters = root.putObject("counters");
+        ObjectNode timers = root.putObject("timers");
+        for (Metric m : order) {
+            if (m instanceof Timer) {
+                timers.putObject(m.name).put("count", totals[m.slot]).put("nanos", totals[m.slot + 1]);
+            } else if (m.label == null) {
+                counters.put(m.name, totals[m.slot]);
+            } else {
+                ObjectNode family = counters.has(m.name) ? (ObjectNode) counters.get(m.name) : counters.putObject(m.name);
+                family.put(m.labelValue, totals[m.slot]);
+            }
+        }
+        return Util.jom().writerWithDefaultPrettyPrinter().writeValueAsBytes(root);
+    }
+
+    private static byte[] prometheus(long[] totals) {
+        // the samples of a family have to be together, labelled counters turn up as they are met
+        List<Metric> byName = new ArrayList<>(order);
+        byName.sort(Comparator.comparing(m -> m.name));
+        StringBuilder sb = new StringBuilder();
+        String typed = null;
+        for (Metric m : byName) {
+            String name = "asn1play_" + m.name.replaceAll("[^a-zA-Z0-9_]", "_");
+            if (m instanceof Timer) {
+                sb.append("# TYPE ").append(name).append("_seconds summary\n");
+                sb.append(name).append("_seconds_count ").append(totals[m.slot]).append('\n');
+                sb.append(name).append("_seconds_sum ").append(totals[m.slot + 1] / 1e9).append('\n');
+                continue;
+            }
+            name += "_total";
+            if (!name.equals(typed)) {
+                typed = name;
+                sb.append("# TYPE ").append(name).append(" counter\n");
+            }
+            sb.append(name);
+            if (m.label != null)
+                sb.append('{').append(m.label).append("=\"")
+                        .append(m.labelValue.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"}");
+            sb.append(' ').append(totals[m.slot]).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,92 @@
+package util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.TreeNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/// Bulk export of decoded records, one compact JSON object per line:
+///
+///   {"record":12,"offset":34567,"value":{...}}
+///
+/// record is the record number counting from 1 like -i does, offset where the record starts in the
+/// (decompressed) input.  Lines go through a ChannelOutputStream so a .zst path is compressed.
+/// The file is flushed when the buffer fills, every flushRecords records when that is > 0, and
+/// on flush()/close().
+public final class NdjsonWriter implements Closeable {
+
+    private final Path path;
+    private final ChannelOutputStream out;
+    private final JsonGenerator gen;
+    private final int flushRecords;
+    private int sinceFlush = 0;
+    private long records = 0;
+
+    public NdjsonWriter(ObjectMapper om, Path path, int bufferBytes, int flushRecords, int zstdLevel) throws IOException {
+        this.path = path;
+        this.out = new ChannelOutputStream(path, bufferBytes, zstdLevel);
+        this.gen = om.getFactory().createGenerator(out);
+        this.gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // lines are ended by end(), not the default root value separator
+        this.gen.setRootValueSeparator(null);
+        this.flushRecords = flushRecords;
+    }
+
+    public JsonGenerator generator() {
+        return gen;
+    }
+
+    /// opens the line for a record - write exactly one value to the generator then call end()
+    public JsonGenerator begin(long recordNo, long offset) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("record", recordNo);
+        gen.writeNumberField("offset", offset);
+        gen.writeFieldName("value");
+        return gen;
+    }
+
+    public void end() throws IOException {
+        gen.writeEndObject();
+        gen.writeRaw('\n');
+        records++;
+        if (flushRecords > 0 && ++sinceFlush >= flushRecords)
+            flush();
+    }
+
+    /// a whole line for a record already decoded into a tree
+    public void write(long recordNo, long offset, TreeNode value) throws IOException {
+        begin(recordNo, offset);
+        gen.writeTree(value);
+        end();
+    }
+
+    public void flush() throws IOException {
+        gen.flush();
+        sinceFlush = 0;
+    }
+
+    public long records() {
+        return records;
+    }
+
+    /// uncompressed bytes written so far
+    public long bytes() {
+        return out.count() + gen.getOutputBuffered();
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            gen.close();
+        } finally {
+            out.close();
+        }
+    }
+}
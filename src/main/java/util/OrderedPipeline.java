@@ -0,0 +1,97 @@
+package util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/// reader -> N workers -> single writer, with results handed to the writer in the order the
+/// reader produced them.
+///
+/// The reader runs on its own thread and submits each batch to the worker pool, queueing the
+/// future.  The writer (the calling thread) takes futures off that queue in order and waits for
+/// each one, so a slow batch holds up output but not the other workers.  The queue is bounded
+/// which caps how far the reader can get ahead - queueDepth batches in flight at most.
+public final class OrderedPipeline<B, R> {
+
+    public interface Reader<B> {
+        /// next batch or null when done
+        B read() throws Exception;
+    }
+
+    public interface Writer<R> {
+        void write(R result) throws Exception;
+    }
+
+    private static final Future<?> END = CompletableFuture.completedFuture(null);
+
+    private final int workers;
+    private final int queueDepth;
+    private final String name;
+
+    public OrderedPipeline(int workers, int queueDepth, String name) {
+        if (workers < 1)
+            throw new RuntimeException("pipeline needs at least 1 worker: " + workers);
+        this.workers = workers;
+        this.queueDepth = Math.max(queueDepth, 1);
+        this.name = name;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void run(Reader<B> reader, Function<B, R> work, Writer<R> writer) throws Exception {
+        AtomicInteger threadNo = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, name + "-work-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        BlockingQueue<Future<?>> queue = new ArrayBlockingQueue<>(queueDepth);
+        Exception[] readFailure = new Exception[1];
+        Thread readThread = new Thread(() -> {
+            try {
+                B batch;
+                while ((batch = reader.read()) != null) {
+                    final B b = batch;
+                    queue.put(pool.submit(() -> work.apply(b)));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                readFailure[0] = e;
+            } finally {
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, name + "-read");
+        readThread.setDaemon(true);
+        readThread.start();
+        try {
+            while (true) {
+                Future<?> f = queue.take();
+                if (f == END)
+                    break;
+                try {
+                    writer.write((R) f.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    throw e;
+                }
+            }
+            readThread.join();
+            if (readFailure[0] != null)
+                throw readFailure[0];
+        } finally {
+            readThread.interrupt();
+            pool.shutdownNow();
+        }
+    }
+}
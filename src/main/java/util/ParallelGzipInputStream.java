@@ -0,0 +1,499 @@
+package util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/// Inflates multi-member gzip files - concatenated .gz files, bgzip style blocks - on several
+/// threads and reads back as one ordered stream, the same bytes GZIPInputStream gives.
+///
+/// A member cannot be found without inflating the one before it, so the file is cut up by guess:
+/// each unit of work starts at a gzip header found by scanning for its magic bytes about UNIT
+/// compressed bytes after the last, and a worker inflates whole members from there until it
+/// reaches the next unit's start.  The reader then checks the chain - a unit is only used when
+/// the unit before it ended exactly where it starts.  A guess that was really the magic bytes
+/// inside compressed data is noticed that way and thrown away, and the member it sat in was
+/// already inflated by the unit before.  A member still going when its worker reaches the next
+/// unit is handed over and the reader inflates the rest of it itself, so a single member file
+/// just ends up inflated on the reading thread.  So is one whose unit has already made its share
+/// of OUT_BUDGET, so the units in flight hold about that much output however well the data
+/// compresses.
+///
+/// Each member's CRC and length are checked like GZIPInputStream does, and bytes after the last
+/// member that are not a gzip header are ignored the same way.
+public final class ParallelGzipInputStream extends InputStream {
+
+    /// compressed bytes per unit of work
+    static final int UNIT = 1 << 20;
+    /// compressed bytes fed to the inflater at a time
+    static final int PIECE = 1 << 16;
+    /// a file needs a second member within this many units to be worth doing in parallel
+    static final int PROBE_UNITS = 8;
+    /// compressed bytes read at a time looking for the next member
+    static final int PROBE = 1 << 16;
+    /// inflated bytes all the units in flight may hold between them
+    static final long OUT_BUDGET = 256L << 20;
+
+    private static int threads = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService pool;
+
+    /// the Member each thread inflates with, replaced when one is handed over to the reader
+    private static final ThreadLocal<Member> MEMBER = ThreadLocal.withInitial(Member::new);
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long size;
+    private final int depth;
+    /// most a unit inflates before handing its member over to the reader
+    private final int unitCap;
+    /// findMember() buffer, the reading thread's only
+    private final ByteBuffer probe = ByteBuffer.allocate(PROBE);
+    private final ArrayDeque<Task> pending = new ArrayDeque<>();
+    private final ConcurrentLinkedQueue<byte[]> spare = new ConcurrentLinkedQueue<>();
+    /// start of the next unit to hand out, -1 once the last one is out
+    private long nextStart = 0;
+    /// compressed position the output so far ends at
+    private long cur = 0;
+    /// compressed position counted for Progress so far, past cur while an open member is fed
+    private long counted = 0;
+    private boolean eos = false;
+    /// member being finished on this thread
+    private Member open;
+    private byte[] openBuf;
+    private Unit current;
+    private byte[] buf;
+    private int bufPos = 0;
+    private int bufLen = 0;
+
+    /// threads for all the parallel streams together, 1 for plain GZIPInputStream - set it before
+    /// the first file is opened
+    public static synchronized void setThreads(int n) {
+        if (pool != null && n != threads)
+            throw new RuntimeException("gzip threads already started with " + threads);
+        threads = Math.max(n, 1);
+    }
+
+    private static synchronized ExecutorService pool() {
+        if (pool == null) {
+            AtomicInteger threadNo = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "gunzip-" + threadNo.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return pool;
+    }
+
+    /// gzip input for path - inflated in parallel when it has more than one member early enough
+    /// to find, a plain GZIPInputStream otherwise
+    public static InputStream open(Path path) throws IOException {
+        if (threads > 1 && Files.size(path) >= 2L * UNIT) {
+            FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                if (findMember(ch, UNIT, Math.min(ch.size(), (long) UNIT * PROBE_UNITS), ByteBuffer.allocate(PROBE)) >= 0)
+                    return new ParallelGzipInputStream(path, ch);
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                throw e;
+            }
+            ch.close();
+        }
+        return new GZIPInputStream(Progress.count(path), PIECE);
+    }
+
+    private ParallelGzipInputStream(Path path, FileChannel channel) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.size = channel.size();
+        this.depth = threads * 2;
+        this.unitCap = (int) Math.max(UNIT * 4L, OUT_BUDGET / depth);
+    }
+
+    /// first plausible gzip header in [from, to), -1 if there is none - read a heap buffer b at a time
+    static long findMember(FileChannel ch, long from, long to, ByteBuffer b) throws IOException {
+        long at = from;
+        while (at < to) {
+            b.clear();
+            int n = 0;
+            while (b.hasRemaining()) {
+                int r = ch.read(b, at + b.position());
+                if (r < 0)
+                    break;
+                n += r;
+            }
+            byte[] a = b.array();
+            for (int i = 0; i + 3 < n && at + i < to; i++) {
+                if (a[i] == (byte) 0x1f && a[i + 1] == (byte) 0x8b && a[i + 2] == 8 && (a[i + 3] & 0xe0) == 0)
+                    return at + i;
+            }
+            if (n < b.capacity())
+                return -1;
+            // a header could straddle the end of this read
+            at += n - 3;
+        }
+        return -1;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (bufPos == bufLen) {
+            if (!fill())
+                return -1;
+        }
+        return buf[bufPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0)
+            return 0;
+        while (bufPos == bufLen) {
+            if (!fill())
+                return -1;
+        }
+        int n = Math.min(len, bufLen - bufPos);
+        System.arraycopy(buf, bufPos, b, off, n);
+        bufPos += n;
+        return n;
+    }
+
+    /// like GZIPInputStream, 0 only once the end has been reached
+    @Override
+    public int available() {
+        if (bufPos < bufLen)
+            return bufLen - bufPos;
+        return eos || (open == null && cur >= size) ? 0 : 1;
+    }
+
+    /// next stretch of output into buf, false at the end
+    private boolean fill() throws IOException {
+        if (current != null) {
+            spare.offer(current.out);
+            current = null;
+        }
+        if (open != null) {
+            if (openBuf == null)
+                openBuf = new byte[PIECE * 4];
+            buf = openBuf;
+            bufPos = 0;
+            bufLen = open.inflate(openBuf, 0, openBuf.length);
+            count(open.inputEnd());
+            if (open.finished()) {
+                advance(open.finish());
+                open.end();
+                open = null;
+            }
+            return true;
+        }
+        if (eos || cur >= size)
+            return false;
+
+        submit();
+        Unit u;
+        Task t = pending.peek();
+        if (t == null) {
+            u = inflate(cur, size);
+        } else if (t.start < cur) {
+            // started inside a member the last unit already did
+            pending.poll();
+            discard(t);
+            return true;
+        } else if (t.start > cur) {
+            u = inflate(cur, t.start);
+        } else {
+            pending.poll();
+            u = get(t);
+        }
+        if (u.error instanceof IOException)
+            throw (IOException) u.error;
+        if (u.error != null)
+            throw (RuntimeException) u.error;
+        if (u.start == 0 && u.eos && u.len == 0)
+            throw new ZipException("Not in GZIP format: " + path);
+        current = u;
+        buf = u.out;
+        bufPos = 0;
+        bufLen = u.len;
+        open = u.open;
+        eos = u.eos;
+        if (open == null)
+            advance(u.next);
+        return true;
+    }
+
+    /// output now runs up to compressed position pos, the bytes up to it are consumed for Progress
+    private void advance(long pos) {
+        cur = pos;
+        count(pos);
+    }
+
+    /// the bytes up to compressed position pos consumed for Progress, once
+    private void count(long pos) {
+        if (pos > counted) {
+            Progress.consumed(pos - counted);
+            counted = pos;
+        }
+    }
+
+    private void submit() throws IOException {
+        while (pending.size() < depth && nextStart >= 0) {
+            long start = nextStart;
+            long end = findMember(channel, start + UNIT, size, probe);
+            nextStart = end;
+            if (end < 0)
+                end = size;
+            final long e = end;
+            pending.add(new Task(start, pool().submit(() -> inflate(start, e))));
+        }
+    }
+
+    private Unit get(Task t) throws IOException {
+        try {
+            return t.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted inflating " + path, e);
+        } catch (ExecutionException e) {
+            throw new IOException("inflating " + path, e.getCause());
+        }
+    }
+
+    private void discard(Task t) {
+        if (!t.result.isDone()) {
+            t.result.cancel(false);
+            return;
+        }
+        try {
+            Unit u = t.result.get();
+            spare.offer(u.out);
+            if (u.open != null)
+                u.open.end();
+        } catch (Exception e) {
+            // it was a wrong guess, whatever went wrong with it does not matter
+        }
+    }
+
+    /// whole members from start until one ends at or past end - runs on the workers and, for the
+    /// gaps between units, on the reading thread
+    private Unit inflate(long start, long end) {
+        byte[] out = spare.poll();
+        Unit u = new Unit(start, out != null ? out : new byte[UNIT * 4]);
+        Member m = MEMBER.get();
+        try {
+            long pos = start;
+            while (pos < end) {
+                if (!m.begin(channel, pos)) {
+                    u.eos = true;
+                    break;
+                }
+                while (!m.finished()) {
+                    if (m.needsInput() && m.inputEnd() >= end) {
+                        // this member runs into the next unit, the reader finishes it
+                        MEMBER.set(new Member());
+                        u.open = m;
+                        return u;
+                    }
+                    if (u.len == u.out.length) {
+                        if (u.len >= unitCap) {
+                            // so much output the reader had better stream the rest of it
+                            MEMBER.set(new Member());
+                            u.open = m;
+                            return u;
+                        }
+                        u.out = Arrays.copyOf(u.out, Math.min(u.out.length * 2, unitCap));
+                    }
+                    u.len += m.inflate(u.out, u.len, u.out.length - u.len);
+                }
+                pos = m.finish();
+            }
+            u.next = pos;
+        } catch (IOException | RuntimeException e) {
+            MEMBER.set(new Member());
+            u.error = e;
+        }
+        return u;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Task t : pending)
+            t.result.cancel(false);
+        pending.clear();
+        if (open != null) {
+            open.end();
+            open = null;
+        }
+        eos = true;
+        channel.close();
+    }
+
+    private static final class Task {
+        final long start;
+        final Future<Unit> result;
+
+        Task(long start, Future<Unit> result) {
+            this.start = start;
+            this.result = result;
+        }
+    }
+
+    /// what one unit of work inflated
+    private static final class Unit {
+        final long start;
+        byte[] out;
+        int len = 0;
+        /// compressed position after the last whole member
+        long next;
+        /// member that ran past the end of the unit, to be finished by the reader
+        Member open;
+        /// no gzip header where the next member should be - trailing garbage, stop there
+        boolean eos = false;
+        Exception error;
+
+        Unit(long start, byte[] out) {
+            this.start = start;
+            this.out = out;
+        }
+    }
+
+    /// One gzip member being inflated, reading the compressed bytes a piece at a time.  Reused
+    /// member after member by the thread that owns it.
+    private static final class Member {
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final ByteBuffer piece = ByteBuffer.allocateDirect(PIECE).order(ByteOrder.LITTLE_ENDIAN);
+        /// file position of piece[0]
+        private long pieceStart = -1;
+        private FileChannel channel;
+        private long dataStart;
+
+        Member() {
+            piece.limit(0);
+        }
+
+        /// starts the member whose header is at pos, false when there is no gzip header there
+        boolean begin(FileChannel ch, long pos) throws IOException {
+            if (ch != channel) {
+                channel = ch;
+                pieceStart = -1;
+            }
+            load(pos);
+            int n = piece.limit();
+            if (n < 10 || piece.get(0) != (byte) 0x1f || piece.get(1) != (byte) 0x8b || piece.get(2) != 8
+                    || (piece.get(3) & 0xe0) != 0)
+                return false;
+            int flags = piece.get(3);
+            int at = 10;
+            if ((flags & 4) != 0)
+                at += 2 + (n >= 12 ? piece.getShort(10) & 0xffff : 0);
+            if ((flags & 8) != 0)
+                at = skipString(at);
+            if ((flags & 16) != 0)
+                at = skipString(at);
+            if ((flags & 2) != 0)
+                at += 2;
+            if (at > n) {
+                if (n == piece.capacity())
+                    throw new ZipException("gzip header longer than " + PIECE + " bytes at " + pos);
+                return false;
+            }
+            inflater.reset();
+            crc.reset();
+            dataStart = pos + at;
+            piece.position(at);
+            inflater.setInput(piece);
+            return true;
+        }
+
+        private int skipString(int at) {
+            while (at < piece.limit() && piece.get(at) != 0)
+                at++;
+            return at + 1;
+        }
+
+        boolean needsInput() {
+            return inflater.needsInput();
+        }
+
+        boolean finished() {
+            return inflater.finished();
+        }
+
+        /// file position just past the compressed bytes fed so far
+        long inputEnd() {
+            return pieceStart + piece.limit();
+        }
+
+        int inflate(byte[] b, int off, int len) throws IOException {
+            if (inflater.needsInput()) {
+                load(inputEnd());
+                if (!piece.hasRemaining())
+                    throw new EOFException("Unexpected end of ZLIB input stream");
+                inflater.setInput(piece);
+            }
+            try {
+                int n = inflater.inflate(b, off, len);
+                if (n == 0 && inflater.needsDictionary())
+                    throw new ZipException("gzip member needs a preset dictionary");
+                crc.update(b, off, n);
+                return n;
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid ZLIB data format");
+            }
+        }
+
+        /// checks the trailer of a finished member, returns the file position just past it
+        long finish() throws IOException {
+            long dataEnd = dataStart + inflater.getBytesRead();
+            load(dataEnd);
+            if (piece.limit() < 8)
+                throw new EOFException("Unexpected end of gzip trailer");
+            if ((piece.getInt(0) & 0xffffffffL) != crc.getValue()
+                    || (piece.getInt(4) & 0xffffffffL) != (inflater.getBytesWritten() & 0xffffffffL))
+                throw new ZipException("Corrupt GZIP trailer");
+            return dataEnd + 8;
+        }
+
+        void end() {
+            inflater.end();
+        }
+
+        /// piece filled from pos on, keeping whatever of it is already there
+        private void load(long pos) throws IOException {
+            if (pieceStart >= 0 && pos >= pieceStart && pos <= pieceStart + piece.limit()) {
+                piece.position((int) (pos - pieceStart));
+                piece.compact();
+            } else {
+                piece.clear();
+            }
+            pieceStart = pos;
+            while (piece.hasRemaining()) {
+                if (channel.read(piece, pieceStart + piece.position()) < 0)
+                    break;
+            }
+            piece.flip();
+        }
+    }
+}
@@ -5,6 +5,7 @@ import static util.Util.convert;
 import static util.Util.toSIAbbreviation;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -21,9 +22,49 @@ import org.slf4j.event.Level;
 /// but it might be used that way - just wouldn't recommend it.
 /// In such a situation the entries into the hashmap would likely
 /// interfere with the performance of the thing you are measuring.
+///
+/// For per record timing there is recordStart()/recordEnd() instead, which goes into a fixed
+/// LatencyHistogram per thread and kind - no map, no allocation.  Threads started after start()
+/// (pipeline workers, say) record for the thread that called it, and its logTimes() merges all
+/// of their histograms and logs percentiles and the slowest records with the phases.
 public class PhaseTrack {
   private static final ThreadLocal<PhaseTrackInternal> threadLocal = ThreadLocal.withInitial(
       PhaseTrackInternal::new);
+  /// the thread whose start() the records of this one count towards
+  private static final InheritableThreadLocal<PhaseTrackInternal> owner = new InheritableThreadLocal<>();
+
+  /// recordEnd() kinds
+  public static final int DECODE = 0;
+  public static final int RENDER = 1;
+  private static final String[] KINDS = {"decode", "render"};
+
+  private static volatile boolean recordTiming = false;
+  private static volatile int slowest = 5;
+
+  /// turn recordStart()/recordEnd() on, keeping the numbers of the slowest records of each kind
+  public static void recordTiming(boolean on, int slowestRecords) {
+    slowest = Math.max(slowestRecords, 0);
+    recordTiming = on;
+  }
+
+  /// now for recordEnd(), 0 while record timing is off
+  public static long recordStart() {
+    return recordTiming ? System.nanoTime() : 0;
+  }
+
+  /// time since start for record recordNo, nothing when start is 0
+  public static void recordEnd(int kind, long recordNo, long start) {
+    if (start == 0)
+      return;
+    long nanos = System.nanoTime() - start;
+    PhaseTrackInternal pt = threadLocal.get();
+    PhaseTrackInternal to = owner.get();
+    if (to == null)
+      to = pt;
+    if (pt.latencyOwner != to || pt.latencyRun != to.run)
+      pt.joinRun(to);
+    pt.latency[kind].add(recordNo, nanos);
+  }
 
   public static void start() {
     PhaseTrackInternal pt = threadLocal.get();
@@ -35,6 +76,16 @@ public class PhaseTrack {
     pt.recordTimePoint(name);
   }
 
+  /// add nanos to phase name without moving the time point - for time spent waiting here and there
+  /// inside a phase, like blocking on a read-ahead buffer.  Like record timings it counts for the
+  /// thread whose start() this one runs under, so a pipeline's reader thread adds to the main one.
+  public static void addTime(String name, long nanos) {
+    PhaseTrackInternal to = owner.get();
+    if (to == null)
+      to = threadLocal.get();
+    to.addTime(name, nanos);
+  }
+
   public static void logTimes(String msg, Level logLevel, TimeUnit units) {
     PhaseTrackInternal pt = threadLocal.get();
     pt.logTimes(msg, logLevel, units);
@@ -49,7 +100,16 @@ public class PhaseTrack {
 
     private long startTime;
     private long timePoint;
-    private LinkedHashMap<String, Long> phases = new LinkedHashMap<>();
+    /// guarded by itself, addTime() comes from other threads
+    private final LinkedHashMap<String, Long> phases = new LinkedHashMap<>();
+    /// bumped by start(), histograms recorded for an earlier run are stale
+    private volatile int run = 0;
+    /// threads that recorded for this one's current run, itself included
+    private final List<PhaseTrackInternal> contributors = new ArrayList<>();
+    /// this thread's record latencies by kind, and whose run they are for
+    private LatencyHistogram[] latency;
+    private PhaseTrackInternal latencyOwner;
+    private int latencyRun;
 
     private PhaseTrackInternal() {
       timePoint = System.nanoTime();
@@ -58,22 +118,81 @@ public class PhaseTrack {
     private void start() {
       timePoint = System.nanoTime();
       startTime = timePoint;
-      phases.clear();
+      synchronized (phases) {
+        phases.clear();
+      }
+      synchronized (contributors) {
+        run++;
+        contributors.clear();
+      }
+      owner.set(this);
+    }
+
+    /// fresh histograms counting towards to's current run
+    private void joinRun(PhaseTrackInternal to) {
+      if (latency == null || latency[0].slowest() != slowest) {
+        latency = new LatencyHistogram[KINDS.length];
+        for (int i = 0; i < latency.length; i++)
+          latency[i] = new LatencyHistogram(slowest);
+      } else {
+        for (LatencyHistogram h : latency)
+          h.reset();
+      }
+      synchronized (to.contributors) {
+        latencyOwner = to;
+        latencyRun = to.run;
+        to.contributors.add(this);
+      }
+    }
+
+    /// every contributor's histograms of a kind added up, null if nothing was recorded
+    private LatencyHistogram[] mergedLatency() {
+      LatencyHistogram[] merged = null;
+      synchronized (contributors) {
+        for (PhaseTrackInternal c : contributors) {
+          if (merged == null) {
+            merged = new LatencyHistogram[KINDS.length];
+            for (int i = 0; i < merged.length; i++)
+              merged[i] = new LatencyHistogram(slowest);
+          }
+          for (int i = 0; i < merged.length; i++)
+            merged[i].merge(c.latency[i]);
+        }
+      }
+      return merged;
     }
 
     public void recordTimePoint(String name) {
       long lastTimePoint = timePoint;
       timePoint = System.nanoTime();
       long deltaTime = timePoint - lastTimePoint;
-      phases.put(name, deltaTime);
+      synchronized (phases) {
+        phases.put(name, deltaTime);
+      }
+    }
+
+    private void addTime(String name, long nanos) {
+      synchronized (phases) {
+        phases.merge(name, nanos, Long::sum);
+      }
     }
 
     public void logTimes(String msg, Level logLevel, TimeUnit units) {
-      log.info("{}[{}] {}", msg, nanosToSi(System.nanoTime()-startTime, TimeUnit.MILLISECONDS),
-          phases.entrySet().stream().map(e ->
-          e.getKey() + "=" +
-              nanosToSi(e.getValue(),units)).collect(joining(", ")));
-      phases.clear();
+      String times;
+      synchronized (phases) {
+        times = phases.entrySet().stream().map(e ->
+            e.getKey() + "=" +
+                nanosToSi(e.getValue(),units)).collect(joining(", "));
+        phases.clear();
+      }
+      log.info("{}[{}] {}", msg, nanosToSi(System.nanoTime()-startTime, TimeUnit.MILLISECONDS), times);
+      LatencyHistogram[] merged = mergedLatency();
+      if (merged != null) {
+        for (int i = 0; i < merged.length; i++) {
+          if (merged[i].count() > 0)
+            log.info("{} {} latency {}", msg, KINDS[i], merged[i].summary());
+        }
+      }
     }
   }
 
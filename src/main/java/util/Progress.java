@@ -0,0 +1,225 @@
+package util;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/// Live progress through the input files, measured by how far into the files themselves the
+/// reading has got - compressed bytes for .gz and .zst, so the percentage and ETA are against
+/// the sizes on disk and need no idea of how well a file compresses.
+///
+/// The codecs call consumed() as they take bytes from a file: the raw channel and stream through
+/// count(), gzip as each unit or member is handed on in order and a member the reader finishes
+/// itself as it is fed, zstd as its input is refilled, mmap every MB of records and the indexed
+/// lookups as they read.  It is a Metrics counter so the reading threads only ever write their
+/// own stripe, the reporter sums the stripes without stopping them.
+///
+/// start() logs a line every interval on a background thread - percent, records, rec/s and MB/s
+/// since the last line, and an ETA from the average rate so far - and replaces a small JSON
+/// status file whole each time, so another process polling it never sees half of one.
+@Slf4j
+public final class Progress {
+
+    /// bytes taken from input files, compressed or not
+    public static final Metrics.Counter FILE_BYTES = Metrics.counter("file_bytes_read");
+
+    private static ScheduledExecutorService reporter;
+    private static Path file;
+    private static Metrics.Counter records;
+    private static int files;
+    private static long total;
+    private static long started;
+    private static long lastNanos;
+    private static long lastBytes;
+    private static long lastRecords;
+
+    private Progress() {
+    }
+
+    /// n more bytes read from an input file
+    public static void consumed(long n) {
+        FILE_BYTES.add(n);
+    }
+
+    /// in with every byte read or skipped counted as consumed
+    public static InputStream count(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0)
+                    FILE_BYTES.inc();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0)
+                    FILE_BYTES.add(n);
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                if (skipped > 0)
+                    FILE_BYTES.add(skipped);
+                return skipped;
+            }
+        };
+    }
+
+    /// the file at path as a counted stream
+    public static InputStream count(Path path) throws IOException {
+        return count(new FileInputStream(path.toFile()));
+    }
+
+    /// ch with every byte read counted as consumed
+    public static ReadableByteChannel count(ReadableByteChannel ch) {
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int n = ch.read(dst);
+                if (n > 0)
+                    FILE_BYTES.add(n);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return ch.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                ch.close();
+            }
+        };
+    }
+
+    /// Report progress through paths every intervalSeconds, records being the counter the decode
+    /// loop bumps per record, and write the status to statusFile when it is not null.
+    public static synchronized void start(Path[] paths, Metrics.Counter records, int intervalSeconds, Path statusFile) throws IOException {
+        if (reporter != null)
+            throw new RuntimeException("progress is already being reported");
+        if (intervalSeconds <= 0)
+            throw new RuntimeException("progress interval must be at least a second: " + intervalSeconds);
+        long sum = 0;
+        for (Path p : paths)
+            sum += Files.size(p);
+        Progress.total = sum;
+        Progress.files = paths.length;
+        Progress.records = records;
+        Progress.file = statusFile;
+        started = lastNanos = System.nanoTime();
+        lastBytes = Metrics.value(FILE_BYTES);
+        lastRecords = Metrics.value(records);
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "progress");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> reportNow(false), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /// stop reporting and write the status one last time marked done, nothing when start() was never called
+    public static void close() {
+        ScheduledExecutorService r;
+        synchronized (Progress.class) {
+            r = reporter;
+            reporter = null;
+        }
+        if (r == null)
+            return;
+        r.shutdownNow();
+        try {
+            r.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reportNow(true);
+    }
+
+    private static synchronized void reportNow(boolean done) {
+        try {
+            long now = System.nanoTime();
+            // a file still being written can run past the size it had at start()
+            long bytes = Math.min(Metrics.value(FILE_BYTES), total);
+            long recs = Metrics.value(records);
+            long elapsed = Math.max(now - started, 1);
+            long interval = Math.max(now - lastNanos, 1);
+            double recRate = (recs - lastRecords) * 1e9 / interval;
+            double byteRate = (bytes - lastBytes) * 1e9 / interval;
+            double average = bytes * 1e9 / elapsed;
+            long eta = done ? 0 : average > 0 ? (long) ((total - bytes) / average) : -1;
+            double percent = done ? 100.0 : total == 0 ? 0.0 : bytes * 100.0 / total;
+            log.info(String.format("progress: %.1f%% %s of %s  recs: %d (%.0f/s)  %.1f MB/s  %s %s",
+                    percent, size(bytes), size(total), recs, recRate, byteRate / (1 << 20),
+                    done ? "done in" : "eta", done ? duration(elapsed / 1_000_000_000L) : duration(eta)));
+            if (file != null)
+                write(done, bytes, recs, recRate, byteRate, percent, elapsed, eta);
+            lastNanos = now;
+            lastBytes = bytes;
+            lastRecords = recs;
+        } catch (Exception e) {
+            log.warn("unable to report progress: {}", e.toString());
+        }
+    }
+
+    private static void write(boolean done, long bytes, long recs, double recRate, double byteRate, double percent,
+                              long elapsed, long eta) throws IOException {
+        ObjectNode root = Util.jom().createObjectNode();
+        root.put("time", System.currentTimeMillis());
+        root.put("done", done);
+        root.put("files", files);
+        root.put("bytes_total", total);
+        root.put("bytes_read", bytes);
+        root.put("percent", Math.round(percent * 10) / 10.0);
+        root.put("records", recs);
+        root.put("records_per_sec", Math.round(recRate));
+        root.put("bytes_per_sec", Math.round(byteRate));
+        root.put("elapsed_sec", elapsed / 1_000_000_000L);
+        root.put("eta_sec", eta);
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, Util.jom().writerWithDefaultPrettyPrinter().writeValueAsBytes(root));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /// 1023 B, 12.3 MB, 4.5 GB
+    static String size(long bytes) {
+        if (bytes < 1024)
+            return bytes + " B";
+        String units = "KMGTPE";
+        int u = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format("%.1f %sB", bytes / (double) (1L << (10 * u)), units.charAt(u - 1));
+    }
+
+    /// 45s, 12m05s, 3h07m, ? when there is no rate to go on yet
+    static String duration(long seconds) {
+        if (seconds < 0)
+            return "?";
+        if (seconds < 60)
+            return seconds + "s";
+        if (seconds < 3600)
+            return String.format("%dm%02ds", seconds / 60, seconds % 60);
+        return String.format("%dh%02dm", seconds / 3600, seconds % 3600 / 60);
+    }
+}
@@ -0,0 +1,211 @@
+package util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/// Reads (and so decompresses) a channel on its own thread into a ring of reusable buffers while
+/// the reader works through the one before - inflate and I/O overlap with decoding instead of
+/// taking turns with it on one thread.
+///
+/// The ring is depth buffers of size bytes going round between two queues: the filler takes an
+/// empty one, reads until it is full, and hands it over; read() copies out of it and gives it
+/// back once it is drained.  A reader that can work on the ring buffers themselves - the record
+/// splitter - takes them whole with take() and gives them back with recycle() instead, so the
+/// bytes are not copied a second time.  Time spent blocked waiting for a full buffer goes into
+/// the "read wait" PhaseTrack phase of the thread that started the run, even when a pipeline's
+/// reader thread is the one reading - most of a phase spent there means the decoder is starved
+/// and reading or inflating is the bottleneck.  Time the filler spends waiting on an empty buffer
+/// is logged at debug when the channel is closed.
+@Slf4j
+public final class ReadAheadChannel implements ReadableByteChannel {
+
+    /// PhaseTrack phase for time read() and take() spend waiting on the filler
+    public static final String WAIT_PHASE = "read wait";
+
+    private static int ringDepth = 0;
+    private static int bufferSize = 4 << 20;
+
+    /// the filler's end of stream marker
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final ReadableByteChannel in;
+    private final BlockingQueue<ByteBuffer> empty;
+    private final BlockingQueue<ByteBuffer> full;
+    private final Thread filler;
+    private volatile IOException failure;
+    private volatile boolean closed = false;
+    private long fillerWait = 0;
+    private ByteBuffer current;
+    private boolean end = false;
+
+    /// ring depth and buffer size for every channel opened after this, a depth under 2 turns
+    /// read-ahead off
+    public static synchronized void setRing(int depth, int size) {
+        if (size < 1 << 12)
+            throw new RuntimeException("read-ahead buffer size too small: " + size);
+        ringDepth = depth;
+        bufferSize = size;
+    }
+
+    /// --read_ahead n and --read_ahead_mb n taken out of the arguments of a tool without a picocli
+    /// Cli and applied with setRing(), the other arguments returned in order
+    public static String[] fromArgs(String[] args) {
+        int depth = 0;
+        int mb = 4;
+        List<String> rest = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            boolean ring = args[i].equals("--read_ahead");
+            if (!ring && !args[i].equals("--read_ahead_mb")) {
+                rest.add(args[i]);
+                continue;
+            }
+            if (i + 1 == args.length)
+                throw new RuntimeException("missing value for " + args[i]);
+            int v = Integer.parseInt(args[++i]);
+            if (ring)
+                depth = v;
+            else
+                mb = v;
+        }
+        if (depth > 0)
+            setRing(depth, mb << 20);
+        return rest.toArray(new String[0]);
+    }
+
+    public static synchronized boolean enabled() {
+        return ringDepth >= 2;
+    }
+
+    /// in read ahead when it is enabled, in as it is otherwise.  direct picks the kind of ring buffer.
+    public static synchronized ReadableByteChannel wrap(ReadableByteChannel in, boolean direct) {
+        if (ringDepth < 2)
+            return in;
+        return new ReadAheadChannel(in, ringDepth, bufferSize, direct);
+    }
+
+    private ReadAheadChannel(ReadableByteChannel in, int depth, int size, boolean direct) {
+        this.in = in;
+        empty = new ArrayBlockingQueue<>(depth);
+        full = new ArrayBlockingQueue<>(depth + 1);
+        for (int i = 0; i < depth; i++)
+            empty.add(direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size));
+        filler = new Thread(this::fill, "read-ahead");
+        filler.setDaemon(true);
+        filler.start();
+    }
+
+    private void fill() {
+        try {
+            while (!closed) {
+                ByteBuffer b = empty.poll();
+                if (b == null) {
+                    long t0 = System.nanoTime();
+                    b = empty.take();
+                    fillerWait += System.nanoTime() - t0;
+                }
+                b.clear();
+                int n = 0;
+                while (b.hasRemaining() && (n = in.read(b)) >= 0) {
+                }
+                b.flip();
+                if (b.hasRemaining())
+                    full.put(b);
+                if (n < 0)
+                    break;
+            }
+        } catch (InterruptedException | ClosedChannelException e) {
+            if (!closed)
+                failure = new InterruptedIOException("read-ahead interrupted");
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new IOException(e);
+        }
+        // END fits - full holds one more than there are buffers
+        full.add(END);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (closed)
+            throw new ClosedChannelException();
+        if (!dst.hasRemaining())
+            return 0;
+        while (current == null || !current.hasRemaining()) {
+            if (current != null) {
+                empty.add(current);
+                current = null;
+            }
+            current = take();
+            if (current == null)
+                return -1;
+        }
+        int n = Math.min(dst.remaining(), current.remaining());
+        int limit = current.limit();
+        current.limit(current.position() + n);
+        dst.put(current);
+        current.limit(limit);
+        return n;
+    }
+
+    /// The next full ring buffer, its bytes from 0 to its limit, or null at the end.  Hand it back
+    /// with recycle() once done with its bytes - a reader uses either this or read(), not both.
+    public ByteBuffer take() throws IOException {
+        if (closed)
+            throw new ClosedChannelException();
+        if (end)
+            return null;
+        ByteBuffer b = full.poll();
+        if (b == null) {
+            long t0 = System.nanoTime();
+            try {
+                b = full.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("waiting on read-ahead");
+            }
+            PhaseTrack.addTime(WAIT_PHASE, System.nanoTime() - t0);
+        }
+        if (b == END) {
+            end = true;
+            if (failure != null)
+                throw failure;
+            return null;
+        }
+        return b;
+    }
+
+    /// a buffer from take() back to the filler
+    public void recycle(ByteBuffer b) {
+        empty.add(b);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        filler.interrupt();
+        try {
+            filler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.debug("read-ahead filler waited {} ms on the reader", fillerWait / 1_000_000);
+        in.close();
+    }
+}
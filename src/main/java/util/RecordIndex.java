@@ -0,0 +1,200 @@
+package util;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/// Sidecar index of record start offsets and lengths, written next to the data file as <name>.idx
+///
+/// layout (big endian):
+///   8 bytes  magic "BERIDX01"
+///   8 bytes  source file size
+///   8 bytes  source file mtime in millis
+///   8 bytes  record count
+///   count x (8 byte offset, 4 byte length)
+///
+/// Offsets are into the decompressed data, so for .gz and .zst the reader still has to inflate
+/// up to the record, but nothing before it is decoded.  The index file is mapped and entries are
+/// read on demand, opening one costs the same no matter how many records it holds.
+public final class RecordIndex implements Closeable {
+
+    static final byte[] MAGIC = "BERIDX01".getBytes(StandardCharsets.US_ASCII);
+    static final int HEADER = 32;
+    static final int ENTRY = 12;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final long count;
+
+    private RecordIndex(FileChannel channel, MappedByteBuffer map, long count) {
+        this.channel = channel;
+        this.map = map;
+        this.count = count;
+    }
+
+    public static Path indexPath(Path source) {
+        return source.resolveSibling(source.getFileName().toString() + ".idx");
+    }
+
+    /// Opens the index for source, null when there is none or it no longer matches the source file.
+    public static RecordIndex open(Path source) throws IOException {
+        Path idx = indexPath(source);
+        if (!Files.exists(idx))
+            return null;
+        FileChannel ch = FileChannel.open(idx, StandardOpenOption.READ);
+        long size = ch.size();
+        if (size < HEADER) {
+            ch.close();
+            return null;
+        }
+        if (size > Integer.MAX_VALUE) {
+            ch.close();
+            throw new RuntimeException("index file too large to map: " + idx);
+        }
+        MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (map.get(i) != MAGIC[i]) {
+                ch.close();
+                throw new RuntimeException("not a record index file: " + idx);
+            }
+        }
+        long srcSize = map.getLong(8);
+        long srcMtime = map.getLong(16);
+        long count = map.getLong(24);
+        if (srcSize != Files.size(source) || srcMtime != Files.getLastModifiedTime(source).toMillis()
+                || size != HEADER + count * ENTRY) {
+            ch.close();
+            return null;
+        }
+        return new RecordIndex(ch, map, count);
+    }
+
+    /// Scans source reading only record headers and writes its index, returns the record count.
+    public static long build(Path source) throws IOException {
+        Path idx = indexPath(source);
+        Path tmp = idx.resolveSibling(idx.getFileName().toString() + ".tmp");
+        long count = 0;
+        try (RecordSource rs = Util.records(source, true);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(ENTRY * 8192);
+            buf.put(new byte[HEADER]);
+            while (rs.skip() >= 0) {
+                if (rs.length() > Integer.MAX_VALUE)
+                    throw new RuntimeException("record too long to index at offset: " + rs.offset());
+                if (buf.remaining() < ENTRY) {
+                    buf.flip();
+                    while (buf.hasRemaining())
+                        out.write(buf);
+                    buf.clear();
+                }
+                buf.putLong(rs.offset()).putInt((int) rs.length());
+                count++;
+            }
+            buf.flip();
+            while (buf.hasRemaining())
+                out.write(buf);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.put(MAGIC)
+                    .putLong(Files.size(source))
+                    .putLong(Files.getLastModifiedTime(source).toMillis())
+                    .putLong(count)
+                    .flip();
+            out.write(header, 0);
+        }
+        Files.move(tmp, idx, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /// offset of record recordNo, starting at 1 like the -i option
+    public long offset(long recordNo) {
+        return map.getLong(entry(recordNo));
+    }
+
+    public int length(long recordNo) {
+        return map.getInt(entry(recordNo) + 8);
+    }
+
+    private int entry(long recordNo) {
+        if (recordNo < 1 || recordNo > count)
+            throw new RuntimeException("record " + recordNo + " not in index of " + count + " records");
+        return (int) (HEADER + (recordNo - 1) * ENTRY);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /// Fetches records by number - positional reads for plain files, a forward only skip through
+    /// the decompressed stream otherwise (ask for records in ascending order).  Either way what it
+    /// takes from the file is counted for Progress.
+    public static final class Reader implements Closeable {
+        private final Path source;
+        private final RecordIndex index;
+        private final FileChannel channel;
+        private InputStream stream = null;
+        private long streamPos = 0;
+        private ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+
+        public Reader(Path source, RecordIndex index) throws IOException {
+            this.source = source;
+            this.index = index;
+            this.channel = Util.isCompressed(source) ? null : FileChannel.open(source, StandardOpenOption.READ);
+        }
+
+        /// record recordNo as position..limit of a reused buffer
+        public ByteBuffer read(long recordNo) throws IOException {
+            long off = index.offset(recordNo);
+            int len = index.length(recordNo);
+            if (buf.capacity() < len)
+                buf = ByteBuffer.allocate(len);
+            buf.clear().limit(len);
+            if (channel != null) {
+                long at = off;
+                while (buf.hasRemaining()) {
+                    int n = channel.read(buf, at);
+                    if (n < 0)
+                        throw new RuntimeException("index points past the end of " + source + " - rebuild it");
+                    Progress.consumed(n);
+                    at += n;
+                }
+            } else {
+                if (stream == null || off < streamPos) {
+                    if (stream != null)
+                        stream.close();
+                    stream = Util.open(source);
+                    streamPos = 0;
+                }
+                ByteStreams.skipFully(stream, off - streamPos);
+                ByteStreams.readFully(stream, buf.array(), 0, len);
+                streamPos = off + len;
+            }
+            buf.position(0);
+            return buf;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null)
+                channel.close();
+            if (stream != null)
+                stream.close();
+        }
+    }
+}
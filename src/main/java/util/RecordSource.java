@@ -0,0 +1,23 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/// A source of whole BER records - either split off a (possibly decompressed) stream
+/// or sliced out of a memory mapping.
+public interface RecordSource extends Closeable {
+
+    /// next whole record between position and limit of the returned buffer, null at the end.
+    /// The buffer may be reused by the following call.
+    ByteBuffer next() throws IOException;
+
+    /// move past the next record reading only its header, returns the record length or -1 at the end
+    long skip() throws IOException;
+
+    /// offset of the current record from the start of the (decompressed) data
+    long offset();
+
+    /// full TLV length of the current record
+    long length();
+}
@@ -0,0 +1,170 @@
+package util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/// On-disk cache of schemas compiled from ASN.1 module text, so only the first run against a
+/// schema pays for AsnSchemaReader and the walk over its types.
+///
+/// An entry is a file in the cache directory named by kind and a hash of the schema's absolute
+/// path and top type name, so each schema/top pair has exactly one entry that gets overwritten
+/// when it goes stale.
+///
+/// layout (big endian):
+///   8 bytes  magic "ASNSCH02"
+///   4 bytes  codec version
+///   modified UTF-8 top type name
+///   32 bytes SHA-256 of the schema file contents
+///   32 bytes SHA-256 of the class files of the codec and its builders
+///   codec payload
+///
+/// An entry is used only when version, top name, content hash and build hash all match - editing
+/// the schema, changing a codec's layout or rebuilding the code that compiles schemas (a different
+/// walk can make a different tree in the same layout) rebuilds it.  Entries are written to a temp file and moved into
+/// place, and one that cannot be read for any reason is rebuilt rather than failing the run.
+@Slf4j
+public final class SchemaCache {
+
+    static final byte[] MAGIC = "ASNSCH02".getBytes(StandardCharsets.US_ASCII);
+
+    /// Turns one kind of compiled schema into bytes and back.  Bump version() whenever the
+    /// layout written changes.
+    public interface Codec<T> {
+        String kind();
+
+        int version();
+
+        /// classes whose code builds what this codec stores - their class files are hashed into
+        /// every entry so a new build of any of them never reads an old tree
+        Class<?>[] builders();
+
+        void write(T schema, DataOutputStream out) throws IOException;
+
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private SchemaCache() {
+    }
+
+    /// The compiled schema for schemaFile/topName out of cacheDir, or built and then stored there.
+    /// A null cacheDir just builds.
+    public static <T> T load(Path cacheDir, Path schemaFile, String topName, Codec<T> codec, Supplier<T> build) {
+        if (cacheDir == null)
+            return build.get();
+        byte[] contentHash;
+        Path entry;
+        try {
+            // the schema content, then the code that compiled it
+            contentHash = concat(sha256(Files.readAllBytes(schemaFile)), buildHash(codec));
+            String key = schemaFile.toAbsolutePath().normalize() + "\0" + topName;
+            String name = ValueText.hexLower(new ByteOut(24), sha256(key.getBytes(StandardCharsets.UTF_8)), 0, 12).toString();
+            entry = cacheDir.resolve(codec.kind() + "-" + name + ".bin");
+        } catch (IOException e) {
+            throw new RuntimeException("unable to read schema file: " + schemaFile, e);
+        }
+
+        long t0 = System.nanoTime();
+        T cached = read(entry, topName, contentHash, codec);
+        if (cached != null) {
+            log.debug("schema {} {} loaded from {} in {} ms", schemaFile, topName, entry,
+                    (System.nanoTime() - t0) / 1_000_000);
+            return cached;
+        }
+
+        T schema = build.get();
+        try {
+            write(entry, topName, contentHash, codec, schema);
+            log.debug("schema {} {} compiled in {} ms and cached to {}", schemaFile, topName,
+                    (System.nanoTime() - t0) / 1_000_000, entry);
+        } catch (IOException | RuntimeException e) {
+            log.warn("unable to cache compiled schema to {}: {}", entry, e.toString());
+        }
+        return schema;
+    }
+
+    /// null when there is no entry or it does not match
+    private static <T> T read(Path entry, String topName, byte[] contentHash, Codec<T> codec) {
+        if (!Files.exists(entry))
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry), 1 << 16))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readInt() != codec.version() || !in.readUTF().equals(topName))
+                return null;
+            byte[] hash = new byte[contentHash.length];
+            in.readFully(hash);
+            if (!Arrays.equals(hash, contentHash))
+                return null;
+            return codec.read(in);
+        } catch (IOException | RuntimeException e) {
+            log.warn("ignoring unreadable schema cache entry {}: {}", entry, e.toString());
+            return null;
+        }
+    }
+
+    private static <T> void write(Path entry, String topName, byte[] contentHash, Codec<T> codec, T schema)
+            throws IOException {
+        Files.createDirectories(entry.getParent());
+        Path tmp = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.write(MAGIC);
+                out.writeInt(codec.version());
+                out.writeUTF(topName);
+                out.write(contentHash);
+                codec.write(schema, out);
+            }
+            Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /// SHA-256 over the class files of the codec and its builders, read back from wherever they
+    /// were loaded - a class that cannot be read counts by name only
+    static byte[] buildHash(Codec<?> codec) {
+        ByteOut all = new ByteOut(64 * 1024);
+        ArrayList<Class<?>> classes = new ArrayList<>(Arrays.asList(codec.builders()));
+        classes.add(0, codec.getClass());
+        for (Class<?> c : classes) {
+            all.put(c.getName()).put((byte) 0);
+            String name = c.getName();
+            try (InputStream in = c.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+                if (in != null)
+                    all.put(in.readAllBytes());
+            } catch (IOException e) {
+                log.debug("unable to read class file of {}: {}", name, e.toString());
+            }
+        }
+        return sha256(Arrays.copyOf(all.array(), all.size()));
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] ab = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, ab, a.length, b.length);
+        return ab;
+    }
+
+    private static byte[] sha256(byte[] b) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(b);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,33 +1,76 @@
 package util;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.github.luben.zstd.ZstdInputStream;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1Primitive;
 
 import java.io.BufferedInputStream;
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
-import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CodingErrorAction;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPInputStream;
 
 import static com.google.common.io.BaseEncoding.base16;
 
 public class Util {
     public static BufferedInputStream create(Path path) throws IOException {
-        FileInputStream is = new FileInputStream(path.toFile());
         System.out.println(path);
-        if (path.toString().endsWith(".gz")) {
-            return new BufferedInputStream(new GZIPInputStream(is));
-        } else if (path.getFileName().endsWith(".zst")) {
-            return new BufferedInputStream(new ZstdInputStream(is));
+        return open(path);
+    }
+
+    /// create() without echoing the path - decoded by whatever InputCodecs finds in the first bytes,
+    /// on a ReadAheadChannel thread when read-ahead is on
+    public static BufferedInputStream open(Path path) throws IOException {
+        InputCodec codec = InputCodecs.detect(path);
+        if (ReadAheadChannel.enabled())
+            return new BufferedInputStream(InputCodecs.stream(channel(codec, path)));
+        return new BufferedInputStream(codec.stream(path));
+    }
+
+    /// the decoded bytes of path, read ahead when that is on
+    private static ReadableByteChannel channel(InputCodec codec, Path path) throws IOException {
+        return ReadAheadChannel.wrap(codec.open(path), codec.directBuffers());
+    }
+
+    /// true when path holds gzip, zstd or any other registered codec rather than raw BER
+    public static boolean isCompressed(Path path) throws IOException {
+        return InputCodecs.detect(path) != InputCodecs.RAW;
+    }
+
+    /// Whole BER records from path - uncompressed files are memory mapped when mmap is set,
+    /// everything else is decoded by its codec and split on the fly by BerChannelReader.
+    public static RecordSource records(Path path, boolean mmap) throws IOException {
+        return records(path, mmap, System.out);
+    }
+
+    /// records() echoing the path to echo instead of stdout, or not at all when it is null
+    public static RecordSource records(Path path, boolean mmap, PrintStream echo) throws IOException {
+        if (echo != null)
+            echo.println(path);
+        InputCodec codec = InputCodecs.detect(path);
+        if (mmap && codec == InputCodecs.RAW)
+            return new MappedBerFile(path);
+        return new BerChannelReader(channel(codec, path), codec.directBuffers());
+    }
+
+    /// BouncyCastle object for one whole record handed out by a RecordSource
+    public static ASN1Primitive readObject(ByteBuffer rec) throws IOException {
+        ByteArrayInputStream bis;
+        if (rec.hasArray()) {
+            bis = new ByteArrayInputStream(rec.array(), rec.arrayOffset() + rec.position(), rec.remaining());
         } else {
-            return new BufferedInputStream(is);
+            byte[] ray = new byte[rec.remaining()];
+            rec.duplicate().get(ray);
+            bis = new ByteArrayInputStream(ray);
+        }
+        try (ASN1InputStream ais = new ASN1InputStream(bis)) {
+            return ais.readObject();
         }
     }
 
@@ -55,22 +98,16 @@ public class Util {
 
     public static ObjectMapper jom() { return jom; };
 
-    static final CharsetDecoder utf8DecoderChecked = StandardCharsets.UTF_8
-            .newDecoder()
-            .onMalformedInput(CodingErrorAction.REPORT)
-            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    /// the text of ray, or the upper case hex form when it holds control characters - throws when
+    /// it is not valid UTF-8.  See ValueText for the non-throwing version the walkers use.
     public static String carefulBytesToString(byte[] ray) {
-        try {
-            String s= utf8DecoderChecked.decode(ByteBuffer.wrap(ray)).toString();
-            for (int i = 0; i < s.length(); i++) {
-                int c = s.codePointAt(i);
-                if ( Character.isISOControl(c))
-                    return "hex[" + ray.length + "]: " + base16().encode(ray);
-            }
-            return s;
-            // return new String(ray, StandardCharsets.UTF_8);
-        } catch (Exception e) {
-            throw new RuntimeException("Cannot safely decode message to UTF-8, byte array hex: " + base16().encode(ray), e);
+        switch (ValueText.classify(ray, 0, ray.length)) {
+            case ValueText.TEXT:
+                return new String(ray, StandardCharsets.UTF_8);
+            case ValueText.CONTROL:
+                return "hex[" + ray.length + "]: " + base16().encode(ray);
+            default:
+                throw new RuntimeException("Cannot safely decode message to UTF-8, byte array hex: " + base16().encode(ray));
         }
     }
     public static String toSIAbbreviation(final TimeUnit timeUnit) {
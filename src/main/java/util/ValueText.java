@@ -0,0 +1,140 @@
+package util;
+
+import java.nio.charset.StandardCharsets;
+
+/// Value text for octet string leaves, worked out straight from the bytes.
+///
+/// Same text Util.carefulBytesToString and the tools' toStr() have always given:
+///   - valid UTF-8 without control characters: the text itself
+///   - valid UTF-8 holding an ISO control character: "hex[<len>]: " and upper case hex
+///   - not valid UTF-8: "HEX: " and lower case hex
+/// and with hexAlso ", HEX: " and lower case hex after the first two.
+///
+/// Nothing is decoded to a String and nothing throws to say the bytes are not text - one pass
+/// over the bytes classifies them (plain ASCII is a single compare per byte) and render() puts
+/// the result into the caller's ByteOut.  Octet strings are most of the leaves in a record.
+public final class ValueText {
+
+    public static final int TEXT = 0;
+    /// valid UTF-8 but holds an ISO control character
+    public static final int CONTROL = 1;
+    public static final int MALFORMED = 2;
+
+    private static final byte[] HEX_LOWER = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX_UPPER = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] MALFORMED_PREFIX = "HEX: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTROL_PREFIX = "hex[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTROL_PREFIX_END = "]: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX_ALSO = ", HEX: ".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<ByteOut> scratch = ThreadLocal.withInitial(() -> new ByteOut(256));
+
+    private ValueText() {
+    }
+
+    /// TEXT, CONTROL or MALFORMED - UTF-8 is checked as strictly as the JDK decoder does it:
+    /// no overlong forms, no surrogates, nothing past U+10FFFF, no truncated sequences
+    public static int classify(byte[] b, int off, int len) {
+        final int end = off + len;
+        int i = off;
+        boolean control = false;
+        while (i < end) {
+            int c = b[i];
+            if (c >= 0) {
+                // ASCII
+                if (c < 0x20 || c == 0x7f)
+                    control = true;
+                i++;
+                continue;
+            }
+            c &= 0xff;
+            if (c < 0xc2) {
+                // stray continuation byte or an overlong 2 byte lead
+                return MALFORMED;
+            } else if (c < 0xe0) {
+                if (i + 1 >= end || !cont(b[i + 1]))
+                    return MALFORMED;
+                // U+0080..U+009F are the C1 controls
+                if (c == 0xc2 && (b[i + 1] & 0xff) < 0xa0)
+                    control = true;
+                i += 2;
+            } else if (c < 0xf0) {
+                if (i + 2 >= end)
+                    return MALFORMED;
+                int c1 = b[i + 1] & 0xff;
+                if (c == 0xe0 ? (c1 < 0xa0 || c1 > 0xbf)
+                        : c == 0xed ? (c1 < 0x80 || c1 > 0x9f)
+                        : !cont(b[i + 1]))
+                    return MALFORMED;
+                if (!cont(b[i + 2]))
+                    return MALFORMED;
+                i += 3;
+            } else if (c < 0xf5) {
+                if (i + 3 >= end)
+                    return MALFORMED;
+                int c1 = b[i + 1] & 0xff;
+                if (c == 0xf0 ? (c1 < 0x90 || c1 > 0xbf)
+                        : c == 0xf4 ? (c1 < 0x80 || c1 > 0x8f)
+                        : !cont(b[i + 1]))
+                    return MALFORMED;
+                if (!cont(b[i + 2]) || !cont(b[i + 3]))
+                    return MALFORMED;
+                i += 4;
+            } else {
+                return MALFORMED;
+            }
+        }
+        return control ? CONTROL : TEXT;
+    }
+
+    private static boolean cont(byte b) {
+        return (b & 0xc0) == 0x80;
+    }
+
+    /// the value text for b[off, off+len) appended to out
+    public static ByteOut render(ByteOut out, byte[] b, int off, int len, boolean hexAlso) {
+        switch (classify(b, off, len)) {
+            case TEXT:
+                out.put(b, off, len);
+                break;
+            case CONTROL:
+                out.put(CONTROL_PREFIX).putDecimal(len).put(CONTROL_PREFIX_END);
+                hex(out, b, off, len, HEX_UPPER);
+                break;
+            default:
+                out.put(MALFORMED_PREFIX);
+                return hex(out, b, off, len, HEX_LOWER);
+        }
+        if (hexAlso) {
+            out.put(HEX_ALSO);
+            hex(out, b, off, len, HEX_LOWER);
+        }
+        return out;
+    }
+
+    /// render() for callers that need a String, e.g. for a json TextNode
+    public static String toStr(byte[] b, boolean hexAlso) {
+        if (!hexAlso && classify(b, 0, b.length) == TEXT)
+            return new String(b, StandardCharsets.UTF_8);
+        ByteOut out = scratch.get();
+        out.reset();
+        render(out, b, 0, b.length, hexAlso);
+        return out.toString();
+    }
+
+    public static ByteOut hexLower(ByteOut out, byte[] b, int off, int len) {
+        return hex(out, b, off, len, HEX_LOWER);
+    }
+
+    private static ByteOut hex(ByteOut out, byte[] b, int off, int len, byte[] digits) {
+        byte[] dst = out.extend(len * 2);
+        int p = out.size() - len * 2;
+        for (int i = off, end = off + len; i < end; i++) {
+            int v = b[i] & 0xff;
+            dst[p++] = digits[v >>> 4];
+            dst[p++] = digits[v & 0xf];
+        }
+        return out;
+    }
+}